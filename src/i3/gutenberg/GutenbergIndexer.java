@@ -0,0 +1,263 @@
+package i3.gutenberg;
+
+import i3.thread.Threads;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Consumer side of the catalog indexing: the parser puts the book properties
+ * in a bounded queue and worker threads turn them into documents and add them
+ * to the shared IndexWriter, so that analysis runs on all cores while the
+ * parser reads the catalog. Each worker reuses its Document and Field
+ * instances.
+ *
+ * Documents have the ebook id and a hash of the other fields. When updating a
+ * existing index, books with the same hash are skipped, changed ones replaced
+ * and the ones not in the catalog anymore are deleted on finish().
+ *
+ * Use it once: put all the books then call finish(), or close() to abort.
+ *
+ * @author i30817
+ */
+final class GutenbergIndexer implements GutenbergRDFParser.BookSink, AutoCloseable {
+
+    private static final String[] POISON = new String[0];
+    private final IndexWriter index;
+    private final BlockingQueue<String[]> queue;
+    private final ExecutorService workers;
+    private final List<Future<Void>> results = new ArrayList<>();
+    private final AtomicInteger documents = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    //id -> hash of the books in the index not seen yet, null if it's new
+    private final Map<String, Long> existing;
+    private final long start = System.currentTimeMillis();
+    private volatile IOException failure;
+
+    /**
+     * @param index shared by the workers
+     * @param existing from readHashes, or null if the index is empty
+     * @param threads number of workers
+     * @param queueCapacity books waiting for a worker before the parser blocks
+     */
+    GutenbergIndexer(IndexWriter index, Map<String, Long> existing, int threads, int queueCapacity) {
+        this.index = index;
+        this.existing = existing == null ? null : new ConcurrentHashMap<>(existing);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = Threads.newFIFOFixedExecutor("Gutenberg indexer", threads, true);
+        for (int i = 0; i < threads; i++) {
+            results.add(workers.submit(new Worker()));
+        }
+    }
+
+    /**
+     * Reads the ids and hashes of the indexed books
+     *
+     * @return null if there is no index or it was written without ids
+     */
+    static Map<String, Long> readHashes(Directory directory) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>(Arrays.asList("id", "hash"));
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            Bits live = MultiFields.getLiveDocs(reader);
+            Map<String, Long> hashes = new HashMap<>(reader.numDocs() * 2);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (live != null && !live.get(i)) {
+                    continue;
+                }
+                Document d = reader.document(i, fields);
+                IndexableField hash = d.getField("hash");
+                if (hash == null || d.get("id") == null) {
+                    return null;
+                }
+                hashes.put(d.get("id"), hash.numericValue().longValue());
+            }
+            return hashes;
+        }
+    }
+
+    /**
+     * Queues the book, blocking while the queue is full
+     *
+     * @param fields title, creator, contributor, subject, language,
+     * metadata and ebook id
+     * @throws IOException if a worker failed or the thread was interrupted
+     */
+    @Override
+    public void book(String[] fields) throws IOException {
+        try {
+            put(fields);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("indexing interrupted");
+        }
+    }
+
+    private void put(String[] fields) throws IOException, InterruptedException {
+        //if the workers fail nothing takes from the queue
+        while (!queue.offer(fields, 100, TimeUnit.MILLISECONDS)) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Waits for the queued books to be added to the index and deletes the
+     * ones that were not in the catalog
+     *
+     * @return number of documents added or updated
+     * @throws IOException if a worker failed
+     */
+    int finish() throws IOException {
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                put(POISON);
+            }
+            for (Future<Void> f : results) {
+                f.get();
+            }
+            if (existing != null && !existing.isEmpty()) {
+                Term[] deleted = new Term[existing.size()];
+                int i = 0;
+                for (String id : existing.keySet()) {
+                    deleted[i++] = new Term("id", id);
+                }
+                index.deleteDocuments(deleted);
+            }
+        } catch (InterruptedException ex) {
+            close();
+            throw new InterruptedIOException("indexing interrupted");
+        } catch (ExecutionException ex) {
+            close();
+            Throwable cause = ex.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (IOException ex) {
+            //a worker failed before all were told to stop, the others wait in take
+            close();
+            throw ex;
+        } finally {
+            workers.shutdown();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        int total = documents.get() + unchanged.get();
+        LogManager.getLogger().info("indexed " + total + " documents (" + documents.get() + " new or changed, "
+                + (existing == null ? 0 : existing.size()) + " deleted) with " + results.size()
+                + " threads in " + elapsed + " ms (" + total * 1000L / elapsed + " docs/sec)");
+        return documents.get();
+    }
+
+    /**
+     * Discards the queued books and stops the workers
+     */
+    @Override
+    public void close() {
+        queue.clear();
+        workers.shutdownNow();
+    }
+
+    private final class Worker implements Callable<Void> {
+
+        private final Field title = new TextField("title", "", Field.Store.YES);
+        private final Field creator = new TextField("creator", "", Field.Store.YES);
+        private final Field contributor = new TextField("contributor", "", Field.Store.YES);
+        private final Field subject = new TextField("subject", "", Field.Store.YES);
+        private final Field language = new TextField("language", "", Field.Store.YES);
+        private final Field metadata = new StoredField("metadata", "");
+        private final Field id = new StringField("id", "", Field.Store.YES);
+        private final Field hash = new StoredField("hash", 0L);
+        private final Document doc = new Document();
+
+        Worker() {
+            doc.add(title);
+            doc.add(creator);
+            doc.add(contributor);
+            doc.add(subject);
+            doc.add(language);
+            doc.add(metadata);
+            doc.add(id);
+            doc.add(hash);
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            while (true) {
+                String[] fields = queue.take();
+                if (fields == POISON) {
+                    return null;
+                }
+                title.setStringValue(fields[0]);
+                creator.setStringValue(fields[1]);
+                contributor.setStringValue(fields[2]);
+                subject.setStringValue(fields[3]);
+                language.setStringValue(fields[4]);
+                metadata.setStringValue(fields[5]);
+                long fieldsHash = hash(fields);
+                if (existing != null) {
+                    Long old = existing.remove(fields[6]);
+                    if (old != null && old == fieldsHash) {
+                        unchanged.incrementAndGet();
+                        continue;
+                    }
+                }
+                id.setStringValue(fields[6]);
+                hash.setLongValue(fieldsHash);
+                try {
+                    if (existing == null) {
+                        index.addDocument(doc);
+                    } else {
+                        index.updateDocument(new Term("id", fields[6]), doc);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    failure = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                    throw ex;
+                }
+                documents.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a of the fields
+     */
+    private static long hash(String[] fields) {
+        long h = 0xcbf29ce484222325L;
+        for (String field : fields) {
+            for (int i = 0; i < field.length(); i++) {
+                h = (h ^ field.charAt(i)) * 0x100000001b3L;
+            }
+            //separator, so moving text between fields changes the hash
+            h = (h ^ 0xFFFF) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -1,22 +1,27 @@
 package i3.gutenberg;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import org.apache.commons.digester3.Digester;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StoredField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.index.IndexWriter;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * This class parses and stuffs some attributes from the Project Gutenberg RDF
@@ -24,143 +29,351 @@ import org.xml.sax.SAXException;
  * the pg catalog. The attributes are : Authors and Collaborators (searchable)
  * Title (searchable) File extent, mimetype and download link (not searchable)
  *
+ * The PG rdf is crazyyyy: it has two distinct sections with a foreign key, the
+ * etexts (book metadata) and then the files of all the etexts. The xml is read
+ * as a stream and the etexts that are books are spilled to a temporary file,
+ * with only their ids and offsets in memory, so the memory used doesn't depend
+ * on the size of the catalog. The files of a etext are consecutive, so when
+ * they end the best one is joined with the etext and given to the BookSink
+ * (that writes to lucene).
+ *
  * It is not thread safe and you can't reuse it, so don't even try. Always new.
  *
  * @author paulo
  */
 class GutenbergRDFParser {
 
-    private IndexWriter index;
+    private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String ETEXT = "rdf:RDF/pgterms:etext";
+    private static final String FILE = "rdf:RDF/pgterms:file";
+
+    static {
+        //every file url in the catalog is a entity
+        System.setProperty("entityExpansionLimit", "1000000");
+    }
+    private final BookSink sink;
     //the first file id in the gutenberg rdf.
     private long currentFileId = 1L;
-    private List<File> bestFileCandidates = new ArrayList<>();
-    //Not threadsafe obviously.
-    public final static StringBuilder auxString = new StringBuilder();
-    //Alas, this needs to be kept in memory because the PG rdf is crazyyyy.
-    //(it has two distinct sections with a foreign key).
-    private static Map<Long, Book> crazyMemoryLeak = new HashMap<>();
-    //help a little with the memory: a map of Master strings for authors, languages and LCSH.
-    private static Map<String, String> interned = new HashMap<>();
-
-    public GutenbergRDFParser(IndexWriter lucene) {
-        this.index = lucene;
+    private final List<File> bestFileCandidates = new ArrayList<>();
+
+    /**
+     * Receives the properties of the books, from the parsing thread
+     */
+    interface BookSink {
+
+        /**
+         * @param fields title, creator, contributor, subject, language,
+         * metadata and ebook id
+         */
+        void book(String[] fields) throws IOException;
     }
 
-    public void parse(InputStream xml) throws IOException {
+    public GutenbergRDFParser(BookSink sink) {
+        this.sink = sink;
+    }
 
-        try {
-            //XMLReaderFactory.createXMLReader().
-            Digester d = new Digester();
-
-            d.push(this);
-
-            d.addObjectCreate("rdf:RDF/pgterms:etext", Book.class);
-            //addSetProperty is not working (bug in version 2.1 of digester)
-            d.addSetProperties("rdf:RDF/pgterms:etext", "rdf:ID", "id");
-            /**
-             * When there are two kinds of tags, one which is singular
-             * ("Literal") another that holds a collection, unfortunately, due
-             * to the way Digester works, if one is a prefix of the other, you
-             * will get a duplicate call in the larger string for the smaller
-             * string callback. In this case the passed strings are null, and
-             * that is the only case that happens, so you can test and ignore
-             * null in a unified callback.
-             */
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:creator", "setCreator", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:creator/rdf:Bag/rdf:li", "setCreator", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:contributor", "setContributor", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:contributor/rdf:Bag/rdf:li", "setContributor", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:title", "setTitle", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:title/rdf:Bag/rdf:li", "setTitle", 0);
-
-            //not affected by the effect commented above (first not a subtring of the second)
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:language/dcterms:ISO639-2/rdf:value", "setLanguage", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:language/rdf:Bag/rdf:li/dcterms:ISO639-2/rdf:value", "setLanguage", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:subject/dcterms:LCSH/rdf:value", "setLCSH", 0);
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:subject/rdf:Bag/rdf:li/dcterms:LCSH/rdf:value", "setLCSH", 0);
-            /**
-             * If it has the type tag, it is certainly not a book. However not
-             * all not-a-book have that tag. You need to check the mimetypes in
-             * the download later. Much love to shitty xml (rdf whatever).
-             */
-            d.addCallMethod("rdf:RDF/pgterms:etext/dc:type", "setIsNotBook");
-            d.addSetNext("rdf:RDF/pgterms:etext", "saveIfABook");
-
-            d.addObjectCreate("rdf:RDF/pgterms:file", File.class);
-            d.addSetProperties("rdf:RDF/pgterms:file", "rdf:about", "downloadSuffix");
-            d.addCallMethod("rdf:RDF/pgterms:file/dc:format/dcterms:IMT/rdf:value", "setMimeType", 0);
-            d.addCallMethod("rdf:RDF/pgterms:file/dcterms:extent", "setExtent", 0);
-            d.addSetProperties("rdf:RDF/pgterms:file/dcterms:isFormatOf", "rdf:resource", "id");
-            d.addSetNext("rdf:RDF/pgterms:file", "writeBookToLucene");
-            d.parse(xml);
+    public void parse(InputStream xml) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        try (BookStore books = new BookStore()) {
+            XMLStreamReader reader = factory.createXMLStreamReader(xml);
+            try {
+                parse(reader, books);
+            } finally {
+                reader.close();
+            }
             //flush the last.
-            writeBookAux();
-        } catch (SAXException ex) {
+            writeBookAux(books);
+        } catch (XMLStreamException ex) {
             throw new IOException("Project Gutenberg datafile is corrupt", ex);
-        } finally {
-            interned = new HashMap<>();
-            crazyMemoryLeak = new HashMap<>();
         }
     }
 
-    public void saveIfABook(Book book) {
-        if (book.isPossiblyABook) {
-            crazyMemoryLeak.put(book.ID, book);
+    private void parse(XMLStreamReader reader, BookStore books) throws XMLStreamException, IOException {
+        //qualified names of the open elements, like the digester patterns
+        StringBuilder path = new StringBuilder(128);
+        int[] pathLengths = new int[16];
+        int depth = 0;
+        StringBuilder text = new StringBuilder();
+        Book book = null;
+        File file = null;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth == pathLengths.length) {
+                        pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+                    }
+                    pathLengths[depth++] = path.length();
+                    if (path.length() != 0) {
+                        path.append('/');
+                    }
+                    String prefix = reader.getPrefix();
+                    if (prefix != null && !prefix.isEmpty()) {
+                        path.append(prefix).append(':');
+                    }
+                    path.append(reader.getLocalName());
+                    text.setLength(0);
+                    if (depth == 2) {
+                        String element = path.toString();
+                        if (ETEXT.equals(element)) {
+                            book = new Book();
+                            String id = reader.getAttributeValue(RDF, "ID");
+                            if (id != null) {
+                                book.setId(id);
+                            }
+                        } else if (FILE.equals(element)) {
+                            file = new File();
+                            String about = reader.getAttributeValue(RDF, "about");
+                            if (about != null) {
+                                file.setDownloadSuffix(about);
+                            }
+                        }
+                    } else if (book != null && depth == 3 && endsWith(path, "/dc:type")) {
+                        /**
+                         * If it has the type tag, it is certainly not a book.
+                         * However not all not-a-book have that tag. You need
+                         * to check the mimetypes in the download later. Much
+                         * love to shitty xml (rdf whatever).
+                         */
+                        book.setIsNotBook();
+                    } else if (file != null && depth == 3 && endsWith(path, "/dcterms:isFormatOf")) {
+                        String resource = reader.getAttributeValue(RDF, "resource");
+                        if (resource != null) {
+                            file.setId(resource);
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (book != null || file != null) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (book != null) {
+                        if (depth == 2) {
+                            if (book.isPossiblyABook) {
+                                books.put(book);
+                            }
+                            book = null;
+                        } else {
+                            setBookProperty(book, path.substring(ETEXT.length()), text.toString().trim());
+                        }
+                    } else if (file != null) {
+                        if (depth == 2) {
+                            writeBookToLucene(file, books);
+                            file = null;
+                        } else {
+                            setFileProperty(file, path.substring(FILE.length()), text.toString().trim());
+                        }
+                    }
+                    text.setLength(0);
+                    path.setLength(pathLengths[--depth]);
+                    break;
+                default:
+            }
+        }
+    }
+
+    private static boolean endsWith(StringBuilder path, String suffix) {
+        int start = path.length() - suffix.length();
+        return start >= 0 && path.indexOf(suffix, start) == start;
+    }
+
+    /**
+     * When there are two kinds of tags, one which is singular ("Literal")
+     * another that holds a collection, the collection tag has no text, so
+     * empty strings are ignored by the setters.
+     */
+    private static void setBookProperty(Book book, String element, String text) {
+        switch (element) {
+            case "/dc:creator":
+            case "/dc:creator/rdf:Bag/rdf:li":
+                book.setCreator(text);
+                break;
+            case "/dc:contributor":
+            case "/dc:contributor/rdf:Bag/rdf:li":
+                book.setContributor(text);
+                break;
+            case "/dc:title":
+            case "/dc:title/rdf:Bag/rdf:li":
+                book.setTitle(text);
+                break;
+            case "/dc:language/dcterms:ISO639-2/rdf:value":
+            case "/dc:language/rdf:Bag/rdf:li/dcterms:ISO639-2/rdf:value":
+                book.setLanguage(text);
+                break;
+            case "/dc:subject/dcterms:LCSH/rdf:value":
+            case "/dc:subject/rdf:Bag/rdf:li/dcterms:LCSH/rdf:value":
+                book.setLCSH(text);
+                break;
+            default:
         }
     }
 
-    public void writeBookToLucene(File candidateFile) throws IOException {
+    private static void setFileProperty(File file, String element, String text) {
+        switch (element) {
+            case "/dc:format/dcterms:IMT/rdf:value":
+                file.setMimeType(text);
+                break;
+            case "/dcterms:extent":
+                file.setExtent(text);
+                break;
+            default:
+        }
+    }
+
+    private void writeBookToLucene(File candidateFile, BookStore books) throws IOException {
         if (candidateFile.isForABook()) {
             if (currentFileId != candidateFile.id) {
                 //time to flush
+                writeBookAux(books);
                 currentFileId = candidateFile.id;
-                writeBookAux();
             }
             bestFileCandidates.add(candidateFile);
         }
     }
 
-    private void writeBookAux() throws CorruptIndexException, IOException {
+    private void writeBookAux(BookStore books) throws IOException {
+        if (bestFileCandidates.isEmpty()) {
+            return;
+        }
         //after collecting all editions of a book (they are consecutive)
         //we choose the best for us.
         File bestFile = Collections.max(bestFileCandidates);
         bestFileCandidates.clear();
-        Book bk = crazyMemoryLeak.remove(bestFile.id);
+        String[] bk = books.remove(bestFile.id);
 
         if (bk == null) {
             return;
         }
-        String title = bk.joinTitles();
-        String languages = bk.joinLanguages();
-        String creators = bk.joinCreators();
-        String contributors = bk.joinContributors();
-        String subjects = bk.joinSubjects();
+        String title = bk[0];
+        String languages = bk[1];
+        String creators = bk[2];
+        String contributors = bk[3];
+        String subjects = bk[4];
         String properties = bestFile.joinProperties();
 //All of these except the title == null and the last two might happen in the corpus
-//        assert (!languages.isEmpty()) : "Added a empty language string, title: " + bk.titles + " id: " + bestFile.id;
-//        assert (!creators.isEmpty()) : " Added a empty creators string, title: " + bk.titles + " id: " + bestFile.id;
+//        assert (!languages.isEmpty()) : "Added a empty language string, title: " + title + " id: " + bestFile.id;
+//        assert (!creators.isEmpty()) : " Added a empty creators string, title: " + title + " id: " + bestFile.id;
 //        assert (!title.isEmpty()) : "Added a empty title, id: " + bestFile.id;
-//        assert (title != null) : "Added a null title, id: " + bestFile.id;
-//        assert (properties.split(GutenbergSearch.MULTIPLE_DATA_SEPARATOR).length == 3) : "Added a invalid file, title: " + bk.titles + " id: " + bestFile.id + " properties divided: " + java.util.Arrays.toString(properties.split(GutenbergSearch.MULTIPLE_DATA_SEPARATOR));
-//        assert (!properties.split(GutenbergSearch.MULTIPLE_DATA_SEPARATOR)[2].equals("null")) : "Added a invalid file, title: " + bk.titles + " id: " + bestFile.id + " properties: " + properties;
+//        assert (properties.split(GutenbergSearch.MULTIPLE_DATA_SEPARATOR).length == 3) : "Added a invalid file, title: " + title + " id: " + bestFile.id + " properties divided: " + java.util.Arrays.toString(properties.split(GutenbergSearch.MULTIPLE_DATA_SEPARATOR));
+//        assert (!properties.split(GutenbergSearch.MULTIPLE_DATA_SEPARATOR)[2].equals("null")) : "Added a invalid file, title: " + title + " id: " + bestFile.id + " properties: " + properties;
 
         if (languages.isEmpty() || creators.isEmpty() || title.isEmpty()) {
             return;
         }
 
-        Document doc = new Document();
-        doc.add(new TextField("title", title, Field.Store.YES));
-        doc.add(new TextField("creator", creators, Field.Store.YES));
-        doc.add(new TextField("contributor", contributors, Field.Store.YES));
-        doc.add(new TextField("subject", subjects, Field.Store.YES));
-        doc.add(new TextField("language", languages, Field.Store.YES));
-        doc.add(new StoredField("metadata", properties));
-        index.addDocument(doc);
+        sink.book(new String[]{title, creators, contributors, subjects, languages, properties, Long.toString(bestFile.id)});
+    }
+
+    /**
+     * Temporary file of the joined etext properties. In memory there are only
+     * the sorted ids and the offsets of the records (the ids in the catalog
+     * are sorted, so inserts are almost always appends).
+     */
+    private static final class BookStore implements Closeable {
+
+        private static final long REMOVED = -1;
+
+        private final Path file = Files.createTempFile("gutenberg", ".etexts");
+        private final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        private final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+        private long[] ids = new long[1024];
+        private long[] offsets = new long[1024];
+        private int size;
+        private long end;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+        BookStore() throws IOException {
+        }
+
+        void put(Book book) throws IOException {
+            int i = size == 0 || ids[size - 1] < book.ID ? size : Arrays.binarySearch(ids, 0, size, book.ID);
+            if (i >= 0 && i < size) {
+                //duplicate id, the first wins
+                return;
+            }
+            i = i < 0 ? -i - 1 : i;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            System.arraycopy(offsets, i, offsets, i + 1, size - i);
+            ids[i] = book.ID;
+            offsets[i] = end;
+            size++;
+
+            byte[][] strings = {
+                bytes(book.joinTitles()), bytes(book.joinLanguages()), bytes(book.joinCreators()),
+                bytes(book.joinContributors()), bytes(book.joinSubjects())};
+            int length = 0;
+            for (byte[] s : strings) {
+                length += 4 + s.length;
+            }
+            out.writeInt(length);
+            for (byte[] s : strings) {
+                out.writeInt(s.length);
+                out.write(s);
+            }
+            end += 4 + length;
+        }
+
+        /**
+         * Later calls with the same id return null, so a book is only written
+         * once
+         *
+         * @return title, languages, creators, contributors and subjects, or
+         * null if there is no book with the id or it was removed
+         */
+        String[] remove(long id) throws IOException {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i < 0 || offsets[i] == REMOVED) {
+                return null;
+            }
+            out.flush();
+            long position = offsets[i];
+            //the id stays, so a later etext with it is still a duplicate
+            offsets[i] = REMOVED;
+            int length = read(position, 4).getInt();
+            ByteBuffer record = read(position + 4, length);
+            String[] strings = new String[5];
+            for (int s = 0; s < strings.length; s++) {
+                int stringLength = record.getInt();
+                strings[s] = new String(record.array(), record.position(), stringLength, StandardCharsets.UTF_8);
+                record.position(record.position() + stringLength);
+            }
+            return strings;
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            if (readBuffer.capacity() < length) {
+                readBuffer = ByteBuffer.allocate(length);
+            }
+            readBuffer.clear().limit(length);
+            while (readBuffer.hasRemaining()) {
+                if (channel.read(readBuffer, position + readBuffer.position()) == -1) {
+                    throw new IOException("truncated temporary gutenberg file");
+                }
+            }
+            readBuffer.flip();
+            return readBuffer;
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 
     /**
-     * This class, unlike Book bellow, is short lived. It is used for Digester
-     * to put in properties and to sort the most relevant file
+     * This class, unlike Book bellow, is short lived. It is used to put in
+     * properties and to sort the most relevant file
      */
     public static class File implements Comparable<File> {
 
@@ -199,13 +412,7 @@ class GutenbergRDFParser {
         }
 
         public String joinProperties() {
-            auxString.setLength(0);
-            auxString.append(mimeType);
-            auxString.append(GutenbergSearch.MULTIPLE_DATA_SEPARATOR);
-            auxString.append(extent);
-            auxString.append(GutenbergSearch.MULTIPLE_DATA_SEPARATOR);
-            auxString.append(downloadSuffix);
-            return auxString.toString();
+            return mimeType + GutenbergSearch.MULTIPLE_DATA_SEPARATOR + extent + GutenbergSearch.MULTIPLE_DATA_SEPARATOR + downloadSuffix;
         }
 
         private void calculateSortValue() {
@@ -248,6 +455,9 @@ class GutenbergRDFParser {
         }
     }
 
+    /**
+     * Also short lived, only until it's written to the BookStore
+     */
     public static class Book {
 
         public long ID;
@@ -282,7 +492,7 @@ class GutenbergRDFParser {
             if (joinList.isEmpty()) {
                 return "";
             }
-            auxString.setLength(0);
+            StringBuilder auxString = new StringBuilder();
             Iterator<String> i = joinList.iterator();
             auxString.append(i.next());
             while (i.hasNext()) {
@@ -291,35 +501,27 @@ class GutenbergRDFParser {
             return auxString.toString();
         }
 
-        //in the set methods, in the next version of digester, hopefully the
-        //isEmpty calls can go away, and only the asserts remain. They are a
-        //workaround for a problem of the substrings in xml tags with callbacks.
-        //(bug report DIGESTER-143)
+        //the collection tags have no text of their own, so the isEmpty checks
+        //ignore them
         public void setCreator(String creator) {
             if (creator.isEmpty()) {
                 return;
             }
-            assert (!creator.isEmpty()) : "Shouldn't be empty " + ID;
-            this.creators.add(getInternedString(creator));
+            this.creators.add(creator);
         }
 
         public void setContributor(String contributor) {
             if (contributor.isEmpty()) {
                 return;
             }
-            assert (!contributor.isEmpty()) : "Shouldn't be empty " + ID;
-            this.contributors.add(getInternedString(contributor));
+            this.contributors.add(contributor);
         }
 
         public void setLanguage(String language) {
             if (language.isEmpty()) {
                 return;
             }
-            assert (!language.isEmpty()) : "Shouldn't be empty " + ID;
-            this.languages.add(getInternedString(language));
-//            if (languages.size() > 1) {
-//                System.out.println("Double lang: " + titles);
-//            }
+            this.languages.add(language);
         }
 
         public void setTitle(String title) {
@@ -327,16 +529,12 @@ class GutenbergRDFParser {
                 //don't care about alternate titles.
                 return;
             }
-            assert (!title.isEmpty()) : "Shouldn't be empty " + ID;
             this.titles.add(title.replace("\n", " "));
-//            if (titles.size() > 1) {
-//                System.out.println("Double title: " + titles);
-//            }
         }
 
         public void setLCSH(String lcsh) {
             assert (!lcsh.isEmpty()) : "Shouldn't be empty " + ID;
-            subjects.add(getInternedString(lcsh));
+            subjects.add(lcsh);
         }
 
         public void setId(String ID) {
@@ -348,16 +546,6 @@ class GutenbergRDFParser {
             isPossiblyABook = false;
         }
 
-        public static String getInternedString(String author) {
-            String canonical = interned.get(author);
-
-            if (canonical == null) {
-                interned.put(author, author);
-                return author;
-            }
-            return canonical;
-        }
-
         @Override
         public String toString() {
             return "Book{" + "ID=" + ID + "title=" + titles + "language=" + languages + "creator=" + creators + "subjects=" + subjects + "isABook=" + isPossiblyABook + '}';
@@ -6,19 +6,27 @@ import static i3.thread.Threads.*;
 import java.awt.Component;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipInputStream;
 import javax.swing.JPanel;
 import org.apache.logging.log4j.LogManager;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -44,10 +52,27 @@ import org.apache.lucene.util.Version;
 public final class GutenbergSearch implements Closeable {
 
     public static final String MULTIPLE_DATA_SEPARATOR = "\n";
-
-    static {
-        System.setProperty("entityExpansionLimit", "1000000");
-    }
+    /**
+     * Downloaded on every update, unless system property
+     * 'bookjar.gutenberg.catalog' is the path of a local copy
+     */
+    private static final String CATALOG_URL = "http://www.gutenberg.org/feeds/catalog.rdf.zip";
+    /**
+     * Threads adding documents to the index, system property
+     * 'bookjar.gutenberg.threads' (default the number of processors)
+     */
+    private static final int INDEX_THREADS = Integer.getInteger("bookjar.gutenberg.threads", Runtime.getRuntime().availableProcessors());
+    /**
+     * Memory used by the index for buffering documents before writing a
+     * segment, system property 'bookjar.gutenberg.ramBufferMB'
+     */
+    private static final int INDEX_RAM_BUFFER_MB = Integer.getInteger("bookjar.gutenberg.ramBufferMB", 48);
+    /**
+     * Segments merged at once by the merge policy, system property
+     * 'bookjar.gutenberg.segmentsPerTier'. Higher indexes faster but searches
+     * more segments until they are merged.
+     */
+    private static final int INDEX_SEGMENTS_PER_TIER = Integer.getInteger("bookjar.gutenberg.segmentsPerTier", 10);
     private final ExecutorService discardingSingleThreadIndexer = newFixedDiscardingExecutor("Indexer", 1, true);
     private final Path dir;
     private final Directory cacheDir;
@@ -150,30 +175,53 @@ public final class GutenbergSearch implements Closeable {
     private void prepare(final Component parent) throws IOException {
         ProgressMonitorStream stream = null;
         ZipInputStream zp = null;
-        IndexWriter indexWriter = new IndexWriter(cacheDir,
-                new IndexWriterConfig(Version.LUCENE_41, englishAnalyzer).
-                setOpenMode(IndexWriterConfig.OpenMode.CREATE));
         try {
-            URL u = new URL("http://www.gutenberg.org/feeds/catalog.rdf.zip");
-//            u = IoUtils.toURL(new File("/home/paulo/Downloads/catalog.rdf.zip"));
+            String localCatalog = System.getProperty("bookjar.gutenberg.catalog");
+            URL u = localCatalog == null ? new URL(CATALOG_URL) : Paths.get(localCatalog).toUri().toURL();
             stream = ProgressMonitorStream.create(u, "Indexing Project Gutenberg", parent);
             zp = new ZipInputStream(stream);
             zp.getNextEntry();
-            GutenbergRDFParser parser = new GutenbergRDFParser(indexWriter);
-            parser.parse(zp);
+            index(cacheDir, englishAnalyzer, zp, Math.max(1, INDEX_THREADS));
+        } finally {
+            IoUtils.close(stream, zp);
+        }
+    }
+
+    /**
+     * Indexes the catalog. If the index already exists, only the books that
+     * changed since it was written are updated, and the ones no longer in the
+     * catalog deleted, all in a single commit at the end, so readers of the
+     * index see the old version until then. If anything fails the changes are
+     * rolled back.
+     */
+    static void index(Directory directory, Analyzer analyzer, InputStream catalog, int threads) throws IOException {
+        Map<String, Long> existing = GutenbergIndexer.readHashes(directory);
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(INDEX_SEGMENTS_PER_TIER);
+        mergePolicy.setMaxMergeAtOnce(INDEX_SEGMENTS_PER_TIER);
+        IndexWriter indexWriter = new IndexWriter(directory,
+                new IndexWriterConfig(Version.LUCENE_41, analyzer).
+                //indexes without ids are rebuilt
+                setOpenMode(existing == null ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.CREATE_OR_APPEND).
+                setRAMBufferSizeMB(INDEX_RAM_BUFFER_MB).
+                setMergePolicy(mergePolicy).
+                setMaxThreadStates(threads));
+        GutenbergIndexer indexer = new GutenbergIndexer(indexWriter, existing, threads, threads * 64);
+        try {
+            GutenbergRDFParser parser = new GutenbergRDFParser(indexer);
+            parser.parse(catalog);
+            indexer.finish();
             indexWriter.close();
-        } catch (IOException ex) {
-            //see IndexWriter.close() javadoc, the second close is needed
+        } catch (IOException | RuntimeException ex) {
+            indexer.close();
             try {
-                indexWriter.close();
+                indexWriter.rollback();
             } finally {
-                if (IndexWriter.isLocked(cacheDir)) {
-                    IndexWriter.unlock(cacheDir);
+                if (IndexWriter.isLocked(directory)) {
+                    IndexWriter.unlock(directory);
                 }
             }
             throw ex;
-        } finally {
-            IoUtils.close(stream, zp);
         }
     }
 
@@ -188,16 +236,25 @@ public final class GutenbergSearch implements Closeable {
      * search subjects instead. If null or empty, nop (any subject).
      * @param languageLocale the language of the books to search If null or
      * Locale.ROOT, nop (any language).
-     * @param maxHits maximum number of returned hits
-     * @param callback a callback to use the returned documents
+     * @param pageSize number of documents in a page of the results
+     * @return the results, to be closed after use, or null if there is nothing
+     * to search or the database is not ready
      * @throws a exception if a error occurred connecting to the database or
      * querying it.
      */
-    public void query(String bookQuery, String subjects, Locale languageLocale, int maxHits, SearchCallback callback) throws IOException, ParseException {
+    public Results query(String bookQuery, String subjects, Locale languageLocale, int pageSize) throws IOException, ParseException {
         if (!isReady()) {
             LogManager.getLogger().error("could not query lucene database due to previous error");
-            return;
+            return null;
         }
+        Query query = createQuery(bookQuery, subjects, languageLocale);
+        if (query == null) {
+            return null;
+        }
+        return new Results(manager, query, pageSize);
+    }
+
+    private Query createQuery(String bookQuery, String subjects, Locale languageLocale) throws ParseException {
         //preprocessing
         boolean shouldSearchSubjects = subjects != null && !subjects.isEmpty();
         boolean shouldSearchBooks = bookQuery != null && !bookQuery.isEmpty();
@@ -223,7 +280,7 @@ public final class GutenbergSearch implements Closeable {
         }
 
         if (!shouldSearchSubjects && !shouldSearchBooks) {
-            return;
+            return null;
         }
 
         QueryParser parser = null;
@@ -250,17 +307,106 @@ public final class GutenbergSearch implements Closeable {
             Filter f = new QueryWrapperFilter(parser.parse("language:" + filterLanguage));
             query = new FilteredQuery(query, f);
         }
+        return query;
+    }
 
-        IndexSearcher s = manager.acquire();
-        try {
-            TopDocs docs = s.search(query, null, maxHits, Sort.INDEXORDER, false, false);
-            for (ScoreDoc d : docs.scoreDocs) {
-                if (!callback.shouldContinue(s.doc(d.doc))) {
-                    break;
+    /**
+     * The hits of a query in index order, read a page at a time with
+     * searchAfter. Only the documents of the requested pages are loaded.
+     *
+     * It keeps the searcher it was created with until closed, so the pages
+     * stay consistent if the index is updated in the meantime. Thread safe.
+     */
+    public static final class Results implements Closeable {
+
+        private final SearcherManager manager;
+        private final IndexSearcher searcher;
+        private final Query query;
+        private final int pageSize;
+        private final int totalHits;
+        //last hit of each page searched, to search the next after it
+        private final List<ScoreDoc> pageEnds = new ArrayList<>();
+        private boolean closed;
+
+        Results(SearcherManager manager, Query query, int pageSize) throws IOException {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("page size must be positive " + pageSize);
+            }
+            this.manager = manager;
+            this.query = query;
+            this.pageSize = pageSize;
+            this.searcher = manager.acquire();
+            try {
+                TopDocs first = search(null);
+                totalHits = first.totalHits;
+                addPageEnd(first);
+            } catch (IOException | RuntimeException ex) {
+                manager.release(searcher);
+                throw ex;
+            }
+        }
+
+        public int getTotalHits() {
+            return totalHits;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public int getPages() {
+            return (totalHits + pageSize - 1) / pageSize;
+        }
+
+        /**
+         * Searches the hits until the given page (the previous pages are only
+         * searched once) and loads the documents in it
+         *
+         * @return the documents of the page, empty if it's past the last
+         * @throws IOException if the results were closed or the index can't
+         * be read
+         */
+        public synchronized List<Document> page(int page) throws IOException {
+            if (closed) {
+                throw new IOException("results already closed");
+            }
+            while (pageEnds.size() < page) {
+                if (!addPageEnd(search(pageEnds.get(pageEnds.size() - 1)))) {
+                    return Collections.emptyList();
                 }
             }
-        } finally {
-            manager.release(s);
+            TopDocs docs = search(page == 0 ? null : pageEnds.get(page - 1));
+            if (pageEnds.size() == page) {
+                addPageEnd(docs);
+            }
+            List<Document> documents = new ArrayList<>(docs.scoreDocs.length);
+            for (ScoreDoc d : docs.scoreDocs) {
+                documents.add(searcher.doc(d.doc));
+            }
+            return documents;
+        }
+
+        private TopDocs search(ScoreDoc after) throws IOException {
+            if (after == null) {
+                return searcher.search(query, null, pageSize, Sort.INDEXORDER, false, false);
+            }
+            return searcher.searchAfter(after, query, null, pageSize, Sort.INDEXORDER, false, false);
+        }
+
+        private boolean addPageEnd(TopDocs docs) {
+            if (docs.scoreDocs.length == 0) {
+                return false;
+            }
+            pageEnds.add(docs.scoreDocs[docs.scoreDocs.length - 1]);
+            return true;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                manager.release(searcher);
+            }
         }
     }
 
@@ -295,9 +441,4 @@ public final class GutenbergSearch implements Closeable {
 //        }
         return b.toString().trim();
     }
-
-    public static abstract class SearchCallback {
-
-        public abstract boolean shouldContinue(Document d);
-    }
 }
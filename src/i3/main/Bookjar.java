@@ -3,6 +3,7 @@ package i3.main;
 import i3.io.IoUtils;
 import i3.io.ObjectsReader;
 import i3.ui.Application;
+import i3.ui.controller.MovingPane;
 import java.awt.EventQueue;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -122,6 +123,10 @@ public class Bookjar implements Runnable {
                 shutdownLogger.error("something wrong during serialization", ex);
             }
             shutdownLogger.info("ended serialization");
+            String latency = MovingPane.OPEN_LATENCY.toString();
+            if (!latency.isEmpty()) {
+                shutdownLogger.info("time to show books\n" + latency);
+            }
             //it was configured not to have a 'flush' shutdown hook
             Configurator.shutdown((org.apache.logging.log4j.core.LoggerContext) LogManager.getContext());
         }
@@ -1,38 +1,50 @@
 package i3.main;
 
 import ca.odell.glazedlists.BasicEventList;
-import i3.io.FileVisitors;
+import i3.io.DirectorySnapshot;
 import i3.io.IoUtils;
+import i3.io.Journal;
+import i3.io.ParallelFileScanner;
 import i3.io.ObjectsReader;
 import i3.parser.BookLoader;
 import i3.thread.Threads;
 import i3.util.Strings;
+import i3.util.Tuples;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.ByteArrayInputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchService;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.event.SwingPropertyChangeSupport;
 import org.apache.logging.log4j.LogManager;
 
@@ -58,13 +70,23 @@ import org.apache.logging.log4j.LogManager;
  * classes without transient, which complicates deserialization, it uses its own
  * serialization protocol: on shutdown or used book change you should call
  * 'replace' with the updated book you were using, 'CreateIfAbsent' serializes a
- * default version of the book and 'removeBooks' and 'validateLibrary' save all
- * of the collection. This was done since the updates would need to happen
- * explicitly anyway, since LocalBook is immutable, and it's much safer and
- * faster to serialize piecemeal, preventing corruption bugs of the whole
- * collection from impatient O.S. shutdown killing the process. This uses a
- * different serialization file backend than the normal one automatically, to
- * prevent modifications from other classes invalidating the stream.
+ * default version of the book and 'removeBooks' serializes the removal. These
+ * are appended to a checksummed journal that is replayed on startup over the
+ * last snapshot of the whole collection. 'validateLibrary' and big journals
+ * compact the journal into a new snapshot. This was done since the updates
+ * would need to happen explicitly anyway, since LocalBook is immutable, and
+ * it's much safer and faster to serialize piecemeal, preventing corruption bugs
+ * of the whole collection from impatient O.S. shutdown killing the process.
+ * This uses its own binary format ({@link LocalBookCodec}) instead of java
+ * serialization, so modifications of other classes can't invalidate it, and
+ * migrates the serialized state of older versions on load.
+ *
+ * Lookups by filename go through a secondary index that is only modified while
+ * holding the write lock of the eventList, and read while holding its read
+ * lock, so it's always in sync with the list. It's rebuilt on load. The
+ * index finds a book without going through the list, but changing a found book
+ * in the list still needs its position, found by a scan of the list by
+ * identity.
  *
  * @author i30817
  */
@@ -74,10 +96,38 @@ public final class Library implements Externalizable {
      * Property change key, LibraryUpdate in new value
      */
     public static final String LIBRARY_CHANGE = "LIBRARY_CHANGE";
+    /**
+     * Property change key, ParallelFileScanner.Metrics in new value, sent
+     * during and at the end of the library directory scan
+     */
+    public static final String LIBRARY_SCAN = "LIBRARY_SCAN";
     private static final PropertyChangeSupport pipe = new SwingPropertyChangeSupport(LIBRARY_CHANGE, true);
-    private static final Path libraryState = Bookjar.programLocation.resolve("library.bin");
+    /**
+     * Threads listing the library directories, system property
+     * 'bookjar.scan.parallelism' (default the number of processors). Network
+     * mounted libraries benefit from more.
+     */
+    private static final int SCAN_PARALLELISM = Integer.getInteger("bookjar.scan.parallelism", Runtime.getRuntime().availableProcessors());
+    private static final Path libraryState = Bookjar.programLocation.resolve("library.books");
+    //java serialized snapshot of older versions, migrated on load
+    private static final Path legacyLibraryState = Bookjar.programLocation.resolve("library.bin");
+    //a snapshot that couldn't be read is moved here instead of saved over
+    private static final Path corruptLibraryState = Bookjar.programLocation.resolve("library.books.corrupt");
+    private static final Path libraryJournal = Bookjar.programLocation.resolve("library.journal");
+    //directories of the last scan, to only list the changed ones on the next
+    private static final Path libraryDirectories = Bookjar.programLocation.resolve("library.dirs");
+    //old per book records, migrated to the journal on load
     private static final Path partialLibraryDir = Bookjar.programLocation.resolve("b");
+    //journal operations
+    private static final byte CREATE = 0, REPLACE = 1, REMOVE = 2;
+    //syncs of the journal wait at most this, to batch bookmark saves
+    private static final long JOURNAL_SYNC_DELAY = 1000;
+    //compact when the journal has more records than this or the library size
+    private static final int MINIMUM_COMPACTION_RECORDS = 2048;
     private final ExecutorService libraryWatcher = Executors.newSingleThreadExecutor(IoUtils.createThreadFactory(true));
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(IoUtils.createThreadFactory(true, "Library compaction"));
+    private final AtomicBoolean compactionPending = new AtomicBoolean();
+    private final Journal journal;
     private Future watchDogTask = Threads.newObjectFuture(null);
     //TODO remove both of these singletons
     static volatile boolean rootAvailable = false;
@@ -86,42 +136,118 @@ public final class Library implements Externalizable {
     static volatile Path libraryRoot = null;
     public BasicEventList<LocalBook> eventList;
 //    public DebugList<LocalBook> eventList;
+    //filename -> book, guarded by the eventList lock
+    private final Map<Path, LocalBook> fileNameIndex = new HashMap<>();
 
     public Library() {
-        String libRoot;
-        try (final ObjectsReader it = new ObjectsReader(libraryState)) {
-            libRoot = it.readOrReturn("");
-//            eventList = it.readOrReturn(new DebugList<LocalBook>());
-//            eventList.setLockCheckingEnabled(true);
-            eventList = it.readOrLazyCreate(BasicEventList.class);
-            if (Files.isReadable(partialLibraryDir)) {
-                FileVisitors.Files singleBookRecords = new FileVisitors.Files();
-                Files.walkFileTree(partialLibraryDir, singleBookRecords);
-                TreeSet<Path> records = new TreeSet<>(new LastModifiedPath());
-                records.addAll(singleBookRecords.canonicalMap.keySet());
-                eventList.getReadWriteLock().writeLock().lock();
+        String libRoot = "";
+        boolean migrated = false;
+//        eventList = new DebugList<LocalBook>();
+//        eventList.setLockCheckingEnabled(true);
+        eventList = new BasicEventList<>();
+        if (Files.exists(libraryState)) {
+            List<LocalBook> books = new ArrayList<>();
+            try {
+                libRoot = LocalBookCodec.read(libraryState, books);
+                eventList.addAll(books);
+            } catch (IOException ex) {
+                //the books are rebuilt from the older state or the next scan
+                LogManager.getLogger().error("couldn't read saved library, moved to " + corruptLibraryState, ex);
                 try {
-                    for (Path p : records) {
-                        try (ObjectsReader recIt = new ObjectsReader(p)) {
-                            LocalBook b = recIt.read();
-                            eventList.remove(b);
-                            eventList.add(0, b);
-                        } catch (IOException ex) {
-                            LogManager.getLogger().warn("file corrupt " + ex.getMessage());
-                        }
-                    }
-                } finally {
-                    eventList.getReadWriteLock().writeLock().unlock();
+                    Files.move(libraryState, corruptLibraryState, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException moveEx) {
+                    throw new AssertionError("unrecoverable library state", moveEx);
                 }
             }
+        }
+        if (!Files.exists(libraryState) && Files.exists(legacyLibraryState)) {
+            try (final ObjectsReader it = new ObjectsReader(legacyLibraryState)) {
+                libRoot = it.readOrReturn("");
+                eventList = it.readOrLazyCreate(BasicEventList.class);
+            } catch (IOException ex) {
+                throw new AssertionError("unrecoverable library state", ex);
+            }
+            migrated = true;
+        }
+        try {
+            libraryRoot = libRoot.equals("") ? null : Paths.get(libRoot);
+        } catch (InvalidPathException ex) {
+            libraryRoot = null;
+        }
+        rebuildIndex();
+        migrated |= loadPartialRecords();
+        try {
+            journal = new Journal(libraryJournal, JOURNAL_SYNC_DELAY);
+            eventList.getReadWriteLock().writeLock().lock();
             try {
-                libraryRoot = libRoot.equals("") ? null : Paths.get(libRoot);
-            } catch (InvalidPathException ex) {
-                libraryRoot = null;
+                journal.replay(new Journal.Replay() {
+                    @Override
+                    public void record(byte[] record) throws IOException {
+                        applyRecord(record);
+                    }
+                });
+            } finally {
+                eventList.getReadWriteLock().writeLock().unlock();
             }
         } catch (IOException ex) {
             throw new AssertionError("unrecoverable library state", ex);
         }
+        IoUtils.addShutdownHook(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    LogManager.getLogger("syslogger").error("couldn't close the library journal", ex);
+                }
+            }
+        });
+        if (migrated) {
+            saveMultipleRecords();
+            IoUtils.deleteFileOrDir(partialLibraryDir);
+            IoUtils.deleteFileOrDir(legacyLibraryState);
+        } else {
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Loads the per book records of older versions, in the order they were
+     * saved.
+     *
+     * @return if there were records to load
+     */
+    private boolean loadPartialRecords() {
+        if (!Files.isReadable(partialLibraryDir)) {
+            return false;
+        }
+        List<Tuples.T2<Long, Path>> records = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(partialLibraryDir)) {
+            for (Path p : dir) {
+                records.add(Tuples.createPair(Files.getLastModifiedTime(p).toMillis(), p));
+            }
+        } catch (IOException ex) {
+            LogManager.getLogger().warn("couldn't read old library records " + ex.getMessage());
+        }
+        Collections.sort(records, new Comparator<Tuples.T2<Long, Path>>() {
+            @Override
+            public int compare(Tuples.T2<Long, Path> o1, Tuples.T2<Long, Path> o2) {
+                return o1.getFirst().compareTo(o2.getFirst());
+            }
+        });
+        eventList.getReadWriteLock().writeLock().lock();
+        try {
+            for (Tuples.T2<Long, Path> record : records) {
+                try (ObjectsReader recIt = new ObjectsReader(record.getSecond())) {
+                    moveToFirst((LocalBook) recIt.read());
+                } catch (IOException ex) {
+                    LogManager.getLogger().warn("file corrupt " + ex.getMessage());
+                }
+            }
+        } finally {
+            eventList.getReadWriteLock().writeLock().unlock();
+        }
+        return true;
     }
 
     /**
@@ -139,14 +265,18 @@ public final class Library implements Externalizable {
         }
     }
 
+    /**
+     * Compacts the journal into a snapshot of the complete state.
+     */
     private void saveMultipleRecords() {
-        //delete partial state and save the complete state
         Path lib = libraryRoot;
         String saved = lib == null ? "" : lib.toString();
-        IoUtils.deleteFileOrDir(partialLibraryDir);
+        //appends only happen with the write lock, so none can be lost between
+        //writing the snapshot and truncating the journal
         eventList.getReadWriteLock().readLock().lock();
         try {
-            ObjectsReader.writeObjects(libraryState, saved, eventList);
+            LocalBookCodec.write(libraryState, saved, eventList);
+            journal.truncate();
         } catch (IOException ex) {
             LogManager.getLogger().error("during saving", ex);
         } finally {
@@ -154,16 +284,90 @@ public final class Library implements Externalizable {
         }
     }
 
-    private void saveSingularRecord(LocalBook lb) {
+    /**
+     * Not threadsafe, call with the write lock held, right after the
+     * modification, to keep the journal in the same order as the list.
+     */
+    private void saveSingularRecord(byte operation, LocalBook lb) {
         try {
-            if (!Files.isDirectory(partialLibraryDir)) {
-                Files.createDirectories(partialLibraryDir);
+            journal.append(LocalBookCodec.encode(operation, lb));
+        } catch (IOException ex) {
+            LogManager.getLogger().error("during saving", ex);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Like saveSingularRecord, with a single write for all the books
+     */
+    private void saveSingularRecords(byte operation, Collection<LocalBook> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        try {
+            List<byte[]> records = new ArrayList<>(books.size());
+            for (LocalBook lb : books) {
+                records.add(LocalBookCodec.encode(operation, lb));
             }
-            Path p = partialLibraryDir.resolve(lb.getFileName() + ".b");
-            ObjectsReader.writeObjects(p, lb);
+            journal.append(records);
         } catch (IOException ex) {
             LogManager.getLogger().error("during saving", ex);
         }
+        compactIfNeeded();
+    }
+
+    /**
+     * Not threadsafe, call with the write lock held
+     */
+    private void applyRecord(byte[] record) throws IOException {
+        byte operation;
+        LocalBook book;
+        if (record.length > 1 && record[0] == (byte) 0xAC && record[1] == (byte) 0xED) {
+            //java serialization stream magic, record of a older version
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record))) {
+                operation = in.readByte();
+                book = (LocalBook) in.readObject();
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException(ex);
+            }
+        } else {
+            byte[] op = new byte[1];
+            book = LocalBookCodec.decode(record, op);
+            operation = op[0];
+        }
+        LocalBook old = fileNameIndex.get(book.getRelativeFile().getFileName());
+        if (operation == REPLACE || (operation == CREATE && old == null)) {
+            moveToFirst(book);
+        } else if (operation == CREATE) {
+            eventList.set(positionOf(old), book);
+            index(book);
+        } else if (operation == REMOVE && old != null) {
+            eventList.remove(old);
+            fileNameIndex.remove(book.getRelativeFile().getFileName());
+        }
+    }
+
+    /**
+     * Not threadsafe, call with the write lock held
+     */
+    private void moveToFirst(LocalBook book) {
+        eventList.remove(book);
+        eventList.add(0, book);
+        index(book);
+    }
+
+    private void compactIfNeeded() {
+        //replaying a journal bigger than the library is slower than reading a snapshot
+        int threshold = Math.max(MINIMUM_COMPACTION_RECORDS, eventList.size());
+        if (journal.records() > threshold && compactionPending.compareAndSet(false, true)) {
+            compactor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    compactionPending.set(false);
+                    saveMultipleRecords();
+                }
+            });
+        }
     }
 
     private synchronized void replaceWatchdog(WatchService result, Path dirToWatch) {
@@ -175,7 +379,9 @@ public final class Library implements Externalizable {
      * Trying to call() the result of this method will add all books in the
      * given library dir, and repairs broken ones if found, mark as broken if
      * not found; it will also start the WatchService thread that adds and
-     * removes books to the library when the user does.
+     * removes books to the library when the user does. Directories that didn't
+     * change since the last call are not listed again, their books are taken
+     * from a saved snapshot.
      *
      * You can run this on executors and 'get' the returned future to run in
      * other threads.
@@ -192,10 +398,17 @@ public final class Library implements Externalizable {
         return new Callable<Boolean>() {
             @Override
             public Boolean call() throws IOException {
-                final BooksAndWatcherCollector result = new BooksAndWatcherCollector(parent);
-                Files.walkFileTree(parent, result);
+                final BooksAndWatcherScanner result = new BooksAndWatcherScanner(parent);
+                Map<LocalBook, LocalBook> canonicalMap = result.scan(parent, DirectorySnapshot.read(libraryDirectories));
                 replaceWatchdog(result.watchTheLib, parent);
-                LibraryUpdate update = Library.this.validateBooks(result.canonicalMap);
+                if (result.getMetrics().listed > 0) {
+                    try {
+                        result.getSnapshot().write(libraryDirectories);
+                    } catch (IOException ex) {
+                        LogManager.getLogger().error("couldn't save library directories", ex);
+                    }
+                }
+                LibraryUpdate update = Library.this.validateBooks(canonicalMap);
                 boolean booksChanged = update.addedBooks > 0 || update.repairedBooks > 0;
                 if (booksChanged || libChanged) {
                     saveMultipleRecords();
@@ -209,17 +422,52 @@ public final class Library implements Externalizable {
     /**
      * invariant, key is relative to the library dir not threadsafe return null
      * (not found) or a listIterator at the right index to get (use previous())
-     * remove() or replace()
+     * remove() or replace(). Only for changes of the list, a found book needs
+     * the scan of positionOf, use the fileNameIndex to only get it.
      */
     private ListIterator<LocalBook> getFirstBookForFileName(Path key) {
         //be careful here not to compare 'Path.getFileName with LocalBook.getFileName - Path vs String
-        for (ListIterator<LocalBook> it = eventList.listIterator(); it.hasNext();) {
-            LocalBook l = it.next();
-            if (l.getRelativeFile().getFileName().equals(key.getFileName())) {
-                return it;
+        LocalBook indexed = fileNameIndex.get(key.getFileName());
+        if (indexed == null) {
+            //the common case for new files, no need to scan the list
+            return null;
+        }
+        ListIterator<LocalBook> it = eventList.listIterator(positionOf(indexed));
+        it.next();
+        return it;
+    }
+
+    /**
+     * Not threadsafe, the position of a book of the index, compared by
+     * identity since indexOf compares the filenames of all books before it
+     */
+    private int positionOf(LocalBook indexed) {
+        for (int i = 0; i < eventList.size(); i++) {
+            if (eventList.get(i) == indexed) {
+                return i;
             }
         }
-        return null;
+        throw new AssertionError("book of the index not in the library " + indexed.getFileName());
+    }
+
+    /**
+     * Not threadsafe, call with the write lock held after every modification
+     * of the eventList.
+     */
+    private void index(LocalBook book) {
+        fileNameIndex.put(book.getRelativeFile().getFileName(), book);
+    }
+
+    private void rebuildIndex() {
+        eventList.getReadWriteLock().writeLock().lock();
+        try {
+            fileNameIndex.clear();
+            for (LocalBook b : eventList) {
+                index(b);
+            }
+        } finally {
+            eventList.getReadWriteLock().writeLock().unlock();
+        }
     }
 
     /**
@@ -232,7 +480,9 @@ public final class Library implements Externalizable {
             ListIterator<LocalBook> it = getFirstBookForFileName(file);
             if (it != null) {
                 LocalBook old = it.previous();
-                it.set(old.setBroken(true));
+                LocalBook broken = old.setBroken(true);
+                it.set(broken);
+                index(broken);
                 LogManager.getLogger().warn("broke " + old.getFileName());
                 return true;
             }
@@ -242,6 +492,96 @@ public final class Library implements Externalizable {
         return false;
     }
 
+    /**
+     * Applies a batch of file system changes with a single write lock, list
+     * insertion, journal write and update event (if anything changed).
+     *
+     * Books in deleted paths (books or directories) or in rescanned
+     * directories that were not created again are broken. Created books are
+     * added or, if they exist in the library broken or with another parent,
+     * repaired.
+     *
+     * @param created absolute book files, in the order they were created
+     * @param deleted absolute deleted files or directories
+     * @param rescanned absolute directories whose book files are all in
+     * created
+     * @ThreadSafe
+     */
+    void update(Collection<Path> created, Collection<Path> deleted, Collection<Path> rescanned) {
+        LibraryUpdate update;
+        eventList.getReadWriteLock().writeLock().lock();
+        try {
+            int previousBooks = eventList.size();
+            //filename -> relative path, last creation wins
+            Map<Path, Path> createdFiles = new LinkedHashMap<>();
+            for (Path p : created) {
+                Path relative = invariants(p);
+                createdFiles.remove(relative.getFileName());
+                createdFiles.put(relative.getFileName(), relative);
+            }
+            Set<Path> gone = new HashSet<>();
+            for (Path p : deleted) {
+                gone.add(invariants(p));
+            }
+            for (Path p : rescanned) {
+                gone.add(invariants(p));
+            }
+
+            List<LocalBook> broken = new ArrayList<>();
+            if (!gone.isEmpty()) {
+                for (ListIterator<LocalBook> it = eventList.listIterator(); it.hasNext();) {
+                    LocalBook b = it.next();
+                    if (b.isBroken() || b.getRelativeFile().equals(createdFiles.get(b.getRelativeFile().getFileName()))) {
+                        continue;
+                    }
+                    for (Path ancestor = b.getRelativeFile(); ancestor != null; ancestor = ancestor.getParent()) {
+                        if (gone.contains(ancestor)) {
+                            b = b.setBroken(true);
+                            it.set(b);
+                            index(b);
+                            broken.add(b);
+                            break;
+                        }
+                    }
+                }
+            }
+
+            List<LocalBook> added = new ArrayList<>();
+            List<LocalBook> repaired = new ArrayList<>();
+            for (Path relative : createdFiles.values()) {
+                LocalBook old = fileNameIndex.get(relative.getFileName());
+                if (old == null) {
+                    added.add(new LocalBook(relative, null, 0, 0.0F, false, false));
+                } else if ((old.isBroken() || !relative.equals(old.getRelativeFile())) && Files.exists(libraryRoot.resolve(relative))) {
+                    LocalBook b = old.setRelativeFile(relative).setBroken(false);
+                    eventList.set(positionOf(old), b);
+                    index(b);
+                    broken.remove(b);
+                    repaired.add(b);
+                }
+            }
+            //newest first, like createIfAbsent
+            Collections.reverse(added);
+            eventList.addAll(0, added);
+            for (LocalBook b : added) {
+                index(b);
+            }
+            //a single write for the batch
+            List<LocalBook> saved = new ArrayList<>(added.size() + repaired.size());
+            saved.addAll(added);
+            saved.addAll(repaired);
+            saveSingularRecords(CREATE, saved);
+            if (added.isEmpty() && repaired.isEmpty() && broken.isEmpty()) {
+                return;
+            }
+            LogManager.getLogger().info("library changes: " + added.size() + " added, " + repaired.size() + " repaired, " + broken.size() + " broken");
+            update = LibraryUpdate.createEvent(libraryRoot, previousBooks, added.size(), repaired.size(), broken);
+        } finally {
+            eventList.getReadWriteLock().writeLock().unlock();
+        }
+        sendUpdate(update);
+    }
+
     /**
      * @ThreadSafe
      */
@@ -250,12 +590,7 @@ public final class Library implements Externalizable {
         eventList.getReadWriteLock().readLock().lock();
         try {
             Path fileKey = invariants(key);
-            for (LocalBook b : eventList) {
-                if (b.getRelativeFile().getFileName().equals(fileKey.getFileName())) {
-                    return b;
-                }
-            }
-            return null;
+            return fileNameIndex.get(fileKey.getFileName());
         } finally {
             eventList.getReadWriteLock().readLock().unlock();
         }
@@ -296,10 +631,13 @@ public final class Library implements Externalizable {
         eventList.getReadWriteLock().writeLock().lock();
         try {
             eventList.removeAll(keys);
+            for (LocalBook b : keys) {
+                fileNameIndex.remove(b.getRelativeFile().getFileName());
+                saveSingularRecord(REMOVE, b);
+            }
         } finally {
             eventList.getReadWriteLock().writeLock().unlock();
         }
-        saveMultipleRecords();
     }
 
     /**
@@ -320,22 +658,23 @@ public final class Library implements Externalizable {
         eventList.getReadWriteLock().writeLock().lock();
         try {
             Path fileKey = invariants(key);
-            //to avoid possible duplicate when adding later
-            ListIterator<LocalBook> it = getFirstBookForFileName(fileKey);
-            if (it == null) {
+            //to avoid possible duplicate when adding later, the list is not
+            //changed if it exists so there's no need of its position
+            bookmark = fileNameIndex.get(fileKey.getFileName());
+            if (bookmark == null) {
                 bookmark = new LocalBook(fileKey, language, 0, 0.0F, gutenberg, false);
                 eventList.add(0, bookmark);
+                index(bookmark);
             } else {
-                bookmark = it.previous();
                 if (bookmark.isBroken() && Files.exists(key)) {
                     bookmark = bookmark.setRelativeFile(fileKey).setBroken(false);
                     LogManager.getLogger().info("repaired " + bookmark.getFileName());
                 }
             }
+            saveSingularRecord(CREATE, bookmark);
         } finally {
             eventList.getReadWriteLock().writeLock().unlock();
         }
-        saveSingularRecord(bookmark);
         return bookmark;
     }
 
@@ -348,15 +687,14 @@ public final class Library implements Externalizable {
     public void replace(final LocalBook value) {
         eventList.getReadWriteLock().writeLock().lock();
         try {
-            eventList.remove(value);
-            eventList.add(0, value);
+            moveToFirst(value);
+            saveSingularRecord(REPLACE, value);
         } finally {
             eventList.getReadWriteLock().writeLock().unlock();
         }
-        saveSingularRecord(value);
     }
 
-    private LibraryUpdate validateBooks(Map<LocalBook, LocalBook> fileBooks) {
+    LibraryUpdate validateBooks(Map<LocalBook, LocalBook> fileBooks) {
         int stride = 0;
         int newBooksIndex = -1;
         int repairedNumber = 0;
@@ -382,6 +720,7 @@ public final class Library implements Externalizable {
                     canonical = canonical.setBroken(true);
                     broken.add(canonical);
                     it.set(canonical);
+                    index(canonical);
                 } else if (!fileBased.haveEqualParents(canonical) || canonical.isBroken()) {
                     //on startup, isBroken will be false, because it is initially set
                     //in the branch above, but the parents might already be different
@@ -390,6 +729,7 @@ public final class Library implements Externalizable {
                     //some previously broken book (by above or filewatcher) becomes available
                     canonical = canonical.setRelativeFile(fileBased.getRelativeFile()).setBroken(false);
                     it.set(canonical);
+                    index(canonical);
                     repairedNumber++;
                 }
             }
@@ -426,6 +766,9 @@ public final class Library implements Externalizable {
         eventList.getReadWriteLock().writeLock().lock();
         try {
             eventList.addAll(newBooksIndex, sortedBooks);
+            for (LocalBook b : sortedBooks) {
+                index(b);
+            }
             return LibraryUpdate.createEvent(libraryRoot, listSize, sortedBooks.size(), repairedNumber, broken);
         } finally {
             eventList.getReadWriteLock().writeLock().unlock();
@@ -543,26 +886,13 @@ public final class Library implements Externalizable {
         pipe.removePropertyChangeListener(property, l);
     }
 
-    private static class LastModifiedPath implements Comparator<Path> {
-
-        @Override
-        public int compare(Path o1, Path o2) {
-            try {
-                long x = Files.getLastModifiedTime(o1).toMillis();
-                long y = Files.getLastModifiedTime(o2).toMillis();
-                return (x < y) ? -1 : ((x == y) ? 0 : 1);
-            } catch (IOException ex) {
-                return Integer.MIN_VALUE;
-            }
-        }
-    }
-
-    private static class BooksAndWatcherCollector extends FileVisitors.FilesTransformer<LocalBook> {
+    private static class BooksAndWatcherScanner extends ParallelFileScanner<LocalBook> {
 
         private final Path library;
         public final WatchService watchTheLib;
 
-        public BooksAndWatcherCollector(Path library) throws IOException {
+        public BooksAndWatcherScanner(Path library) throws IOException {
+            super(SCAN_PARALLELISM, new ScanProgress());
             this.watchTheLib = FileSystems.getDefault().newWatchService();
             this.library = library;
             //watchservice wont watch a dir itself, only its immediate children
@@ -572,9 +902,10 @@ public final class Library implements Externalizable {
         }
 
         @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-            FileVisitResult r = super.preVisitDirectory(dir, attrs);
-            if (r == FileVisitResult.CONTINUE) {
+        protected boolean preVisitDirectory(Path dir) throws IOException {
+            boolean r = super.preVisitDirectory(dir);
+            if (r) {
+                //registering is threadsafe
                 dir.register(watchTheLib, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
             }
             return r;
@@ -590,4 +921,15 @@ public final class Library implements Externalizable {
         }
     }
 
+    private static class ScanProgress implements ParallelFileScanner.Progress {
+
+        @Override
+        public void progress(ParallelFileScanner.Metrics metrics) {
+            if (metrics.done) {
+                LogManager.getLogger().info("scanned library: " + metrics);
+            }
+            pipe.firePropertyChange(LIBRARY_SCAN, null, metrics);
+        }
+    }
+
 }
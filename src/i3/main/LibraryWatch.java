@@ -1,20 +1,45 @@
 package i3.main;
 
+import i3.parser.BookLoader;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
 
 /**
+ * Watches the library tree. Events are collected until the file system is
+ * quiet for a while (or a maximum delay passes) and then given to the library
+ * as a single batch, so copying or deleting a big directory is a single
+ * update instead of one per file.
  *
  * @author i30817
  */
 public final class LibraryWatch {
 
+    /**
+     * A batch ends when there are no events for this long
+     */
+    private static final long QUIET_WINDOW = Long.getLong("bookjar.watch.quiet", 300);
+    /**
+     * A batch ends after this long, even if events keep coming
+     */
+    private static final long MAX_BATCH_DELAY = Long.getLong("bookjar.watch.maxdelay", 3000);
+
     static Callable startWatchdog(final WatchService dirTreeWatcher, final Path libraryRoot, final Library library) {
         return new Callable() {
 
@@ -23,7 +48,16 @@ public final class LibraryWatch {
                 try {
                     while (true) {
                         WatchKey key = dirTreeWatcher.take();
-                        pollDir(key);
+                        //last event of each path wins, in the order they first happened
+                        Map<Path, WatchEvent.Kind<Path>> changes = new LinkedHashMap<>();
+                        Set<Path> overflowed = new LinkedHashSet<>();
+                        long deadline = System.currentTimeMillis() + MAX_BATCH_DELAY;
+                        while (key != null) {
+                            pollDir(key, changes, overflowed);
+                            long wait = Math.min(QUIET_WINDOW, deadline - System.currentTimeMillis());
+                            key = wait > 0 ? dirTreeWatcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+                        }
+                        applyChanges(changes, overflowed);
                     }
                 } catch (InterruptedException x) {
                     //normal
@@ -33,42 +67,95 @@ public final class LibraryWatch {
                 return null;
             }
 
-            private void pollDir(WatchKey key) throws IOException, InterruptedException {
-
-                for (WatchEvent event : key.pollEvents()) {
-                    WatchEvent.Kind kind = event.kind();
-                    Path file = ((Path) key.watchable()).resolve((Path) event.context());
+            private void pollDir(WatchKey key, Map<Path, WatchEvent.Kind<Path>> changes, Set<Path> overflowed) throws IOException, InterruptedException {
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        //events were lost, only a rescan knows what changed
+                        if (!dir.equals(libraryRoot.getParent())) {
+                            overflowed.add(dir);
+                        } else if (!Files.exists(libraryRoot)) {
+                            Library.sendUpdate(LibraryUpdate.createBrokenLibraryEvent(library));
+                            throw new InterruptedException();
+                        }
+                        continue;
+                    }
+                    //the other kinds registered are of paths
+                    @SuppressWarnings("unchecked")
+                    WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
+                    WatchEvent.Kind<Path> kind = pathEvent.kind();
+                    Path file = dir.resolve(pathEvent.context());
 
                     //siblings are pulled as a side effect of needing to register the parent of root
-                    boolean rootSibling = file.getParent().equals(libraryRoot.getParent());
-                    if (rootSibling) {
+                    if (file.getParent().equals(libraryRoot.getParent())) {
                         assert kind == StandardWatchEventKinds.ENTRY_DELETE;
                         if (file.getFileName().equals(libraryRoot.getFileName())) {
                             library.sendUpdate(LibraryUpdate.createBrokenLibraryEvent(library));
                             throw new InterruptedException();
                         }
+                        continue;
                     }
+                    changes.remove(file);
+                    changes.put(file, kind);
+                }
+                key.reset();
+            }
 
-                    if (!rootSibling && kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            private void applyChanges(Map<Path, WatchEvent.Kind<Path>> changes, Set<Path> rescanned) throws IOException {
+                List<Path> created = new ArrayList<>();
+                List<Path> deleted = new ArrayList<>();
+                for (Map.Entry<Path, WatchEvent.Kind<Path>> e : changes.entrySet()) {
+                    Path file = e.getKey();
+                    if (e.getValue() == StandardWatchEventKinds.ENTRY_CREATE) {
                         if (Files.isDirectory(file)) {
-                            file.register(dirTreeWatcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
-                        } else {
-                            library.createIfAbsent(file, null, false);
+                            //files may have been created before the registration
+                            rescanned.add(file);
+                        } else if (BookLoader.acceptsFiles(file.getFileName().toString())) {
+                            created.add(file);
                         }
-                    } else if (!rootSibling && kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                    } else {
                         //warning: Files.isDirectory will never be true on ENTRY_DELETE
-                        //if it is not a book in the library but was registered it was a directory
-                        if (!library.breakBook(file)) {
-                            key.cancel();
-                        }
-                    }
-                    boolean valid = key.reset();
-                    if (!valid) {
-                        break;
+                        deleted.add(file);
                     }
                 }
+                for (Path dir : rescanned) {
+                    rescan(dir, created);
+                }
+                if (!created.isEmpty() || !deleted.isEmpty() || !rescanned.isEmpty()) {
+                    library.update(created, deleted, rescanned);
+                }
             }
 
+            /**
+             * Registers the directories in the subtree and collects the books
+             */
+            private void rescan(Path dir, final List<Path> created) throws IOException {
+                if (!Files.isDirectory(dir)) {
+                    return;
+                }
+                LogManager.getLogger().info("rescanning " + dir);
+                Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                        d.register(dirTreeWatcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (BookLoader.acceptsFiles(file.getFileName().toString()) && Files.isReadable(file)) {
+                            created.add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        LogManager.getLogger().warn("visitFileFailed: " + exc.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
         };
     }
 
@@ -1,8 +1,7 @@
 package i3.main;
 
-import i3.parser.ParserListener;
+import i3.parser.GutenbergTransformer;
 import i3.parser.Property;
-import i3.swing.SearchIterator;
 import i3.util.Strings;
 import i3.util.Tuples;
 import java.io.IOException;
@@ -16,17 +15,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.EnumMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DefaultStyledDocument;
-import javax.swing.text.MutableAttributeSet;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
 
 /**
  * Almost-Immutable Data store for book information - a book is considered equal
@@ -299,77 +290,4 @@ public final class LocalBook implements Book, Serializable {
         return Tuples.createPair(authorsArr, bookName);
     }
 
-    private static final class GutenbergTransformer implements ParserListener {
-
-        private static final String START_TAG = "START OF THIS PROJECT GUTENBERG";
-        private static final String END_TAG = "END OF THIS PROJECT GUTENBERG";
-        private final MutableAttributeSet italicAttr = new SimpleAttributeSet();
-        private final Map properties;
-
-        public GutenbergTransformer(Map properties) {
-            this.properties = properties;
-            italicAttr.addAttribute(StyleConstants.Italic, true);
-        }
-
-        @Override
-        public void startDocument(DefaultStyledDocument doc) {
-        }
-
-        @Override
-        public void endDocument(DefaultStyledDocument doc) {
-
-            SearchIterator s = new SearchIterator(START_TAG, doc, 0);
-            if (!s.hasNext()) {
-                assert false : "gutenberg file without license";
-            }
-            s.next();
-            s.setSearchText("***");
-            if (!s.hasNext()) {
-                assert false : "malformed gutenberg license";
-            }
-            int textStartIndex = s.next() + 4; //plus \n
-            s = new SearchIterator(END_TAG, doc, doc.getLength());
-            if (!s.hasPrevious()) {
-                assert false : "malformed gutenberg license";
-            }
-            s.previous();
-            s.setSearchText("***");
-            if (!s.hasPrevious()) {
-                assert false : "malformed gutenberg license";
-            }
-            int endTagIndex = s.previous();
-
-            try {
-                //remove the gutenberg license from the model
-                doc.remove(endTagIndex, doc.getLength() - endTagIndex);
-                doc.remove(0, textStartIndex);
-
-                //italicise gutenberg txt files
-                String name = (String) properties.get(Property.EXTRACTED_FILENAME);
-                if (!name.endsWith(".txt")) {
-                    return;
-                }
-
-                s = new SearchIterator("_", doc, 0);
-                List<Integer> antiClobber = new LinkedList<>();
-                while (s.hasNext()) {
-                    int start = s.next();
-                    if (!s.hasNext()) {
-                        assert false : "unclosed gutenberg italic _ at index " + start;
-                    }
-                    antiClobber.add(0, s.next());
-                    antiClobber.add(0, start);
-                }
-
-                for (Iterator<Integer> i = antiClobber.iterator(); i.hasNext();) {
-                    int start = i.next(), end = i.next();
-                    String text = doc.getText(start + 1, end - start - 1);
-                    doc.replace(start, end - start + 1, text, italicAttr);
-                }
-            } catch (BadLocationException ex) {
-                ex.printStackTrace();
-            }
-        }
-    }
-
 }
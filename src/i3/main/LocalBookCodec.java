@@ -0,0 +1,300 @@
+package i3.main;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary format of the library books, much smaller and faster than java
+ * serialization of LocalBook since there are no class descriptors or
+ * reflection. A file is the magic number, version, library root and the books.
+ * Each book is written as:
+ *
+ * parent directory, filename, flags, language, bookmark and read percentage
+ *
+ * All numbers are varints. Parent directories and languages repeat a lot, so
+ * they go into a string table as they are first seen, and are later written
+ * as a reference to it (0 is null, the next unused index is a new string).
+ * The read percentage is written as the bit reversed float bits, so that the
+ * common 0 and 1 take 1 and 2 bytes.
+ *
+ * Journal records use the same encoding with their own string table.
+ *
+ * @author i30817
+ */
+final class LocalBookCodec {
+
+    private static final int MAGIC = 0x424A4C42;//BJLB
+    private static final int VERSION = 1;
+    private static final int GUTENBERG = 1;
+
+    private LocalBookCodec() {
+    }
+
+    /**
+     * Writes the books, atomically replacing the file
+     */
+    static void write(Path file, String root, Collection<LocalBook> books) throws IOException {
+        Encoder out = new Encoder(books.size() * 24 + 64);
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeString(root);
+        out.writeVarInt(books.size());
+        for (LocalBook b : books) {
+            out.writeBook(b);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(temp.toFile());
+                FileChannel channel = fout.getChannel()) {
+            ByteBuffer buffer = out.toByteBuffer();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the books into the given collection, in the order they were
+     * written
+     *
+     * @return the library root
+     * @throws IOException if the file can't be read or isn't in this format
+     */
+    static String read(Path file, Collection<LocalBook> books) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("library file too big " + size);
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    throw new IOException("library file truncated");
+                }
+            }
+            buffer.flip();
+        }
+        try {
+            Decoder in = new Decoder(buffer);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a library file");
+            }
+            int version = in.readVarInt();
+            if (version != VERSION) {
+                throw new IOException("unknown library file version " + version);
+            }
+            String root = in.readString();
+            int size = in.readVarInt();
+            for (int i = 0; i < size; i++) {
+                books.add(in.readBook());
+            }
+            return root;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("corrupt library file", ex);
+        }
+    }
+
+    /**
+     * @return a journal record of the operation on the book
+     */
+    static byte[] encode(byte operation, LocalBook book) {
+        Encoder out = new Encoder(64);
+        out.writeByte(operation);
+        out.writeBook(book);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a record from encode, the operation is stored at operation[0]
+     *
+     * @throws IOException if the record is corrupt
+     */
+    static LocalBook decode(byte[] record, byte[] operation) throws IOException {
+        try {
+            Decoder in = new Decoder(ByteBuffer.wrap(record));
+            operation[0] = in.readByte();
+            return in.readBook();
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("corrupt library record", ex);
+        }
+    }
+
+    private static final class Encoder {
+
+        private final Map<String, Integer> strings = new HashMap<>();
+        private byte[] bytes;
+        private int position;
+
+        Encoder(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void ensureCapacity(int more) {
+            if (position + more > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, position + more)];
+                System.arraycopy(bytes, 0, grown, 0, position);
+                bytes = grown;
+            }
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            bytes[position++] = (byte) b;
+        }
+
+        void writeInt(int i) {
+            writeByte(i >>> 24);
+            writeByte(i >>> 16);
+            writeByte(i >>> 8);
+            writeByte(i);
+        }
+
+        void writeVarInt(int i) {
+            while ((i & ~0x7F) != 0) {
+                writeByte((i & 0x7F) | 0x80);
+                i >>>= 7;
+            }
+            writeByte(i);
+        }
+
+        void writeString(String s) {
+            byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf.length);
+            ensureCapacity(utf.length);
+            System.arraycopy(utf, 0, bytes, position, utf.length);
+            position += utf.length;
+        }
+
+        void writeReference(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer reference = strings.get(s);
+            if (reference != null) {
+                writeVarInt(reference);
+            } else {
+                int next = strings.size() + 1;
+                strings.put(s, next);
+                writeVarInt(next);
+                writeString(s);
+            }
+        }
+
+        void writeBook(LocalBook b) {
+            Path file = b.getRelativeFile();
+            Path parent = file.getParent();
+            writeReference(parent == null ? null : parent.toString());
+            writeString(file.getFileName().toString());
+            writeVarInt(b.isGutenbergFile() ? GUTENBERG : 0);
+            writeReference(b.getLanguage());
+            //zigzag, in case of negative bookmarks
+            int bookmark = b.getBookmark();
+            writeVarInt((bookmark << 1) ^ (bookmark >> 31));
+            writeVarInt(Integer.reverse(Float.floatToIntBits(b.getReadPercentage())));
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[position];
+            System.arraycopy(bytes, 0, result, 0, position);
+            return result;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, position);
+        }
+    }
+
+    private static final class Decoder {
+
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<>();
+        //parents are shared by many books, parse them once
+        private final Map<String, Path> parents = new HashMap<>();
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            return buffer.get();
+        }
+
+        int readInt() {
+            return buffer.getInt();
+        }
+
+        int readVarInt() {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buffer.get();
+                result |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("malformed string");
+            }
+            String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return s;
+        }
+
+        String readReference() {
+            int reference = readVarInt();
+            if (reference == 0) {
+                return null;
+            }
+            if (reference == strings.size() + 1) {
+                strings.add(readString());
+            } else if (reference < 0 || reference > strings.size()) {
+                throw new IllegalArgumentException("malformed string reference");
+            }
+            return strings.get(reference - 1);
+        }
+
+        LocalBook readBook() {
+            String parentName = readReference();
+            String fileName = readString();
+            Path file;
+            if (parentName == null) {
+                file = Paths.get(fileName);
+            } else {
+                Path parent = parents.get(parentName);
+                if (parent == null) {
+                    parent = Paths.get(parentName);
+                    parents.put(parentName, parent);
+                }
+                file = parent.resolve(fileName);
+            }
+            int flags = readVarInt();
+            String language = readReference();
+            int zigzag = readVarInt();
+            int bookmark = (zigzag >>> 1) ^ -(zigzag & 1);
+            float percentage = Float.intBitsToFloat(Integer.reverse(readVarInt()));
+            return new LocalBook(file, language, bookmark, percentage, (flags & GUTENBERG) != 0, false);
+        }
+    }
+}
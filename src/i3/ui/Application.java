@@ -208,6 +208,8 @@ public final class Application implements Serializable {
         });
 
         pane.addPropertyChangeListener(MovingPane.DOCUMENT_CHANGED, DynamicListener.createListener(undoRedo, "discardAllEdits"));
+        //books are shown before they finish parsing
+        pane.addPropertyChangeListener(MovingPane.DOCUMENT_CHANGED, DynamicListener.createListener(this, "documentShown"));
         pane.addPropertyChangeListener(MovingPane.MOUSE_CLICK_HYPERLINK, DynamicListener.createEventListener(this, "hyperLinkClicked"));
         pane.addPropertyChangeListener(MovingPane.MOUSE_ENTER_HYPERLINK, DynamicListener.createEventListener(this, "hyperLinkEntered"));
         pane.addPropertyChangeListener(MovingPane.MOUSE_EXIT_HYPERLINK, DynamicListener.createEventListener(this, "hyperLinkExited"));
@@ -264,6 +266,11 @@ public final class Application implements Serializable {
         return false;
     }
 
+    public void documentShown() {
+        glass.unBlock();
+        showList(false);
+    }
+
     public void swingWorkerReadFinished(Boolean hadSuccess) {
         glass.unBlock();
         showList(!hadSuccess);
@@ -26,22 +26,27 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.AbstractAction;
+import javax.swing.AbstractListModel;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
 import javax.swing.ComboBoxModel;
 import javax.swing.DefaultComboBoxModel;
-import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
@@ -69,11 +74,24 @@ public class GutenbergPanel {
 
     public static final int CELL_HEIGHT = 300;
     public static final int CELL_WIDTH = 300;
+    /**
+     * Placeholder for the books of pages not loaded yet
+     */
+    private static final GutenbergBook LOADING = new GutenbergBook("", "", "Loading...", "", "", "text/plain\n0\nloading");
+    /**
+     * Books loaded from the index at a time, as the list is scrolled
+     */
+    private static final int PAGE_SIZE = Integer.getInteger("bookjar.gutenberg.pageSize", 60);
+    /**
+     * Pages kept in memory, the least recently used are reloaded if needed
+     */
+    private static final int CACHED_PAGES = Integer.getInteger("bookjar.gutenberg.cachedPages", 32);
     private final Pattern singleTopic = Pattern.compile("t:([^\\s]*)\\s?");
     private final Pattern multipleTopic = Pattern.compile("t:\"([^\"]*)\"?");
     private JPanel view;
     private final JTextField searchText;
-    private final DefaultListModel<GutenbergBook> list = new DefaultListModel<>();
+    private final ResultsModel list = new ResultsModel();
+    private final JLabel hits = new JLabel();
     private ImageList<GutenbergBook> imageList;
     private DownloadsList<GutenbergBook> downloads;
     private final ReindexAction reindex;
@@ -98,7 +116,9 @@ public class GutenbergPanel {
     }
 
     public List<GutenbergBook> getSelected() {
-        return imageList.getSelectedObjects();
+        List<GutenbergBook> selected = new ArrayList<>(imageList.getSelectedObjects());
+        selected.removeAll(Collections.singleton(LOADING));
+        return selected;
     }
 
     public boolean isViewVisible() {
@@ -142,6 +162,7 @@ public class GutenbergPanel {
 
             box.setAction(updateList);
             f.add(box, FlowPanelBuilder.SizeConfig.PreferredSize);
+            f.add(hits, FlowPanelBuilder.SizeConfig.PreferredSize);
             f.add(new JButton(reindex), FlowPanelBuilder.SizeConfig.FillSize);
             searchText.setAction(updateList);
             imageList = new ImageList<>(CELL_WIDTH, CELL_HEIGHT, new RenderGutenberg(), list);
@@ -199,6 +220,9 @@ public class GutenbergPanel {
 
         @Override
         public void requestCellImage(final ImageList<GutenbergBook> list, final GutenbergBook entry, final int imageWidth, final int imageHeight) {
+            if (entry == LOADING) {
+                return;
+            }
 
             BufferedImage img = RandomImage.getValue(entry);
             if (img != null) {
@@ -298,7 +322,7 @@ public class GutenbergPanel {
         Runnable reFillList = new Runnable() {
             @Override
             public void run() {
-                list.clear();
+                list.setResults(null);
                 lastTask = new LuceneQuerySwingWorker(processedSearch, topics, currentLang);
                 lastTask.execute();
             }
@@ -314,10 +338,11 @@ public class GutenbergPanel {
         }
     }
 
-    private class LuceneQuerySwingWorker extends SwingWorker<List<GutenbergBook>, GutenbergBook> {
+    private class LuceneQuerySwingWorker extends SwingWorker<GutenbergSearch.Results, Void> {
 
         private final String query, requestedSubjects;
         private final Locale queryLocale;
+        private volatile GutenbergSearch.Results results;
 
         public LuceneQuerySwingWorker(String query, String requestedSubjects, Locale queryLocale) {
             this.query = query;
@@ -326,37 +351,143 @@ public class GutenbergPanel {
         }
 
         @Override
-        @SuppressWarnings("unchecked")
-        protected List<GutenbergBook> doInBackground() {
-            try {
-                GutenbergSearch.SearchCallback callback = new GutenbergSearch.SearchCallback() {
-                    @Override
-                    public boolean shouldContinue(Document doc) {
-                        if (isCancelled()) {
-                            return false;
-                        }
-                        String titles = doc.get("title");
-                        String authors = doc.get("creator");
-                        String contributors = doc.get("contributor");
-                        String subjects = doc.get("subject");
-                        String languages = doc.get("language");
-                        String metadata = doc.get("metadata");
-                        publish(new GutenbergBook(authors, contributors, titles, languages, subjects, metadata));
-                        return true;
+        protected GutenbergSearch.Results doInBackground() throws IOException, ParseException {
+            results = search.query(query, requestedSubjects, queryLocale, PAGE_SIZE);
+            //done() may have run already if cancelled, close is idempotent
+            if (isCancelled() && results != null) {
+                results.close();
+            }
+            return results;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                if (results != null) {
+                    try {
+                        results.close();
+                    } catch (IOException ex) {
+                        LogManager.getLogger().error("could not release lucene searcher", ex);
                     }
-                };
-                search.query(query, requestedSubjects, queryLocale, 10000, callback);
-            } catch (IOException | ParseException ex) {
-                LogManager.getLogger().error("error querying database", ex);
+                }
+                return;
+            }
+            try {
+                list.setResults(get());
+            } catch (InterruptedException | ExecutionException ex) {
+                LogManager.getLogger().error("error querying database", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * The results of the last query. Only the pages of the rows the list asks
+     * for are loaded, in the background; until then the rows are LOADING.
+     */
+    private final class ResultsModel extends AbstractListModel<GutenbergBook> {
+
+        private GutenbergSearch.Results results;
+        //pages being loaded or that failed, not asked again for these results
+        private final Set<Integer> loading = new HashSet<>();
+        private final Map<Integer, List<GutenbergBook>> pages = new LinkedHashMap<Integer, List<GutenbergBook>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<GutenbergBook>> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+
+        /**
+         * Replaces the results shown, closing the old ones
+         *
+         * @param newResults can be null, for a empty list
+         */
+        void setResults(GutenbergSearch.Results newResults) {
+            assert SwingUtilities.isEventDispatchThread() : "Not in EDT";
+            int oldSize = getSize();
+            closeResults();
+            loading.clear();
+            pages.clear();
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            results = newResults;
+            int size = getSize();
+            hits.setText(results == null ? "" : size + (size == 1 ? " book" : " books"));
+            if (size > 0) {
+                fireIntervalAdded(this, 0, size - 1);
+            }
+        }
+
+        private void closeResults() {
+            if (results != null) {
+                try {
+                    results.close();
+                } catch (IOException ex) {
+                    LogManager.getLogger().error("could not release lucene searcher", ex);
+                }
+                results = null;
             }
-            return Collections.emptyList();
         }
 
         @Override
-        protected void process(List<GutenbergBook> chunks) {
-            for (GutenbergBook book : chunks) {
-                list.addElement(book);
+        public int getSize() {
+            return results == null ? 0 : results.getTotalHits();
+        }
+
+        @Override
+        public GutenbergBook getElementAt(int index) {
+            int page = index / PAGE_SIZE;
+            List<GutenbergBook> books = pages.get(page);
+            if (books == null) {
+                loadPage(page);
+                return LOADING;
+            }
+            int i = index % PAGE_SIZE;
+            return i < books.size() ? books.get(i) : LOADING;
+        }
+
+        private void loadPage(final int page) {
+            if (!loading.add(page)) {
+                return;
+            }
+            final GutenbergSearch.Results pageResults = results;
+            new SwingWorker<List<GutenbergBook>, Void>() {
+                @Override
+                protected List<GutenbergBook> doInBackground() throws IOException {
+                    return toBooks(pageResults.page(page));
+                }
+
+                @Override
+                protected void done() {
+                    if (pageResults != results) {
+                        //a new query replaced these results
+                        return;
+                    }
+                    try {
+                        pages.put(page, get());
+                        loading.remove(page);
+                        int first = page * PAGE_SIZE;
+                        fireContentsChanged(ResultsModel.this, first, Math.min(getSize(), first + PAGE_SIZE) - 1);
+                    } catch (InterruptedException | ExecutionException ex) {
+                        //stays in loading, or every repaint would read it again
+                        LogManager.getLogger().error("error reading gutenberg results", ex.getCause());
+                    }
+                }
+            }.execute();
+        }
+
+        private List<GutenbergBook> toBooks(List<Document> documents) {
+            List<GutenbergBook> books = new ArrayList<>(documents.size());
+            for (Document doc : documents) {
+                String titles = doc.get("title");
+                String authors = doc.get("creator");
+                String contributors = doc.get("contributor");
+                String subjects = doc.get("subject");
+                String languages = doc.get("language");
+                String metadata = doc.get("metadata");
+                books.add(new GutenbergBook(authors, contributors, titles, languages, subjects, metadata));
             }
+            return books;
         }
     }
 
@@ -371,7 +502,7 @@ public class GutenbergPanel {
         @Override
         public void actionPerformed(ActionEvent e) {
 
-            for (GutenbergBook book : imageList.getSelectedObjects()) {
+            for (GutenbergBook book : getSelected()) {
                 DownloadState download = downloads.get(book.getURL());
                 if (download == null) {
                     addGutenbergBookToDownloadList(book);
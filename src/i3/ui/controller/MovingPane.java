@@ -17,6 +17,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Map;
 import javax.swing.BorderFactory;
@@ -38,8 +40,13 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 import javax.swing.text.StyledDocument;
 import static javax.swing.text.html.HTML.Attribute.*;
+import i3.main.Bookjar;
 import i3.parser.BookLoader;
+import i3.parser.DocumentCache;
 import i3.parser.Documents;
+import i3.parser.LoadHistogram;
+import i3.parser.LoadPhase;
+import i3.parser.ProgressiveListener;
 import i3.parser.Property;
 import i3.ui.styles.DocumentStyle;
 import i3.io.IoUtils;
@@ -72,6 +79,11 @@ public class MovingPane implements Serializable {
      * hyperlink. Has in the oldValue null and in the newValue null
      */
     public static final String MOUSE_EXIT_HYPERLINK = "linked4";
+    /**
+     * Time until the books read from a URL are shown, by loader and size.
+     * Logged when the program exits.
+     */
+    public static final LoadHistogram OPEN_LATENCY = new LoadHistogram();
     /**
      * The index in the buffer
      */
@@ -445,7 +457,7 @@ public class MovingPane implements Serializable {
         return currentUrl;
     }
 
-    private void installDocument(final StyledDocument doc, final int i, final URL newURL) {
+    private void installDocument(final StyledDocument doc, final int i, final URL newURL, Map<Property, Object> props) {
         if (doc == null) {
             return;
         }
@@ -460,7 +472,9 @@ public class MovingPane implements Serializable {
             }
         };
 
+        LoadPhase installing = LoadPhase.start("install", props);
         SwingUtils.runInEDTAndWait(install);
+        installing.end();
     }
 
     private void changeURL(URL newURL) {
@@ -482,7 +496,8 @@ public class MovingPane implements Serializable {
      *
      * The document configured according to the properties. Sends a
      * PropertyChangeEvent that signals that the the current document finished
-     * changing from old to new, if it changed.
+     * changing from old to new, if it changed. Books parsed before with the
+     * same properties are read from a DocumentCache.
      *
      * @param url the URL to be parsed (html, htm or rtf, or parse as text
      * otherwise) if null pr unreachable the method does nothing.
@@ -505,9 +520,86 @@ public class MovingPane implements Serializable {
         //but allows larger files without oom exceptions.
         //It's why i'm testing existence with IoUtils.canRead
         buffer = null;
+        Path file = IoUtils.toFile(url);
+        long bytes = file != null && Files.isRegularFile(file) ? Files.size(file) : -1;
+        LoadPhase open = LoadPhase.start("open", props).book(url.toExternalForm(), bytes);
+        LoadPhase lookup = LoadPhase.start("lookup", props);
         BookLoader loader = BookLoader.forFileName(IoUtils.getName(url));
-        StyledDocument doc = doStylesChange(loader.create(url, props));
-        installDocument(doc, index, url);
+        lookup.end();
+        ShowFirstPage progressive = new ShowFirstPage(index, url, props);
+        props.put(Property.PROGRESSIVE_LISTENER, progressive);
+        StyledDocument doc;
+        try {
+            doc = ParsedBooks.CACHE.create(url, loader, props);
+        } finally {
+            props.remove(Property.PROGRESSIVE_LISTENER);
+        }
+        if (doc != progressive.shown) {
+            installDocument(doStylesChange(doc), index, url, props);
+        }
+        long nanos = open.end();
+        //the time until the book is shown
+        if (progressive.shown != null) {
+            nanos = progressive.shownNanos;
+        }
+        OPEN_LATENCY.record(loader.getClass().getSimpleName(), bytes, nanos);
+    }
+
+    /**
+     * Created on the first read, after the program location is known
+     */
+    private static final class ParsedBooks {
+
+        static final DocumentCache CACHE = new DocumentCache(Bookjar.programLocation.resolve("documents"),
+                Long.getLong("bookjar.cache.documentsMB", 256) * 1024 * 1024);
+    }
+
+    /**
+     * Installs the document when the page with the bookmark is parsed. The rest
+     * is appended in the EDT and styled as it arrives.
+     */
+    private final class ShowFirstPage implements ProgressiveListener {
+
+        private final int bookmark;
+        private final URL url;
+        private final Map<Property, Object> props;
+        private final LoadPhase firstPage;
+        private volatile StyledDocument shown;
+        private long shownNanos;
+
+        ShowFirstPage(int bookmark, URL url, Map<Property, Object> props) {
+            this.bookmark = bookmark;
+            this.url = url;
+            this.props = props;
+            firstPage = LoadPhase.start("first page", props);
+        }
+
+        @Override
+        public int firstPageLength() {
+            return bookmark + estimateDisplayableText();
+        }
+
+        @Override
+        public void firstPage(StyledDocument doc) {
+            shown = doc;
+            installDocument(doStylesChange(doc), bookmark, url, props);
+            shownNanos = firstPage.end();
+        }
+
+        @Override
+        public void change(final StyledDocument doc, final Runnable change) {
+            SwingUtils.runInEDTAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    int oldLength = doc.getLength();
+                    change.run();
+                    //a newer book may be in the buffer
+                    if (doc == buffer) {
+                        documentStyle.changeAppended(oldLength);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -524,7 +616,7 @@ public class MovingPane implements Serializable {
         props.put(Property.VISITED_HYPERLINK_COLOR, visitedLinkColor);
         BookLoader loader = BookLoader.forFileName(format);
         StyledDocument doc = doStylesChange(loader.create(stream, props));
-        installDocument(doc, index, null);
+        installDocument(doc, index, null, props);
     }
 
     /**
@@ -542,7 +634,7 @@ public class MovingPane implements Serializable {
         props.put(Property.VISITED_HYPERLINK_COLOR, visitedLinkColor);
         BookLoader loader = BookLoader.forMimeType(mimeType);
         StyledDocument doc = doStylesChange(loader.create(string, props));
-        installDocument(doc, index, null);
+        installDocument(doc, index, null, props);
     }
 
     private void bufferToViewLayoutForward() {
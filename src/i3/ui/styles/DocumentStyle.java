@@ -70,6 +70,22 @@ public class DocumentStyle implements Style {
         }
     }
 
+    /**
+     * Styles the text appended to the document since the given length
+     */
+    public void changeAppended(int oldLength) {
+        StyledDocument doc;
+        if (document == null || (doc = document.get()) == null || oldLength >= doc.getLength()) {
+            return;
+        }
+        //the styles loops only work from the start of a element
+        int start = doc.getParagraphElement(oldLength).getStartOffset();
+        int end = doc.getLength();
+        replaceCharacterStyles(doc, start, end);
+        processParagraphStyles(doc, start, end);
+        processCharacterStyles(doc, start, end);
+    }
+
     private void resetStyles() {
         setForeground(UIManager.getColor("EditorPane.foreground"));
         setShowBold(Boolean.TRUE);
@@ -0,0 +1,142 @@
+package i3.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generated books for the benchmarks, always the same for the same arguments.
+ * The prose has some accented words and dashes, so the encodings give
+ * different bytes, and chapters with links to them, so html has names.
+ *
+ * @author i30817
+ */
+public final class Corpus {
+
+    private static final String[] WORDS = {
+        "the", "a", "of", "and", "to", "in", "was", "it", "that", "he", "she", "night", "rain", "street",
+        "London", "wind", "house", "light", "door", "letter", "café", "naïve", "façade", "résumé",
+        "déjà", "über", "señor", "Zoë", "coöperate", "—", "walked", "said", "stormy", "dark", "torrents"
+    };
+    private static final int PARAGRAPHS_PER_CHAPTER = 40;
+
+    private Corpus() {
+    }
+
+    /**
+     * @return about chars of prose paragraphs
+     */
+    public static List<String> paragraphs(int chars) {
+        Random r = new Random(chars);
+        List<String> paragraphs = new ArrayList<>();
+        int total = 0;
+        while (total < chars) {
+            StringBuilder b = new StringBuilder();
+            int words = 20 + r.nextInt(120);
+            for (int i = 0; i < words; i++) {
+                String word = WORDS[r.nextInt(WORDS.length)];
+                b.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+                b.append(i == words - 1 ? "." : r.nextInt(12) == 0 ? ", " : " ");
+            }
+            paragraphs.add(b.toString());
+            total += b.length() + 1;
+        }
+        return paragraphs;
+    }
+
+    public static byte[] txt(int chars, String encoding) throws UnsupportedEncodingException {
+        StringBuilder b = new StringBuilder(chars + chars / 10);
+        List<String> paragraphs = paragraphs(chars);
+        for (int i = 0; i < paragraphs.size(); i++) {
+            if (i % PARAGRAPHS_PER_CHAPTER == 0) {
+                b.append("\nChapter ").append(i / PARAGRAPHS_PER_CHAPTER).append("\n\n");
+            }
+            //hard wrapped, like most txt books
+            String p = paragraphs.get(i);
+            for (int start = 0; start < p.length(); start += 70) {
+                b.append(p, start, Math.min(p.length(), start + 70)).append('\n');
+            }
+            b.append('\n');
+        }
+        return b.toString().getBytes(encoding);
+    }
+
+    /**
+     * Html with a table of contents, named chapters and a meta charset
+     */
+    public static byte[] html(int chars, String encoding) throws UnsupportedEncodingException {
+        List<String> paragraphs = paragraphs(chars);
+        int chapters = (paragraphs.size() + PARAGRAPHS_PER_CHAPTER - 1) / PARAGRAPHS_PER_CHAPTER;
+        StringBuilder b = new StringBuilder(chars + chars / 4);
+        b.append("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=").append(encoding)
+                .append("\"><title>Corpus</title></head><body>\n<h1><a name=\"toc\">Contents</a></h1>\n");
+        for (int c = 0; c < chapters; c++) {
+            b.append("<p><a href=\"#c").append(c).append("\">Chapter ").append(c).append("</a></p>\n");
+        }
+        for (int i = 0; i < paragraphs.size(); i++) {
+            if (i % PARAGRAPHS_PER_CHAPTER == 0) {
+                int c = i / PARAGRAPHS_PER_CHAPTER;
+                b.append("<h2><a name=\"c").append(c).append("\">Chapter ").append(c).append("</a></h2>\n");
+            }
+            String p = paragraphs.get(i);
+            int italic = p.indexOf(' ', p.length() / 2);
+            b.append("<p>  ").append(p, 0, Math.max(0, italic)).append(" <i>").append(p.substring(Math.max(0, italic)))
+                    .append("</i></p>\n");
+            if (i % PARAGRAPHS_PER_CHAPTER == PARAGRAPHS_PER_CHAPTER - 1) {
+                b.append("<p><a href=\"#toc\">Back</a></p>\n");
+            }
+        }
+        return b.append("</body></html>").toString().getBytes(encoding);
+    }
+
+    /**
+     * Rtf is ascii, the other chars are escaped as windows-1252 or unicode
+     */
+    public static byte[] rtf(int chars) throws UnsupportedEncodingException {
+        CharsetEncoder windows = Charset.forName("windows-1252").newEncoder();
+        StringBuilder b = new StringBuilder(chars + chars / 4);
+        b.append("{\\rtf1\\ansi\\ansicpg1252\\deff0{\\fonttbl{\\f0\\froman Times New Roman;}}\\f0\\fs24\n");
+        for (String p : paragraphs(chars)) {
+            b.append("\\pard\\fi227\\sa120 ");
+            int italic = p.indexOf(' ', p.length() / 2);
+            for (int i = 0; i < p.length(); i++) {
+                if (i == italic) {
+                    b.append("{\\i");
+                }
+                char c = p.charAt(i);
+                if (c < 128) {
+                    b.append(c);
+                } else if (windows.canEncode(c)) {
+                    b.append("\\'").append(Integer.toHexString(String.valueOf(c).getBytes("windows-1252")[0] & 0xFF));
+                } else {
+                    b.append("\\u").append((int) c).append('?');
+                }
+            }
+            b.append(italic >= 0 ? "}" : "").append("\\par\n");
+        }
+        return b.append('}').toString().getBytes("US-ASCII");
+    }
+
+    /**
+     * @return a temporary zip file with the book, deleted on exit
+     */
+    public static Path zip(byte[] book, String name) throws IOException {
+        Path zip = Files.createTempFile("corpus", ".zip");
+        zip.toFile().deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream z = new ZipOutputStream(out)) {
+            z.putNextEntry(new ZipEntry(name));
+            z.write(book);
+            z.closeEntry();
+        }
+        return zip;
+    }
+}
@@ -0,0 +1,93 @@
+package i3.io;
+
+import i3.bench.Corpus;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Charset detections per second, with the limits the loaders use, and books
+ * decoded per second after probing the charset and resetting the stream, or
+ * in a single pass with a CharsetDetectingReader
+ *
+ * @author i30817
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class CharsetBenchmark {
+
+    @Param({"4096", "1048576"})
+    public int chars;
+    @Param({"UTF-8", "windows-1252", "UTF-16"})
+    public String encoding;
+    private byte[] html, txt;
+
+    @Setup
+    public void corpus() throws IOException {
+        html = Corpus.html(chars, encoding);
+        txt = Corpus.txt(chars, encoding);
+    }
+
+    @Benchmark
+    public String probeCharset() {
+        return IoUtils.probeCharset(new ByteArrayInputStream(txt), 15000);
+    }
+
+    @Benchmark
+    public String findHtmlCharset() throws IOException {
+        return IoUtils.findHtmlCharset(new BufferedInputStream(new ByteArrayInputStream(html)), 20000, "windows-1252");
+    }
+
+    @Benchmark
+    public long probeAndDecodeTxt() throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new ByteArrayInputStream(txt));
+        stream.mark(15000);
+        String charset = IoUtils.probeCharset(stream, 15000);
+        stream.reset();
+        return drain(new InputStreamReader(stream, charset == null ? Charset.defaultCharset().name() : charset));
+    }
+
+    @Benchmark
+    public long detectAndDecodeTxt() throws IOException {
+        return drain(new CharsetDetectingReader(new ByteArrayInputStream(txt), 15000, Charset.defaultCharset().name(), false));
+    }
+
+    @Benchmark
+    public long findAndDecodeHtml() throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new ByteArrayInputStream(html));
+        return drain(new InputStreamReader(stream, IoUtils.findHtmlCharset(stream, 20000, "windows-1252")));
+    }
+
+    @Benchmark
+    public long detectAndDecodeHtml() throws IOException {
+        return drain(new CharsetDetectingReader(new ByteArrayInputStream(html), 20000, "windows-1252", true));
+    }
+
+    private static long drain(Reader reader) throws IOException {
+        char[] chars = new char[8192];
+        long total = 0;
+        for (int read; (read = reader.read(chars)) != -1;) {
+            total += read;
+        }
+        return total;
+    }
+}
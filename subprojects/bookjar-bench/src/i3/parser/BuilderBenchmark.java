@@ -0,0 +1,100 @@
+package i3.parser;
+
+import i3.bench.Corpus;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Documents built per second by the BufferedStyledDocumentBuilder, flushed
+ * by the default policy or progressively starting with chunks of the given
+ * size, in both kinds of document content
+ *
+ * @author i30817
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class BuilderBenchmark {
+
+    @Param({"1048576", "8388608"})
+    public int chars;
+    /**
+     * 0 isn't progressive, flushed by the default policy
+     */
+    @Param({"0", "4096", "16384", "65536"})
+    public int chunk;
+    /**
+     * the content of the parsed books or the content of editable documents
+     */
+    @Param({"compact", "gap"})
+    public String content;
+    private char[][] paragraphs;
+    private final AttributeSet italic;
+
+    public BuilderBenchmark() {
+        SimpleAttributeSet set = new SimpleAttributeSet();
+        StyleConstants.setItalic(set, true);
+        italic = set;
+    }
+
+    private static final class Shown implements ProgressiveListener {
+
+        @Override
+        public int firstPageLength() {
+            return 8000;
+        }
+
+        @Override
+        public void firstPage(StyledDocument doc) {
+        }
+
+        @Override
+        public void change(StyledDocument doc, Runnable change) {
+            change.run();
+        }
+    }
+
+    @Setup
+    public void corpus() {
+        //read when the builder class is initialized, in this fork
+        System.setProperty("bookjar.parser.chunk", Integer.toString(Math.max(1, chunk)));
+        List<String> text = Corpus.paragraphs(chars);
+        paragraphs = new char[text.size()][];
+        for (int i = 0; i < paragraphs.length; i++) {
+            paragraphs[i] = text.get(i).toCharArray();
+        }
+    }
+
+    @Benchmark
+    public StyledDocument build() {
+        ParserDocument doc = "gap".equals(content) ? new ParserDocument() : new ParserDocument(new CompactContent());
+        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(doc);
+        if (chunk != 0) {
+            builder.setProgressiveListener(new Shown());
+        }
+        for (int i = 0; i < paragraphs.length; i++) {
+            builder.append(paragraphs[i], i % 7 == 0 ? italic : SimpleAttributeSet.EMPTY);
+            builder.appendEnd(SimpleAttributeSet.EMPTY);
+        }
+        builder.commit();
+        return builder.getDocument();
+    }
+}
@@ -0,0 +1,87 @@
+package i3.parser;
+
+import i3.bench.Corpus;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Documents built per second by the BufferedStyledDocumentBuilder with the
+ * default adaptive flush policy or flushing a fixed number of chars. Run with
+ * -prof gc for the allocation of the buffered specs, the flushes of the last
+ * document are printed at the end of each trial.
+ *
+ * @author i30817
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class FlushPolicyBenchmark {
+
+    @Param({"8388608"})
+    public int chars;
+    /**
+     * adaptive or the chars of a fixed policy
+     */
+    @Param({"adaptive", "1024", "16384", "262144", "1048576", "16777216"})
+    public String flush;
+    @Param({"compact", "gap"})
+    public String content;
+    private char[][] paragraphs;
+    private final AttributeSet italic;
+    private LoadStatistics last;
+
+    public FlushPolicyBenchmark() {
+        SimpleAttributeSet set = new SimpleAttributeSet();
+        StyleConstants.setItalic(set, true);
+        italic = set;
+    }
+
+    @Setup
+    public void corpus() {
+        List<String> text = Corpus.paragraphs(chars);
+        paragraphs = new char[text.size()][];
+        for (int i = 0; i < paragraphs.length; i++) {
+            paragraphs[i] = text.get(i).toCharArray();
+        }
+    }
+
+    @TearDown
+    public void statistics() {
+        System.out.println(flush + " " + content + ": " + last);
+    }
+
+    @Benchmark
+    public StyledDocument build() {
+        ParserDocument doc = "gap".equals(content) ? new ParserDocument() : new ParserDocument(new CompactContent());
+        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(doc);
+        if (!"adaptive".equals(flush)) {
+            builder.setFlushPolicy(new FlushPolicy.Fixed(Integer.parseInt(flush)));
+        }
+        for (int i = 0; i < paragraphs.length; i++) {
+            builder.append(paragraphs[i], i % 7 == 0 ? italic : SimpleAttributeSet.EMPTY);
+            builder.appendEnd(SimpleAttributeSet.EMPTY);
+        }
+        builder.commit();
+        last = builder.getStatistics();
+        return builder.getDocument();
+    }
+}
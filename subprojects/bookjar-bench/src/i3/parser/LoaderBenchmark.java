@@ -0,0 +1,76 @@
+package i3.parser;
+
+import i3.bench.Corpus;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Books parsed per second by the text loaders, from memory (and from a zip
+ * file by the CompressedLoader)
+ *
+ * @author i30817
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+
+    @Param({"65536", "1048576", "8388608"})
+    public int chars;
+    @Param({"UTF-8", "windows-1252", "UTF-16"})
+    public String encoding;
+    @Param({"false", "true"})
+    public boolean reformat;
+    private byte[] html, txt;
+    private URL zip;
+
+    @Setup
+    public void corpus() throws IOException {
+        html = Corpus.html(chars, encoding);
+        txt = Corpus.txt(chars, encoding);
+        zip = Corpus.zip(html, "corpus.html").toUri().toURL();
+    }
+
+    static Map<Property, Object> properties(boolean reformat) {
+        Map<Property, Object> p = new EnumMap<>(Property.class);
+        //present means reformat
+        if (reformat) {
+            p.put(Property.REFORMAT, Boolean.TRUE);
+        }
+        return p;
+    }
+
+    @Benchmark
+    public StyledDocument html() throws IOException {
+        return new HtmlLoader().create(new ByteArrayInputStream(html), properties(reformat));
+    }
+
+    @Benchmark
+    public StyledDocument txt() throws IOException {
+        return new TxtLoader().create(new ByteArrayInputStream(txt), properties(reformat));
+    }
+
+    @Benchmark
+    public StyledDocument compressed() throws IOException {
+        return new CompressedLoader().create(zip, properties(reformat));
+    }
+}
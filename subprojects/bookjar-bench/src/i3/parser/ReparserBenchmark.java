@@ -0,0 +1,63 @@
+package i3.parser;
+
+import i3.bench.Corpus;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Documents reformatted per second by the Reparser, in a single range and in
+ * the default parallel ranges. The reparse changes the document, so each
+ * invocation parses a new one (not measured).
+ *
+ * @author i30817
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class ReparserBenchmark {
+
+    @Param({"65536", "1048576", "8388608"})
+    public int chars;
+    @Param({"txt", "html"})
+    public String format;
+    private byte[] book;
+    private StyledDocument parsed;
+
+    @Setup
+    public void corpus() throws IOException {
+        book = "txt".equals(format) ? Corpus.txt(chars, "UTF-8") : Corpus.html(chars, "UTF-8");
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() throws IOException {
+        BookLoader loader = "txt".equals(format) ? new TxtLoader() : new HtmlLoader();
+        parsed = loader.create(new ByteArrayInputStream(book), LoaderBenchmark.properties(false));
+    }
+
+    @Benchmark
+    public StyledDocument serial() {
+        return new Reparser().reParse(parsed, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public StyledDocument parallel() {
+        return new Reparser().reParse(parsed);
+    }
+}
@@ -0,0 +1,49 @@
+package i3.parser;
+
+import i3.bench.Corpus;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Books parsed per second by the RtfLoader. Rtf is ascii, so there is no
+ * encoding parameter.
+ *
+ * @author i30817
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class RtfLoaderBenchmark {
+
+    @Param({"65536", "1048576", "8388608"})
+    public int chars;
+    @Param({"false", "true"})
+    public boolean reformat;
+    private byte[] rtf;
+
+    @Setup
+    public void corpus() throws IOException {
+        rtf = Corpus.rtf(chars);
+    }
+
+    @Benchmark
+    public StyledDocument rtf() throws IOException {
+        return new RtfLoader().create(new ByteArrayInputStream(rtf), LoaderBenchmark.properties(reformat));
+    }
+}
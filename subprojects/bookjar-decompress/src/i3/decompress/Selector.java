@@ -56,7 +56,16 @@ import java.util.regex.Pattern;
 @SuppressWarnings(value = "unchecked")
 public final class Selector implements Closeable, Iterable<FileView> {
 
-    private static ServiceLoader<ExtractorProvider> loader = ServiceLoader.load(ExtractorProvider.class);
+    //ServiceLoader is lazy and not threadsafe, so iterate it once
+    private static final List<ExtractorProvider> loader = load();
+
+    private static List<ExtractorProvider> load() {
+        List<ExtractorProvider> providers = new ArrayList<>();
+        for (ExtractorProvider p : ServiceLoader.load(ExtractorProvider.class)) {
+            providers.add(p);
+        }
+        return Collections.unmodifiableList(providers);
+    }
 
     /**
      * Get a selection for a local file.
@@ -105,7 +114,7 @@ public final class Selector implements Closeable, Iterable<FileView> {
     }
 
     /**
-     * One of the extractors accepts this kind of file
+     * One of the extractors accepts this kind of file. Threadsafe.
      */
     public static boolean acceptsFile(String filename) {
         for (ExtractorProvider e : loader) {
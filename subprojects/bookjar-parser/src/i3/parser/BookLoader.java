@@ -4,7 +4,10 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
@@ -20,12 +23,21 @@ import javax.swing.text.StyledDocument;
  */
 public abstract class BookLoader {
 
-    private static ServiceLoader<BookLoader> loader = ServiceLoader.load(BookLoader.class);
+    //ServiceLoader is lazy and not threadsafe, so iterate it once
+    private static final List<BookLoader> loader = load();
     /**
      * Standardizes the parsed document
      */
     protected Reparser reParser = new Reparser();
 
+    private static List<BookLoader> load() {
+        List<BookLoader> loaders = new ArrayList<>();
+        for (BookLoader l : ServiceLoader.load(BookLoader.class)) {
+            loaders.add(l);
+        }
+        return Collections.unmodifiableList(loaders);
+    }
+
     /**
      * Gets a book loader that can parse the given name (optional) + extension
      *
@@ -83,7 +95,7 @@ public abstract class BookLoader {
     }
 
     /**
-     * One of the parsers accepts this kind of file
+     * One of the parsers accepts this kind of file. Threadsafe.
      */
     public static boolean acceptsFiles(String filename) {
         for (BookLoader e : loader) {
@@ -2,7 +2,9 @@ package i3.parser;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
@@ -11,17 +13,71 @@ import javax.swing.text.Element;
 
 /**
  * A fast buffered builder for creating DefaultStyledDocuments
+ *
+ * With a ProgressiveListener the text is flushed in small chunks, and the
+ * document is given to the listener as soon as it has the first page. After
+ * that all changes to the document go through the listener.
+ *
+ * A batch builder only collects the text and names, in any thread, to be
+ * appended in order to a builder of the document.
+ *
+ * Text given to appendCopy goes to a reused char buffer, and consecutive
+ * copies with equal attributes are a single spec with an exact copy of the
+ * buffer (since java 9 a spec copies all the array it's given).
+ * The attributes are interned in the pool of ParserDocument.
+ *
+ * When to flush is up to a FlushPolicy, by default one that keeps the time of
+ * each insertion near bookjar.parser.flush.millis without buffering more than
+ * bookjar.parser.flush chars. The flushes are counted in getStatistics().
  * @author i30817
  */
 final class BufferedStyledDocumentBuilder {
 
-    private final long MEMORY_CAPACITY_CHARS;
+    /**
+     * Chars of the first flush when parsing progressively
+     */
+    private static final int CHUNK_CHARS = Integer.getInteger("bookjar.parser.chunk", 16384);
+    /**
+     * Most chars buffered before a flush
+     */
+    private static final int FLUSH_CHARS = Integer.getInteger("bookjar.parser.flush", 1024 * 1024);
+    /**
+     * Time a flush should take, one frame since it can run in the EDT
+     */
+    private static final long FLUSH_NANOS = Long.getLong("bookjar.parser.flush.millis", 16L) * 1000000L;
+    /**
+     * Initial size of the buffer of the copied text
+     */
+    private static final int TEXT_CHARS = 8192;
+    private FlushPolicy policy;
+    private boolean defaultPolicy = true;
+    private final LoadStatistics statistics = new LoadStatistics();
     private int bufferedChars;
-    private final LinkedList<ElementSpec> textList = new LinkedList<>();
+    private final ArrayList<ElementSpec> textList = new ArrayList<>();
+    //copied text not in a spec yet
+    private char[] text = new char[TEXT_CHARS];
+    private int textLength;
+    private AttributeSet runAttributes, lastAttributes;
     private final char[] par = {'\n'};
     private final char[] space = {' '};
     private final DefaultStyledDocument doc;
     private final Append appendFunctor;
+    private final Runnable appendTask = new Runnable() {
+        @Override
+        public void run() {
+            long time = System.nanoTime();
+            appendFunctor.append();
+            appendNanos = System.nanoTime() - time;
+        }
+    };
+    private long appendNanos;
+    private final boolean batch;
+    //names given in batch builders and their offsets in the batch
+    private final List<Object> names = new ArrayList<>();
+    private final List<Integer> nameOffsets = new ArrayList<>();
+    private ProgressiveListener progressive;
+    private Runnable flushListener;
+    private boolean shown;
 
     private interface Append {
 
@@ -52,6 +108,17 @@ final class BufferedStyledDocumentBuilder {
         }
     }
 
+    /**
+     * ParserDocument takes the specs directly
+     */
+    private final class DirectAppend implements Append {
+
+        @Override
+        public void append() {
+            ((ParserDocument) doc).append(textList.toArray(new ElementSpec[textList.size()]));
+        }
+    }
+
     private final class ReflectiveAppend implements Append {
 
         private final Method bulkInsert;
@@ -80,58 +147,147 @@ final class BufferedStyledDocumentBuilder {
     }
 
     public BufferedStyledDocumentBuilder(DefaultStyledDocument document) {
+        this(document, false);
+    }
+
+    /**
+     * @return a builder that is never flushed, to be appended with
+     * append(BufferedStyledDocumentBuilder) to a builder of the document
+     */
+    static BufferedStyledDocumentBuilder batch(DefaultStyledDocument document) {
+        return new BufferedStyledDocumentBuilder(document, true);
+    }
+
+    private BufferedStyledDocumentBuilder(DefaultStyledDocument document, boolean batch) {
         doc = document;
+        this.batch = batch;
         //need to do special processing if using document filters.
-        if (document.getDocumentFilter() == null) {
-            appendFunctor = new ReflectiveAppend();
-        } else {
+        if (document.getDocumentFilter() != null) {
             appendFunctor = new LineByLineAppend();
+        } else if (document instanceof ParserDocument) {
+            appendFunctor = new DirectAppend();
+        } else {
+            appendFunctor = new ReflectiveAppend();
         }
-        //convert the free memory from bytes to dbytes (char size) and 4th it.
-        MEMORY_CAPACITY_CHARS = (Runtime.getRuntime().freeMemory() / 2L) / 4L;
     }
 
     public Integer getLength() {
-        return Integer.valueOf(doc.getLength() + bufferedChars);
+        return Integer.valueOf(batch ? bufferedChars : doc.getLength() + bufferedChars);
+    }
+
+    /**
+     * Gives the name to the current length, as a property of the document
+     */
+    public void name(Object name) {
+        if (batch) {
+            names.add(name);
+            nameOffsets.add(bufferedChars);
+        } else {
+            doc.putProperty(name, getLength());
+        }
     }
 
     public DefaultStyledDocument getDocument() {
         return doc;
     }
 
-    public void clear() {
-        try {
-            doc.remove(0, doc.getLength());
-            bufferedChars = 0;
-            textList.clear();
-        } catch (BadLocationException ex) {
-            throw new RuntimeException(ex);
+    /**
+     * @return the flushes until now
+     */
+    public LoadStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Decides when to flush instead of the default policy, call before
+     * appending
+     */
+    void setFlushPolicy(FlushPolicy policy) {
+        this.policy = policy;
+        defaultPolicy = false;
+    }
+
+    /**
+     * Flushes in chunks and gives the document to the listener once it has
+     * the listener first page
+     */
+    public void setProgressiveListener(ProgressiveListener listener) {
+        progressive = listener;
+        chunked();
+    }
+
+    /**
+     * Flushes in chunks and runs the listener after each flush, in the
+     * parsing thread
+     */
+    public void setFlushListener(Runnable listener) {
+        flushListener = listener;
+        chunked();
+    }
+
+    private void chunked() {
+        if (defaultPolicy) {
+            //the default chunks of progressive documents start smaller
+            policy = null;
         }
     }
 
+    /**
+     * Runs a change to the document, through the progressive listener if the
+     * document was already shown.
+     */
+    public void change(Runnable change) {
+        if (shown) {
+            progressive.change(doc, change);
+        } else {
+            change.run();
+        }
+    }
+
+    public void clear() {
+        change(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doc.remove(0, doc.getLength());
+                } catch (BadLocationException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        bufferedChars = 0;
+        textList.clear();
+        textLength = 0;
+        runAttributes = null;
+    }
+
     /**
      * Removes the last inserted \n.
      * No checking so you must know you inserted a \n by appendEnd before.
      */
     public void removeLast() {
 //        System.out.println("|REMOVELAST|");
+        endRun();
         if (textList.isEmpty()) {
-            try {
-                doc.remove(doc.getLength() - 1, 1);
-            } catch (BadLocationException ex) {
-                throw new RuntimeException(ex);
-            }
+            change(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doc.remove(doc.getLength() - 1, 1);
+                    } catch (BadLocationException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
         } else {
-            textList.removeLast();
-            textList.removeLast();
-            textList.removeLast();
+            textList.subList(textList.size() - 3, textList.size()).clear();
             bufferedChars = bufferedChars - 1;
         }
     }
 
     public void appendSpace(AttributeSet currentAttributes) {
 //        System.out.println("|SPACE|");
-        append(space, currentAttributes);
+        appendCopy(space, 0, 1, currentAttributes);
     }
 
     /**
@@ -141,7 +297,8 @@ final class BufferedStyledDocumentBuilder {
      */
     public void appendEnd(AttributeSet currentAttributes) {
 //        System.out.println("|END|");
-        ElementSpec elementSpec = new ElementSpec(currentAttributes.copyAttributes(), ElementSpec.ContentType, par, 0, 1);
+        endRun();
+        ElementSpec elementSpec = new ElementSpec(share(currentAttributes), ElementSpec.ContentType, par, 0, 1);
         textList.add(elementSpec);
         addParagraphEnd();
         addParagraphStart();
@@ -169,12 +326,9 @@ final class BufferedStyledDocumentBuilder {
      */
     public void append(char[] chars, AttributeSet currentAttributes) {
 //        System.out.println("|"+new String(s)+"|");
-        textList.add(new ElementSpec(currentAttributes.copyAttributes(), ElementSpec.ContentType, chars, 0, chars.length));
-        bufferedChars += chars.length;
-
-        if (bufferedChars > MEMORY_CAPACITY_CHARS) {
-            flush();
-        }
+        endRun();
+        textList.add(new ElementSpec(share(currentAttributes), ElementSpec.ContentType, chars, 0, chars.length));
+        appended(chars.length);
     }
 
     /**
@@ -185,12 +339,9 @@ final class BufferedStyledDocumentBuilder {
      */
     public void append(char[] chars, int len, AttributeSet currentAttributes) {
 //        System.out.println("|"+new String(s, 0, len)+"|");
-        textList.add(new ElementSpec(currentAttributes.copyAttributes(), ElementSpec.ContentType, chars, 0, len));
-        bufferedChars += len;
-
-        if (bufferedChars > MEMORY_CAPACITY_CHARS) {
-            flush();
-        }
+        endRun();
+        textList.add(new ElementSpec(share(currentAttributes), ElementSpec.ContentType, chars, 0, len));
+        appended(len);
     }
 
     /**
@@ -201,18 +352,127 @@ final class BufferedStyledDocumentBuilder {
      */
     public void append(char[] chars, int index, int len, AttributeSet currentAttributes) {
 //        System.out.println("|"+new String(s, 0, len)+"|");
-        textList.add(new ElementSpec(currentAttributes.copyAttributes(), ElementSpec.ContentType, chars, index, len));
-        bufferedChars += len;
+        endRun();
+        textList.add(new ElementSpec(share(currentAttributes), ElementSpec.ContentType, chars, index, len));
+        appended(len);
+    }
+
+    /**
+     * Append a copy of part of the given char[] s, so the array can be reused
+     * @param chars
+     * @param index
+     * @param len
+     * @param currentAttributes
+     */
+    public void appendCopy(char[] chars, int index, int len, AttributeSet currentAttributes) {
+        AttributeSet set = share(currentAttributes);
+        if (set != runAttributes) {
+            endRun();
+            runAttributes = set;
+        }
+        if (textLength + len > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + len));
+        }
+        System.arraycopy(chars, index, text, textLength, len);
+        textLength += len;
+        appended(len);
+    }
+
+    /**
+     * @return the interned attributes, without looking up again if they are
+     * equal to the last ones
+     */
+    private AttributeSet share(AttributeSet currentAttributes) {
+        if (lastAttributes == null || !lastAttributes.equals(currentAttributes)) {
+            lastAttributes = ParserDocument.intern(currentAttributes);
+        }
+        return lastAttributes;
+    }
+
+    private void endRun() {
+        if (textLength > 0) {
+            textList.add(new ElementSpec(runAttributes, ElementSpec.ContentType, Arrays.copyOf(text, textLength), 0, textLength));
+            textLength = 0;
+        }
+        runAttributes = null;
+    }
+
+    /**
+     * Appends the text and names of the batch builder, that can't be used after
+     */
+    public void append(BufferedStyledDocumentBuilder batch) {
+        batch.endRun();
+        int offset = getLength();
+        for (int i = 0; i < batch.names.size(); i++) {
+            name(batch.names.get(i), offset + batch.nameOffsets.get(i));
+        }
+        int chars = batch.bufferedChars;
+        List<ElementSpec> specs = batch.textList;
+        //continue the run with the first text of the batch, as if appended
+        //here, unless it's the \n before the end of a paragraph
+        ElementSpec first = specs.isEmpty() ? null : specs.get(0);
+        if (runAttributes != null && first.getType() == ElementSpec.ContentType
+                && (specs.size() == 1 || specs.get(1).getType() != ElementSpec.EndTagType)
+                && runAttributes.equals(first.getAttributes())) {
+            chars -= first.getLength();
+            appendCopy(first.getArray(), first.getOffset(), first.getLength(), runAttributes);
+            specs = specs.subList(1, specs.size());
+        }
+        endRun();
+        textList.addAll(specs);
+        batch.textList.clear();
+        appended(chars);
+    }
+
+    private void name(Object name, int offset) {
+        if (batch) {
+            names.add(name);
+            nameOffsets.add(offset);
+        } else {
+            doc.putProperty(name, Integer.valueOf(offset));
+        }
+    }
 
-        if (bufferedChars > MEMORY_CAPACITY_CHARS) {
+    private void appended(int chars) {
+        bufferedChars += chars;
+        if (!batch && bufferedChars > flushThreshold()) {
             flush();
         }
     }
 
+    private FlushPolicy policy() {
+        if (policy == null) {
+            boolean chunked = progressive != null || flushListener != null;
+            policy = new FlushPolicy.Adaptive(chunked ? CHUNK_CHARS : FLUSH_CHARS, FLUSH_CHARS, FLUSH_NANOS);
+        }
+        return policy;
+    }
+
+    private long flushThreshold() {
+        long threshold = policy().flushChars();
+        if (progressive != null && !shown) {
+            //don't wait for a whole chunk to show the first page
+            threshold = Math.min(threshold, progressive.firstPageLength() - doc.getLength());
+        }
+        return threshold;
+    }
+
     private void flush() {
-        appendFunctor.append();
+        endRun();
+        change(appendTask);
+        if (bufferedChars != 0) {
+            policy().flushed(bufferedChars, appendNanos);
+            statistics.flushed(bufferedChars, appendNanos);
+        }
         bufferedChars = 0;
         textList.clear();
+        if (flushListener != null) {
+            flushListener.run();
+        }
+        if (progressive != null && !shown && doc.getLength() >= progressive.firstPageLength()) {
+            shown = true;
+            progressive.firstPage(doc);
+        }
     }
 
     /**
@@ -227,6 +487,14 @@ final class BufferedStyledDocumentBuilder {
         }
         flush();
         flushed = true;
+        if (doc instanceof ParserDocument) {
+            change(new Runnable() {
+                @Override
+                public void run() {
+                    ((ParserDocument) doc).trimToSize();
+                }
+            });
+        }
     }
     private boolean flushed = false;
 }
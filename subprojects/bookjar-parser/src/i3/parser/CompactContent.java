@@ -0,0 +1,282 @@
+package i3.parser;
+
+import java.util.Arrays;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Document content for parsed books, that are built by appending and then
+ * mostly read. The text is kept in fixed size chunks, and chunks that only
+ * have Latin-1 chars are kept as bytes, so most books take a byte per char
+ * instead of the two bytes plus growth slack of GapContent. Call trim() after
+ * parsing to release the unused part of the last chunk.
+ *
+ * Appending before the implied newline is cheap, other changes copy the text
+ * after them. Positions at the same offset are shared and kept until the
+ * content is collected. Changes can't be undone.
+ *
+ * Like GapContent it's not thread safe, the document locks protect it.
+ *
+ * @author i30817
+ */
+final class CompactContent implements AbstractDocument.Content, ParserDocument.BulkContent {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final char[] EMPTY = new char[0];
+    //byte[] (Latin-1) or char[]
+    private Object[] chunks = new Object[16];
+    private int length;
+    //sorted by offset
+    private Mark[] marks = new Mark[64];
+    private int markCount;
+
+    CompactContent() {
+        //the implied newline of documents
+        append(new char[]{'\n'}, 0, 1);
+    }
+
+    private static final class Mark implements Position {
+
+        int offset;
+
+        Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        int i = firstMark(offset);
+        if (i < markCount && marks[i].offset == offset) {
+            return marks[i];
+        }
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
+        }
+        System.arraycopy(marks, i, marks, i + 1, markCount - i);
+        Mark m = new Mark(offset);
+        marks[i] = m;
+        markCount++;
+        return m;
+    }
+
+    /**
+     * @return index of the first mark with a offset >= the given one
+     */
+    private int firstMark(int offset) {
+        int low = 0, high = markCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (marks[mid].offset < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        char[] chars = str.toCharArray();
+        insert(where, chars, 0, chars.length);
+        return null;
+    }
+
+    /**
+     * Inserts the chars without copying them to a String first
+     */
+    @Override
+    public void insert(int where, char[] chars, int offset, int len) throws BadLocationException {
+        if (where < 0 || where > length) {
+            throw new BadLocationException("Invalid insert", length);
+        }
+        char[] tail = read(where, length - where);
+        truncate(where);
+        append(chars, offset, len);
+        append(tail, 0, tail.length);
+        //like GapContent, positions at the insertion move except at 0
+        for (int i = firstMark(where == 0 ? 1 : where); i < markCount; i++) {
+            marks[i].offset += len;
+        }
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", length);
+        }
+        char[] tail = read(where + nitems, length - where - nitems);
+        truncate(where);
+        append(tail, 0, tail.length);
+        for (int i = firstMark(where + 1); i < markCount; i++) {
+            Mark m = marks[i];
+            m.offset = m.offset <= where + nitems ? where : m.offset - nitems;
+        }
+        return null;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        return new String(read(where, len));
+    }
+
+    /**
+     * Char chunks are returned directly, byte chunks are copied. With a
+     * partial return only the chars up to the end of the first chunk are
+     * returned.
+     */
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        Object chunk = chunks[where >> CHUNK_BITS];
+        int position = where & CHUNK_MASK;
+        int inChunk = Math.min(len, CHUNK_SIZE - position);
+        if (chunk instanceof char[] && (inChunk == len || txt.isPartialReturn())) {
+            txt.array = (char[]) chunk;
+            txt.offset = position;
+            txt.count = inChunk;
+        } else {
+            txt.array = read(where, txt.isPartialReturn() ? inChunk : len);
+            txt.offset = 0;
+            txt.count = txt.array.length;
+        }
+    }
+
+    /**
+     * Releases the unused capacity, appending after this is still possible
+     */
+    void trim() {
+        int used = ((length - 1) >> CHUNK_BITS) + 1;
+        int last = used - 1;
+        int lastLength = ((length - 1) & CHUNK_MASK) + 1;
+        Object chunk = chunks[last];
+        if (chunk instanceof byte[]) {
+            chunks[last] = Arrays.copyOf((byte[]) chunk, lastLength);
+        } else {
+            chunks[last] = Arrays.copyOf((char[]) chunk, lastLength);
+        }
+        chunks = Arrays.copyOf(chunks, used);
+        marks = Arrays.copyOf(marks, Math.max(1, markCount));
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid range", length);
+        }
+    }
+
+    private void append(char[] chars, int offset, int len) {
+        while (len > 0) {
+            int index = length >> CHUNK_BITS;
+            int position = length & CHUNK_MASK;
+            int n = Math.min(len, CHUNK_SIZE - position);
+            Object chunk = writableChunk(index);
+            if (chunk instanceof byte[] && isLatin1(chars, offset, n)) {
+                byte[] bytes = (byte[]) chunk;
+                for (int i = 0; i < n; i++) {
+                    bytes[position + i] = (byte) chars[offset + i];
+                }
+            } else {
+                char[] wide;
+                if (chunk instanceof byte[]) {
+                    wide = inflate((byte[]) chunk, position);
+                    chunks[index] = wide;
+                } else {
+                    wide = (char[]) chunk;
+                }
+                System.arraycopy(chars, offset, wide, position, n);
+            }
+            length += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * @return the chunk, created or grown to the full size if needed
+     */
+    private Object writableChunk(int index) {
+        if (index == chunks.length) {
+            chunks = Arrays.copyOf(chunks, index * 2);
+        }
+        Object chunk = chunks[index];
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        } else if (chunk instanceof byte[] && ((byte[]) chunk).length < CHUNK_SIZE) {
+            chunk = Arrays.copyOf((byte[]) chunk, CHUNK_SIZE);
+        } else if (chunk instanceof char[] && ((char[]) chunk).length < CHUNK_SIZE) {
+            chunk = Arrays.copyOf((char[]) chunk, CHUNK_SIZE);
+        }
+        chunks[index] = chunk;
+        return chunk;
+    }
+
+    private static boolean isLatin1(char[] chars, int offset, int len) {
+        for (int i = offset; i < offset + len; i++) {
+            if (chars[i] > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char[] inflate(byte[] bytes, int used) {
+        char[] wide = new char[CHUNK_SIZE];
+        for (int i = 0; i < used; i++) {
+            wide[i] = (char) (bytes[i] & 0xFF);
+        }
+        return wide;
+    }
+
+    private void truncate(int newLength) {
+        int used = newLength == 0 ? 0 : ((newLength - 1) >> CHUNK_BITS) + 1;
+        for (int i = used; i < chunks.length && chunks[i] != null; i++) {
+            chunks[i] = null;
+        }
+        length = newLength;
+    }
+
+    private char[] read(int where, int len) {
+        char[] result = new char[len];
+        int copied = 0;
+        while (copied < len) {
+            int from = where + copied;
+            Object chunk = chunks[from >> CHUNK_BITS];
+            int position = from & CHUNK_MASK;
+            int n = Math.min(len - copied, CHUNK_SIZE - position);
+            if (chunk instanceof byte[]) {
+                byte[] bytes = (byte[]) chunk;
+                for (int i = 0; i < n; i++) {
+                    result[copied + i] = (char) (bytes[position + i] & 0xFF);
+                }
+            } else {
+                System.arraycopy((char[]) chunk, position, result, copied, n);
+            }
+            copied += n;
+        }
+        return result;
+    }
+}
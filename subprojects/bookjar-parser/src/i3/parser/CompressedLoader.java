@@ -34,6 +34,7 @@ public final class CompressedLoader extends BookLoader {
     @Override
     public StyledDocument create(URL origin, Map<Property,Object> properties) throws IOException {
         //may have to download...
+        LoadPhase extract = LoadPhase.start("extract", properties);
         try (Selector archive = Selector.from(origin)){
             //can't read, ignore
             if (archive == null) {
@@ -58,7 +59,10 @@ public final class CompressedLoader extends BookLoader {
             }
             properties.put(Property.EXTRACTED_FILENAME, fview.getFileName());
             BookLoader loader = BookLoader.forFileName(fview.getFileName());
-            return loader.create(fview.getInputStream(), properties);
+            InputStream in = fview.getInputStream();
+            //the entry is decompressed while parsed
+            extract.end();
+            return loader.create(in, properties);
         }
     }
 
@@ -0,0 +1,621 @@
+package i3.parser;
+
+import i3.io.IoUtils;
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import javax.swing.text.html.HTML;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * On disk cache of parsed books, so reopening a book doesn't parse it again.
+ *
+ * Entries are keyed by the file path, size and modification time and the
+ * properties that change the parsed document. They hold the text, the run
+ * length encoded paragraph and character attributes and the document
+ * properties, and are memory mapped and rebuilt with a single bulk insert.
+ * Entries written by another build of the parser (or of the parser listener)
+ * are ignored, and the least recently used ones are deleted when the cache
+ * grows over its size.
+ *
+ * Only the attributes the parsers create are stored, documents with others
+ * are not cached. HTML.Attribute.NAME is dropped, the names are also document
+ * properties. Large text books that TxtLoader memory maps are not cached.
+ *
+ * @author i30817
+ */
+public final class DocumentCache {
+
+    private static final int MAGIC = 0x424A4443;
+    /**
+     * Change when the entry layout changes
+     */
+    private static final int FORMAT = 1;
+    private static final String SUFFIX = ".doc";
+    private static final Object[] KEYS = {
+        StyleConstants.Italic, StyleConstants.Bold, StyleConstants.Underline, StyleConstants.StrikeThrough,
+        StyleConstants.Subscript, StyleConstants.Superscript, StyleConstants.FontFamily, StyleConstants.FontSize,
+        StyleConstants.Foreground, StyleConstants.Background, StyleConstants.Alignment,
+        StyleConstants.FirstLineIndent, StyleConstants.LeftIndent, StyleConstants.RightIndent,
+        StyleConstants.SpaceAbove, StyleConstants.SpaceBelow, StyleConstants.LineSpacing, HTML.Attribute.HREF
+    };
+    /**
+     * The classes don't change while running, so they are only stamped once
+     */
+    private static final Map<Class<?>, String> STAMPS = new ConcurrentHashMap<>();
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory of the entries, created if needed
+     * @param maxBytes size of the entries after which the least recently used
+     * are deleted, 0 to disable the cache
+     */
+    public DocumentCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Like BookLoader.create(URL, Map), but a file that was parsed with the
+     * same properties is read from the cache. A ProgressiveListener is only
+     * called when the book is parsed.
+     */
+    public StyledDocument create(URL origin, Map<Property, Object> properties) throws IOException {
+        LoadPhase lookup = LoadPhase.start("lookup", properties);
+        BookLoader loader = BookLoader.forFileName(IoUtils.getName(origin));
+        lookup.end();
+        return create(origin, loader, properties);
+    }
+
+    /**
+     * Like create(URL, Map), with the loader of the file already known
+     */
+    public StyledDocument create(URL origin, BookLoader loader, Map<Property, Object> properties) throws IOException {
+        Path file = IoUtils.toFile(origin);
+        if (maxBytes <= 0 || file == null || !Files.isRegularFile(file)
+                || !IoUtils.validateOrCreateDir(directory, "Document cache dir not writable, not caching books...")) {
+            return loader.create(origin, properties);
+        }
+        String key = key(file, loader, properties);
+        String version = version(loader, properties);
+        Path entry = directory.resolve(Long.toHexString(hash(key)) + SUFFIX);
+        if (version != null && Files.exists(entry)) {
+            LoadPhase cached = LoadPhase.start("cache read", properties);
+            try {
+                StyledDocument doc = read(entry, key, version);
+                if (doc != null) {
+                    Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+                    return doc;
+                }
+            } catch (IOException | RuntimeException ex) {
+                LogManager.getLogger().warn("corrupt document cache entry " + entry, ex);
+            } finally {
+                cached.end();
+            }
+        }
+
+        ProgressiveListener progressive = (ProgressiveListener) properties.get(Property.PROGRESSIVE_LISTENER);
+        Recorder recorder = null;
+        if (progressive != null) {
+            recorder = new Recorder(progressive);
+            properties.put(Property.PROGRESSIVE_LISTENER, recorder);
+        }
+        StyledDocument doc;
+        try {
+            doc = loader.create(origin, properties);
+        } finally {
+            if (progressive != null) {
+                properties.put(Property.PROGRESSIVE_LISTENER, progressive);
+            }
+        }
+        //a mapped text is already faster to open than an entry
+        if (version != null && !(doc instanceof MappedTextDocument)) {
+            StyledDocument parsed = recorder == null ? doc : recorder.parsed(doc);
+            LoadPhase writing = LoadPhase.start("cache write", properties);
+            try {
+                write(entry, key, version, parsed, doc);
+            } catch (IOException ex) {
+                LogManager.getLogger().warn("could not write document cache entry " + entry, ex);
+            } finally {
+                writing.end();
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * The properties that change the parsed document, not the parser version
+     * so a new version replaces the same entry
+     */
+    private static String key(Path file, BookLoader loader, Map<Property, Object> properties) throws IOException {
+        Object listener = properties.get(Property.PARSER_LISTENER);
+        return file.toAbsolutePath() + "|" + Files.size(file) + "|" + Files.getLastModifiedTime(file).toMillis()
+                + "|" + loader.getClass().getName() + "|" + properties.get(Property.REFORMAT)
+                + "|" + rgb(properties.get(Property.HYPERLINK_COLOR)) + "|" + rgb(properties.get(Property.VISITED_HYPERLINK_COLOR))
+                + "|" + (listener == null ? null : listener.getClass().getName());
+    }
+
+    private static String rgb(Object color) {
+        return color instanceof Color ? Integer.toHexString(((Color) color).getRGB()) : null;
+    }
+
+    /**
+     * @return a stamp of the classes that parse the book, or null if unknown
+     */
+    private static String version(BookLoader loader, Map<Property, Object> properties) {
+        Object listener = properties.get(Property.PARSER_LISTENER);
+        try {
+            String version = FORMAT + "|" + stamp(BookLoader.class) + "|" + stamp(loader.getClass());
+            return listener == null ? version : version + "|" + stamp(listener.getClass());
+        } catch (IOException ex) {
+            LogManager.getLogger().warn("unknown parser version, not caching documents", ex);
+            return null;
+        }
+    }
+
+    /**
+     * The size and modification time of the jar with the class, or the last
+     * modification time of the package directory files
+     */
+    private static String stamp(Class<?> c) throws IOException {
+        String stamp = STAMPS.get(c);
+        if (stamp == null) {
+            stamp = readStamp(c);
+            STAMPS.put(c, stamp);
+        }
+        return stamp;
+    }
+
+    private static String readStamp(Class<?> c) throws IOException {
+        Path location = IoUtils.getClassLocation(c);
+        if (!Files.isDirectory(location)) {
+            return Files.size(location) + ":" + Files.getLastModifiedTime(location).toMillis();
+        }
+        Path pkg = location.resolve(c.getPackage().getName().replace('.', '/'));
+        long last = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pkg)) {
+            for (Path f : files) {
+                last = Math.max(last, Files.getLastModifiedTime(f).toMillis());
+            }
+        }
+        return Long.toString(last);
+    }
+
+    /**
+     * 64 bit FNV-1a
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * @return the document or null if the entry is of another file or parser
+     */
+    private static StyledDocument read(Path entry, String key, String version) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT || !version.equals(readString(in)) || !key.equals(readString(in))) {
+            return null;
+        }
+        char[] text = new char[in.getInt()];
+        in.asCharBuffer().get(text);
+        in.position(in.position() + text.length * 2);
+
+        AttributeSet[] sets = new AttributeSet[in.getInt()];
+        for (int i = 0; i < sets.length; i++) {
+            SimpleAttributeSet set = new SimpleAttributeSet();
+            for (int attributes = in.get(); attributes > 0; attributes--) {
+                set.addAttribute(KEYS[in.get()], readValue(in));
+            }
+            sets[i] = set;
+        }
+        //(chars, set) for each paragraph, then for the character runs
+        int[] paragraphs = new int[in.getInt() * 2];
+        for (int i = 0; i < paragraphs.length; i++) {
+            paragraphs[i] = in.getInt();
+        }
+        List<ElementSpec> specs = new ArrayList<>();
+        int offset = 0;
+        int paragraph = 0;
+        int paragraphEnd = paragraphs[0];
+        for (int runs = in.getInt(); runs > 0; runs--) {
+            int end = offset + in.getInt();
+            AttributeSet set = sets[in.getInt()];
+            while (offset < end) {
+                int contentEnd = Math.min(end, paragraphEnd);
+                //a spec copies all its array since java 9
+                specs.add(new ElementSpec(set, ElementSpec.ContentType, Arrays.copyOfRange(text, offset, contentEnd), 0, contentEnd - offset));
+                offset = contentEnd;
+                if (offset == paragraphEnd) {
+                    paragraph += 2;
+                    paragraphEnd += paragraphs[paragraph];
+                    specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+                    specs.add(new ElementSpec(sets[paragraphs[paragraph + 1]], ElementSpec.StartTagType));
+                }
+            }
+        }
+        ParserDocument doc = new ParserDocument(new CompactContent());
+        try {
+            doc.insert(0, specs.toArray(new ElementSpec[specs.size()]));
+        } catch (BadLocationException ex) {
+            throw new AssertionError(ex);
+        }
+        if (sets[paragraphs[1]].getAttributeCount() > 0) {
+            doc.setParagraphAttributes(0, 0, sets[paragraphs[1]], false);
+        }
+        doc.trimToSize();
+        for (int properties = in.getInt(); properties > 0; properties--) {
+            doc.putProperty(readString(in), readValue(in));
+        }
+        return doc;
+    }
+
+    private static String readString(ByteBuffer in) {
+        char[] chars = new char[in.getInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static Object readValue(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case 'B':
+                return in.get() != 0;
+            case 'I':
+                return in.getInt();
+            case 'F':
+                return in.getFloat();
+            case 'S':
+                return readString(in);
+            case 'C':
+                return new Color(in.getInt(), true);
+            default:
+                throw new IllegalStateException("unknown value type " + type);
+        }
+    }
+
+    /**
+     * Writes the text and attributes of parsed and the properties of doc,
+     * unless there are attributes that can't be stored
+     */
+    private void write(Path entry, String key, String version, StyledDocument parsed, StyledDocument doc) throws IOException {
+        Map<AttributeSet, Integer> sets = new LinkedHashMap<>();
+        Element root = parsed.getDefaultRootElement();
+        int length = parsed.getLength();
+        //(chars, set)
+        List<int[]> paragraphs = new ArrayList<>();
+        //(chars, set)
+        List<int[]> characterRuns = new ArrayList<>();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element paragraph = root.getElement(i);
+            Integer set = index(sets, paragraph.getAttributes());
+            if (set == null) {
+                return;
+            }
+            paragraphs.add(new int[]{paragraph.getEndOffset() - paragraph.getStartOffset(), set});
+            for (int j = 0; j < paragraph.getElementCount(); j++) {
+                Element leaf = paragraph.getElement(j);
+                int chars = Math.min(leaf.getEndOffset(), length) - leaf.getStartOffset();
+                if (chars <= 0) {
+                    continue;
+                }
+                set = index(sets, leaf.getAttributes());
+                if (set == null) {
+                    return;
+                }
+                addRun(characterRuns, chars, set);
+            }
+        }
+        List<Object> properties = new ArrayList<>();
+        Dictionary<Object, Object> dictionary = ((AbstractDocument) doc).getDocumentProperties();
+        for (Enumeration<Object> keys = dictionary.keys(); keys.hasMoreElements();) {
+            Object name = keys.nextElement();
+            Object value = dictionary.get(name);
+            if (name instanceof String && (value instanceof Integer || value instanceof String)) {
+                properties.add(name);
+                properties.add(value);
+            }
+        }
+
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            writeString(out, version);
+            writeString(out, key);
+            out.writeInt(length);
+            Segment text = new Segment();
+            text.setPartialReturn(true);
+            for (int offset = 0; offset < length; offset += text.count) {
+                parsed.getText(offset, length - offset, text);
+                for (int i = text.offset; i < text.offset + text.count; i++) {
+                    out.writeChar(text.array[i]);
+                }
+            }
+            out.writeInt(sets.size());
+            for (AttributeSet set : sets.keySet()) {
+                out.writeByte(set.getAttributeCount());
+                for (Enumeration<?> names = set.getAttributeNames(); names.hasMoreElements();) {
+                    Object name = names.nextElement();
+                    out.writeByte(keyIndex(name));
+                    writeValue(out, set.getAttribute(name));
+                }
+            }
+            out.writeInt(paragraphs.size());
+            writeRuns(out, paragraphs);
+            out.writeInt(characterRuns.size());
+            writeRuns(out, characterRuns);
+            out.writeInt(properties.size() / 2);
+            for (int i = 0; i < properties.size(); i += 2) {
+                writeString(out, (String) properties.get(i));
+                writeValue(out, properties.get(i + 1));
+            }
+        } catch (BadLocationException ex) {
+            throw new AssertionError(ex);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+        evict();
+    }
+
+    /**
+     * @return the index of the storable attributes of the set, or null if
+     * there are others
+     */
+    private static Integer index(Map<AttributeSet, Integer> sets, AttributeSet attributes) {
+        SimpleAttributeSet stored = new SimpleAttributeSet();
+        for (Enumeration<?> names = attributes.getAttributeNames(); names.hasMoreElements();) {
+            Object name = names.nextElement();
+            if (name == StyleConstants.ResolveAttribute || name == HTML.Attribute.NAME) {
+                continue;
+            }
+            Object value = attributes.getAttribute(name);
+            if (keyIndex(name) < 0 || !(value instanceof Boolean || value instanceof Integer
+                    || value instanceof Float || value instanceof String || value instanceof Color)) {
+                LogManager.getLogger().debug("not caching document with attribute " + name + "=" + value);
+                return null;
+            }
+            stored.addAttribute(name, value);
+        }
+        Integer index = sets.get(stored);
+        if (index == null) {
+            index = sets.size();
+            sets.put(stored, index);
+        }
+        return index;
+    }
+
+    private static int keyIndex(Object name) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (KEYS[i] == name) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void addRun(List<int[]> runs, int length, int set) {
+        int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (last != null && last[1] == set) {
+            last[0] += length;
+        } else {
+            runs.add(new int[]{length, set});
+        }
+    }
+
+    private static void writeRuns(DataOutputStream out, List<int[]> runs) throws IOException {
+        for (int[] run : runs) {
+            out.writeInt(run[0]);
+            out.writeInt(run[1]);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Boolean) {
+            out.writeByte('B');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.writeByte('F');
+            out.writeFloat((Float) value);
+        } else if (value instanceof String) {
+            out.writeByte('S');
+            writeString(out, (String) value);
+        } else {
+            out.writeByte('C');
+            out.writeInt(((Color) value).getRGB());
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits
+     */
+    private synchronized void evict() throws IOException {
+        final Map<Path, FileTime> used = new LinkedHashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path e : entries) {
+                used.put(e, Files.getLastModifiedTime(e));
+                total += Files.size(e);
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        List<Path> oldestFirst = new ArrayList<>(used.keySet());
+        Collections.sort(oldestFirst, new Comparator<Path>() {
+            @Override
+            public int compare(Path o1, Path o2) {
+                return used.get(o1).compareTo(used.get(o2));
+            }
+        });
+        for (Path e : oldestFirst) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long size = Files.size(e);
+            if (Files.deleteIfExists(e)) {
+                total -= size;
+            }
+        }
+    }
+
+    /**
+     * Keeps a copy of a progressively shown document as the parser changes
+     * it, since the one shown is also changed by the view
+     */
+    private static final class Recorder implements ProgressiveListener, DocumentListener {
+
+        private final ProgressiveListener listener;
+        private ParserDocument copy;
+        private boolean recording;
+
+        Recorder(ProgressiveListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public int firstPageLength() {
+            return listener.firstPageLength();
+        }
+
+        @Override
+        public void firstPage(StyledDocument doc) {
+            copy = new ParserDocument(new CompactContent());
+            copy(doc, 0, doc.getLength());
+            doc.addDocumentListener(this);
+            listener.firstPage(doc);
+        }
+
+        @Override
+        public void change(StyledDocument doc, final Runnable change) {
+            listener.change(doc, new Runnable() {
+                @Override
+                public void run() {
+                    recording = true;
+                    try {
+                        change.run();
+                    } finally {
+                        recording = false;
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return the copy if the document was shown, else the document
+         */
+        StyledDocument parsed(StyledDocument doc) {
+            if (copy == null) {
+                return doc;
+            }
+            doc.removeDocumentListener(this);
+            return copy;
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            if (recording) {
+                copy((StyledDocument) e.getDocument(), e.getOffset(), e.getLength());
+            }
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            if (recording) {
+                try {
+                    copy.remove(e.getOffset(), e.getLength());
+                } catch (BadLocationException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            //only names are set by the parsers after the text is added
+        }
+
+        private void copy(StyledDocument doc, int offset, int length) {
+            List<ElementSpec> specs = new ArrayList<>();
+            char[] text;
+            try {
+                text = doc.getText(offset, length).toCharArray();
+            } catch (BadLocationException ex) {
+                throw new AssertionError(ex);
+            }
+            int end = offset + length;
+            int start = offset;
+            while (start < end) {
+                Element leaf = doc.getCharacterElement(start);
+                int leafEnd = Math.min(leaf.getEndOffset(), end);
+                AttributeSet set = leaf.getAttributes().copyAttributes();
+                Element paragraph = leaf.getParentElement();
+                if (leafEnd == paragraph.getEndOffset()) {
+                    specs.add(new ElementSpec(set, ElementSpec.ContentType, Arrays.copyOfRange(text, start - offset, leafEnd - offset), 0, leafEnd - start));
+                    specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+                    specs.add(new ElementSpec(doc.getParagraphElement(leafEnd).getAttributes(), ElementSpec.StartTagType));
+                    start = leafEnd;
+                }
+                if (start < leafEnd) {
+                    specs.add(new ElementSpec(set, ElementSpec.ContentType, Arrays.copyOfRange(text, start - offset, leafEnd - offset), 0, leafEnd - start));
+                    start = leafEnd;
+                }
+            }
+            try {
+                copy.insert(offset, specs.toArray(new ElementSpec[specs.size()]));
+            } catch (BadLocationException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package i3.parser;
+
+/**
+ * Decides how many chars a BufferedStyledDocumentBuilder buffers before
+ * inserting them in the document
+ *
+ * @author i30817
+ */
+interface FlushPolicy {
+
+    /**
+     * @return chars to buffer before the next insertion
+     */
+    int flushChars();
+
+    /**
+     * Told after each insertion of the chars it took and the time it took
+     */
+    void flushed(int chars, long nanos);
+
+    /**
+     * Always the same chars, for tests and benchmarks
+     */
+    final class Fixed implements FlushPolicy {
+
+        private final int chars;
+
+        Fixed(int chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int flushChars() {
+            return chars;
+        }
+
+        @Override
+        public void flushed(int chars, long nanos) {
+        }
+    }
+
+    /**
+     * Starts with the given chars and then buffers the chars that would be
+     * inserted in the given time, by the average time per char of the last
+     * insertions, never more than the most chars. A insertion can't take too
+     * long when it runs in the thread showing the document, and the buffered
+     * specs don't depend on the free memory.
+     */
+    final class Adaptive implements FlushPolicy {
+
+        /**
+         * Less than this isn't timed, the fixed cost of a insertion dominates
+         */
+        private static final int MIN_CHARS = 1024;
+        private final int maxChars;
+        private final long nanos;
+        private int chars;
+        private double nanosPerChar;
+
+        Adaptive(int chars, int maxChars, long nanos) {
+            this.maxChars = Math.max(MIN_CHARS, maxChars);
+            this.chars = Math.max(MIN_CHARS, Math.min(chars, this.maxChars));
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int flushChars() {
+            return chars;
+        }
+
+        @Override
+        public void flushed(int chars, long nanos) {
+            if (chars < MIN_CHARS) {
+                return;
+            }
+            double last = (double) nanos / chars;
+            //the first measure includes the warm up, the later ones weight more
+            nanosPerChar = nanosPerChar == 0 ? last : nanosPerChar * 0.75 + last * 0.25;
+            this.chars = (int) Math.max(MIN_CHARS, Math.min(maxChars, this.nanos / nanosPerChar));
+        }
+    }
+}
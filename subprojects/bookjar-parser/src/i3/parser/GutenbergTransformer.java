@@ -0,0 +1,208 @@
+package i3.parser;
+
+import java.util.Arrays;
+import java.util.Map;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * Removes the license of project gutenberg books and turns the _emphasis_ of
+ * their txt files into italics.
+ *
+ * The markers and the underscores are found in a single scan of the text. The
+ * license is only removed from the ends, but if there is emphasis all the text
+ * is built again in a single insertion, since replacing each span shifts all
+ * the text after it.
+ *
+ * @author i30817
+ */
+public final class GutenbergTransformer implements ParserListener {
+
+    private static final char[] START_TAG = "START OF THIS PROJECT GUTENBERG".toCharArray();
+    private static final char[] END_TAG = "END OF THIS PROJECT GUTENBERG".toCharArray();
+    private static final char[] STARS = "***".toCharArray();
+    private final AttributeSet italicAttr;
+    private final Map<Property, Object> properties;
+
+    public GutenbergTransformer(Map<Property, Object> properties) {
+        this.properties = properties;
+        SimpleAttributeSet italic = new SimpleAttributeSet();
+        StyleConstants.setItalic(italic, true);
+        italicAttr = italic;
+    }
+
+    @Override
+    public void startDocument(DefaultStyledDocument doc) {
+    }
+
+    @Override
+    public void endDocument(DefaultStyledDocument doc) {
+        LoadPhase gutenberg = LoadPhase.start("gutenberg", properties);
+        try {
+            transform(doc);
+        } finally {
+            gutenberg.end();
+        }
+    }
+
+    private void transform(DefaultStyledDocument doc) {
+        int length = doc.getLength();
+        char[] text;
+        try {
+            //a copy, the document array changes when rebuilt
+            text = doc.getText(0, length).toCharArray();
+        } catch (BadLocationException ex) {
+            throw new AssertionError(ex);
+        }
+        int startTag = -1, textStart = -1, stars = -1, endStars = -1;
+        int[] underscores = new int[64];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c == '_') {
+                if (count == underscores.length) {
+                    underscores = Arrays.copyOf(underscores, count * 2);
+                }
+                underscores[count++] = i;
+            } else if (c == '*' && matches(text, i, STARS)) {
+                //the first stars after the start tag end the license, plus \n
+                if (startTag != -1 && textStart == -1) {
+                    textStart = i + 4;
+                }
+                stars = i;
+            } else if (c == 'S' && startTag == -1 && matches(text, i, START_TAG)) {
+                startTag = i;
+            } else if (c == 'E' && matches(text, i, END_TAG)) {
+                //the last stars before the last end tag start the license
+                endStars = stars;
+            }
+        }
+        if (startTag == -1) {
+            assert false : "gutenberg file without license";
+            return;
+        }
+        if (textStart == -1 || endStars == -1 || endStars < textStart) {
+            assert false : "malformed gutenberg license";
+            return;
+        }
+        //italicise gutenberg txt files
+        String name = (String) properties.get(Property.EXTRACTED_FILENAME);
+        int first = 0, last = count;
+        if (name != null && name.endsWith(".txt")) {
+            while (first < count && underscores[first] < textStart) {
+                first++;
+            }
+            while (last > first && underscores[last - 1] >= endStars) {
+                last--;
+            }
+            if ((last - first) % 2 != 0) {
+                assert false : "unclosed gutenberg italic _ at index " + (underscores[last - 1] - textStart);
+                //left as it is
+                last--;
+            }
+        } else {
+            last = first;
+        }
+        try {
+            if (first == last) {
+                doc.remove(endStars, length - endStars);
+                doc.remove(0, textStart);
+            } else {
+                rebuild(doc, text, textStart, endStars, Arrays.copyOfRange(underscores, first, last));
+            }
+        } catch (BadLocationException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static boolean matches(char[] text, int index, char[] tag) {
+        if (index + tag.length > text.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length; i++) {
+            if (text[index + i] != tag[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the document with the text between start and end, the text
+     * between each pair of underscores italic and without them
+     */
+    private void rebuild(DefaultStyledDocument doc, char[] text, int start, int end, int[] underscores) throws BadLocationException {
+        //the character attributes before they are removed
+        Runs runs = new Runs(doc, start, end);
+        doc.remove(0, doc.getLength());
+        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(doc);
+        int index = start;
+        for (int i = 0; i < underscores.length; i += 2) {
+            runs.append(builder, text, index, underscores[i], null);
+            runs.append(builder, text, underscores[i] + 1, underscores[i + 1], italicAttr);
+            index = underscores[i + 1] + 1;
+        }
+        runs.append(builder, text, index, end, null);
+        builder.commit();
+    }
+
+    /**
+     * The character elements of a part of the document, in order
+     */
+    private static final class Runs {
+
+        private int[] ends = new int[64];
+        private AttributeSet[] attributes = new AttributeSet[64];
+        private int count, current;
+
+        Runs(DefaultStyledDocument doc, int start, int end) {
+            Element root = doc.getDefaultRootElement();
+            for (int p = root.getElementIndex(start); p < root.getElementCount(); p++) {
+                Element paragraph = root.getElement(p);
+                for (int l = paragraph.getElementIndex(start); l < paragraph.getElementCount(); l++) {
+                    Element leaf = paragraph.getElement(l);
+                    if (count == ends.length) {
+                        ends = Arrays.copyOf(ends, count * 2);
+                        attributes = Arrays.copyOf(attributes, count * 2);
+                    }
+                    ends[count] = leaf.getEndOffset();
+                    attributes[count++] = leaf.getAttributes();
+                    if (leaf.getEndOffset() >= end) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Appends the text from index to end with the given attributes or
+         * the ones it had, the paragraphs ended with the attributes of the \n
+         */
+        void append(BufferedStyledDocumentBuilder builder, char[] text, int index, int end, AttributeSet set) {
+            while (index < end) {
+                while (ends[current] <= index) {
+                    current++;
+                }
+                int runEnd = set == null ? Math.min(end, ends[current]) : end;
+                AttributeSet runSet = set == null ? attributes[current] : set;
+                int from = index;
+                for (; index < runEnd; index++) {
+                    if (text[index] == '\n') {
+                        if (index > from) {
+                            builder.appendCopy(text, from, index - from, runSet);
+                        }
+                        builder.appendEnd(runSet);
+                        from = index + 1;
+                    }
+                }
+                if (index > from) {
+                    builder.appendCopy(text, from, index - from, runSet);
+                }
+            }
+        }
+    }
+}
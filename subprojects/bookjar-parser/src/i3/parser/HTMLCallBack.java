@@ -1,8 +1,8 @@
 package i3.parser;
 
 import java.awt.Color;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -31,6 +31,13 @@ import org.xml.sax.SAXException;
  * att.getAttribute(HTML.Attribute.HREF); Then get the correct index : Integer i
  * = (Integer) doc.getProperty(key);
  *
+ * When parsing progressively the names are committed as soon as their text is
+ * flushed, even if no link to them was seen yet, since the text may be
+ * shown before the end.
+ *
+ * When reformatting, the text goes through a Reparser.Filter a paragraph at a
+ * time instead.
+ *
  * @author i30817
  *
  */
@@ -41,7 +48,11 @@ public class HTMLCallBack implements ContentHandler {
     private final MutableAttributeSet memory = new SimpleAttributeSet();
     private final List<String> hrefList = new LinkedList<>();
     private final Map<String, Integer> nameMap = new HashMap<>();
+    //names not committed yet in the order found (increasing index)
+    private final LinkedList<String> pendingNames = new LinkedList<>();
     private boolean linkVisited = false, notFoundBodyOnce = true;
+    private ProgressiveListener progressive;
+    private Reparser.Filter reformat;
 
     /**
      * Link color can be mutable by subclassing Color.
@@ -59,39 +70,106 @@ public class HTMLCallBack implements ContentHandler {
         return builder.getDocument();
     }
 
-    private void commitNames() {
-        for (String hrefName : hrefList) {
-            Integer index = nameMap.get(hrefName);
-            if (index == null) {
-                continue;
+    LoadStatistics getStatistics() {
+        return builder.getStatistics();
+    }
+
+    /**
+     * Shows the document as soon as the first page of the body is parsed
+     */
+    void setProgressiveListener(ProgressiveListener listener) {
+        progressive = listener;
+        startProgressive();
+    }
+
+    /**
+     * Standardizes the text while parsing, call before the parsing starts
+     */
+    void setReformat(Reparser reparser) {
+        reformat = reparser.new Filter(builder);
+    }
+
+    private void startProgressive() {
+        //the head is removed when the body starts
+        if (notFoundBodyOnce || progressive == null) {
+            return;
+        }
+        builder.setProgressiveListener(progressive);
+        if (reformat == null) {
+            builder.setFlushListener(new Runnable() {
+                @Override
+                public void run() {
+                    commitFlushedNames();
+                }
+            });
+        }
+    }
+
+    private void commitFlushedNames() {
+        final int length = builder.getDocument().getLength();
+        builder.change(new Runnable() {
+            @Override
+            public void run() {
+                while (!pendingNames.isEmpty() && nameMap.get(pendingNames.getFirst()) < length) {
+                    String name = pendingNames.removeFirst();
+                    commitName(name, nameMap.get(name));
+                    //still in the map so it's not saved again
+                    nameMap.put(name, null);
+                }
             }
+        });
+    }
 
-            Element element = builder.getDocument().getCharacterElement(index);
-            AttributeSet set = element.getAttributes();
-            //The lists are needed since there is a weird edge case
-            //when two hrefs from hreflist can point to the same place.
-            //because the names have no "real" text between them
-            //so they shadow. Then if you move the text around
-            //it will break when rebuilding.
-            if (set.isDefined(Attribute.NAME)) {
-                ((List) set.getAttribute(Attribute.NAME)).add(hrefName);
-            } else {
-                SimpleAttributeSet indexAttributes = new SimpleAttributeSet();
-                List list = new LinkedList();
-                list.add(hrefName);
-                indexAttributes.addAttribute(Attribute.NAME, list);
-                builder.getDocument().setCharacterAttributes(element.getStartOffset(), 1, indexAttributes, false);
+    private void commitNames() {
+        builder.change(new Runnable() {
+            @Override
+            public void run() {
+                for (String hrefName : hrefList) {
+                    Integer index = nameMap.get(hrefName);
+                    if (index != null) {
+                        commitName(hrefName, index);
+                    }
+                }
             }
-            builder.getDocument().putProperty(hrefName, index);
+        });
+    }
+
+    private void commitName(String hrefName, Integer index) {
+        Element element = builder.getDocument().getCharacterElement(index);
+        AttributeSet set = element.getAttributes();
+        //The lists are needed since there is a weird edge case
+        //when two hrefs from hreflist can point to the same place.
+        //because the names have no "real" text between them
+        //so they shadow. Then if you move the text around
+        //it will break when rebuilding.
+        if (set.isDefined(Attribute.NAME)) {
+            ((List) set.getAttribute(Attribute.NAME)).add(hrefName);
+        } else {
+            SimpleAttributeSet indexAttributes = new SimpleAttributeSet();
+            List list = new LinkedList();
+            list.add(hrefName);
+            indexAttributes.addAttribute(Attribute.NAME, list);
+            //text with the same attributes is a single element, so not its start
+            builder.getDocument().setCharacterAttributes(index, 1, indexAttributes, false);
         }
+        builder.getDocument().putProperty(hrefName, index);
     }
 
     private void setMemory(Tag tag, Attributes attributes) {
         String attribute = attributes.getValue("id");
         addNameAttribute(attribute);
         if (notFoundBodyOnce && tag == Tag.BODY) {
-            builder.clear();
+            //names in the head are at the start of the body
+            if (reformat != null) {
+                reformat.clear();
+            } else {
+                builder.clear();
+                for (String name : pendingNames) {
+                    nameMap.put(name, 0);
+                }
+            }
             notFoundBodyOnce = false;
+            startProgressive();
         } else if (tag == Tag.I || tag == Tag.EM) {
             StyleConstants.setItalic(memory, true);
         } else if (tag == Tag.B) {
@@ -150,7 +228,13 @@ public class HTMLCallBack implements ContentHandler {
         if (name == null || nameMap.containsKey(name)) {
             return;
         }
+        if (reformat != null) {
+            nameMap.put(name, null);
+            reformat.name(name);
+            return;
+        }
         nameMap.put(name, builder.getLength());
+        pendingNames.add(name);
     }
 
     private Color decodeColor(String code) {
@@ -174,8 +258,14 @@ public class HTMLCallBack implements ContentHandler {
 
     @Override
     public void endDocument() throws SAXException {
-        builder.commit();
-        commitNames();
+        if (reformat != null) {
+            reformat.finish();
+            builder.commit();
+            reformat.retainNames(new HashSet<>(hrefList));
+        } else {
+            builder.commit();
+            commitNames();
+        }
     }
 
     @Override
@@ -207,10 +297,18 @@ public class HTMLCallBack implements ContentHandler {
 
         eraseMemory(tag);
         if (tag.isBlock() && !tag.breaksFlow()) {
-            builder.appendSpace(memory);
+            if (reformat != null) {
+                reformat.appendSpace(memory);
+            } else {
+                builder.appendSpace(memory);
+            }
         }
         if (tag.breaksFlow()) {
-            builder.appendEnd(memory);
+            if (reformat != null) {
+                reformat.appendEnd(memory);
+            } else {
+                builder.appendEnd(memory);
+            }
         }
     }
 
@@ -218,9 +316,13 @@ public class HTMLCallBack implements ContentHandler {
     public void characters(char[] ch, int index, int length) throws SAXException {
 //    System.out.println("handleText("+new String(ch, index, length)+")");
 
-        //the parser reuses the array at the same indexes - copy it.
-        char[] copy = Arrays.copyOfRange(ch, index, index + length);
-        builder.append(copy, memory);
+        if (reformat != null) {
+            //copied to the paragraph
+            reformat.append(ch, index, length, memory);
+        } else {
+            //the parser reuses the array at the same indexes - copy it.
+            builder.appendCopy(ch, index, length, memory);
+        }
         //Only erase <a> attributes if we encountered real text.
         //This means that we can't start and end a link on whitespace.
         if (linkVisited) {
@@ -1,10 +1,8 @@
 package i3.parser;
 
 import java.awt.Color;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.util.HashSet;
@@ -17,6 +15,7 @@ import org.ccil.cowan.tagsoup.Parser;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import i3.io.CharsetDetectingReader;
 import i3.util.Strings;
 import static i3.io.IoUtils.*;
 
@@ -63,10 +62,12 @@ public final class HtmlLoader extends BookLoader {
     }
 
     private StyledDocument create(InputStream input, String filename, Map<Property, Object> properties) throws IOException {
-        try (
-                BufferedInputStream stream = new BufferedInputStream(input);
-                Reader inputReader = new InputStreamReader(stream, findHtmlCharset(stream, 20000, "windows-1252"));) {
-            return parseHTML(inputReader, filename, properties);
+        try (CharsetDetectingReader reader = new CharsetDetectingReader(input, 20000, "windows-1252", true)) {
+            LoadPhase charset = LoadPhase.start("charset", properties);
+            //otherwise detected in the first read, in the parse
+            reader.getCharset();
+            charset.end();
+            return parseHTML(reader, filename, properties);
         }
     }
 
@@ -81,33 +82,61 @@ public final class HtmlLoader extends BookLoader {
     }
     private XMLReader parser;
 
-    private StyledDocument parseHTML(Reader reader, String filename, Map properties) throws IOException {
+    private StyledDocument parseHTML(Reader reader, String filename, Map<Property, Object> properties) throws IOException {
 //        long time = System.currentTimeMillis();
         if (parser == null) {
             parser = new Parser();
         }
         Color hyperLinkColor = (Color) properties.get(Property.HYPERLINK_COLOR);
         filename = Strings.subStringAfterLast(filename, '\\');
-        DefaultStyledDocument doc = new ParserDocument();
+        Boolean reparse = (Boolean) properties.get(Property.REFORMAT);
+        reparse = reparse == null ? Boolean.FALSE : Boolean.TRUE;
+        ParserListener l = (ParserListener) properties.get(Property.PARSER_LISTENER);
+        //the parser listener changes the document before it's reparsed,
+        //otherwise it's reformatted while parsing
+        boolean reparseAfter = reparse && l != null;
+        //the reparsed document is compact, this one is temporary
+        DefaultStyledDocument doc = reparseAfter ? new ParserDocument() : new ParserDocument(new CompactContent());
         doc.putProperty("filename", filename);
         HTMLCallBack call = new HTMLCallBack(doc, hyperLinkColor);
+        if (reparse && !reparseAfter) {
+            call.setReformat(reParser);
+        }
         parser.setContentHandler(call);
         DefaultStyledDocument docOut = call.getDocument();
+        //the parser listener can change the whole document at the end
+        ProgressiveListener progressive = l == null ? (ProgressiveListener) properties.get(Property.PROGRESSIVE_LISTENER) : null;
+        if (progressive != null) {
+            call.setProgressiveListener(progressive);
+        }
+        LoadPhase parse = LoadPhase.start("parse", properties);
         try {
-            ParserListener l = (ParserListener) properties.get(Property.PARSER_LISTENER);
             if (l != null) {
                 l.startDocument(docOut);
                 parser.parse(new InputSource(reader));
+                parse.end();
+                if (l instanceof StatisticsListener) {
+                    ((StatisticsListener) l).statistics(docOut, call.getStatistics());
+                }
                 l.endDocument(docOut);
             } else {
                 parser.parse(new InputSource(reader));
+                parse.end();
             }
         } catch (SAXException se) {
             throw new IOException(se);
         }
-        Boolean reparse = (Boolean) properties.get(Property.REFORMAT);
-        reparse = reparse == null ? Boolean.FALSE : Boolean.TRUE;
-        return (reparse) ? reParser.reParse(docOut) : docOut;
+        if (reparse && !reparseAfter) {
+            //only needed while parsing, the reparsed documents don't have it
+            docOut.putProperty("filename", null);
+        }
+        if (!reparseAfter) {
+            return docOut;
+        }
+        LoadPhase reparsing = LoadPhase.start("reparse", properties);
+        StyledDocument reparsed = reParser.reParse(docOut);
+        reparsing.end();
+        return reparsed;
 //        System.out.println(System.currentTimeMillis() - time);
     }
 }
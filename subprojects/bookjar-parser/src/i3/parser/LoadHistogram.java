@@ -0,0 +1,106 @@
+package i3.parser;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of the time to open books, by loader and book size. The times are
+ * in buckets of powers of two milliseconds, so percentiles are the upper
+ * bound of their bucket.
+ *
+ * @author i30817
+ */
+public final class LoadHistogram {
+
+    /**
+     * Under 1ms, under 2ms, ... and 16s or more
+     */
+    private static final int LATENCY_BUCKETS = 16;
+    private static final long[] SIZE_LIMITS = {64L << 10, 256L << 10, 1L << 20, 4L << 20, 16L << 20, 64L << 20};
+    private static final String[] SIZE_NAMES = {"<64KB", "<256KB", "<1MB", "<4MB", "<16MB", "<64MB", ">=64MB", "unknown size"};
+    //by loader and size bucket, in order
+    private final Map<String, long[]> rows = new TreeMap<>();
+
+    /**
+     * @param loader the type of the book, like the simple name of the loader
+     * @param bytes size of the book or -1 if unknown
+     */
+    public synchronized void record(String loader, long bytes, long nanos) {
+        String key = key(loader, bytes);
+        long[] row = rows.get(key);
+        if (row == null) {
+            row = new long[LATENCY_BUCKETS];
+            rows.put(key, row);
+        }
+        long millis = nanos / 1000000;
+        int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+        row[Math.min(bucket, LATENCY_BUCKETS - 1)]++;
+    }
+
+    private static String key(String loader, long bytes) {
+        int size = 0;
+        while (size < SIZE_LIMITS.length && bytes >= SIZE_LIMITS[size]) {
+            size++;
+        }
+        if (bytes < 0) {
+            size = SIZE_NAMES.length - 1;
+        }
+        //the size index sorts the rows of a loader
+        return loader + '\u0000' + size;
+    }
+
+    /**
+     * @return the upper bound in milliseconds of the percentile of the
+     * times of the loader and size of book, Long.MAX_VALUE if the percentile
+     * is in the last bucket or -1 if there are no times
+     */
+    public synchronized long percentileMillis(String loader, long bytes, double percentile) {
+        long[] row = rows.get(key(loader, bytes));
+        return row == null ? -1 : percentileMillis(row, percentile);
+    }
+
+    private static long percentileMillis(long[] row, double percentile) {
+        long count = 0;
+        for (long c : row) {
+            count += c;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < row.length; i++) {
+            seen += row[i];
+            if (seen >= rank && seen > 0) {
+                return i == row.length - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return -1;
+    }
+
+    private static String millis(long upperBound) {
+        if (upperBound == Long.MAX_VALUE) {
+            return ">=" + (1L << (LATENCY_BUCKETS - 2)) + "ms";
+        }
+        return "<" + upperBound + "ms";
+    }
+
+    /**
+     * A line by loader and size with the count and percentiles of the times
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Map.Entry<String, long[]> e : rows.entrySet()) {
+            String key = e.getKey();
+            int separator = key.indexOf('\u0000');
+            long[] row = e.getValue();
+            long count = 0;
+            for (long c : row) {
+                count += c;
+            }
+            b.append(key, 0, separator).append(' ').append(SIZE_NAMES[Integer.parseInt(key.substring(separator + 1))])
+                    .append(": ").append(count).append(" opens, p50 ").append(millis(percentileMillis(row, 0.5)))
+                    .append(", p90 ").append(millis(percentileMillis(row, 0.9)))
+                    .append(", max ").append(millis(percentileMillis(row, 1))).append('\n');
+        }
+        return b.toString();
+    }
+}
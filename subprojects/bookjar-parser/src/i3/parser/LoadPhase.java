@@ -0,0 +1,79 @@
+package i3.parser;
+
+import java.util.Map;
+
+/**
+ * A timed part of opening a book, like the charset detection or the parsing.
+ * When it ends it's recorded as a i3.parser.LoadPhase flight recorder event,
+ * if the jvm has the flight recorder, and given to a PARSER_LISTENER that is
+ * a PhaseListener. Loaders of other libraries report their own phases the
+ * same way:
+ *
+ * <pre>
+ * LoadPhase parse = LoadPhase.start("parse", properties);
+ * ...
+ * parse.end();
+ * </pre>
+ *
+ * @author i30817
+ */
+public final class LoadPhase {
+
+    private static final boolean FLIGHT_RECORDER = hasFlightRecorder();
+    private final String name;
+    private final Map<Property, Object> properties;
+    private final long start = System.nanoTime();
+    private final Object event;
+    private String book;
+    private long bytes = -1;
+
+    private LoadPhase(String name, Map<Property, Object> properties) {
+        this.name = name;
+        this.properties = properties;
+        event = FLIGHT_RECORDER ? LoadPhaseEvent.begin(name) : null;
+    }
+
+    private static boolean hasFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @param properties of the book, can be null
+     */
+    public static LoadPhase start(String name, Map<Property, Object> properties) {
+        return new LoadPhase(name, properties);
+    }
+
+    /**
+     * The book of the phase, to identify it in the recording
+     *
+     * @param bytes size of the book or -1 if unknown
+     */
+    public LoadPhase book(String book, long bytes) {
+        this.book = book;
+        this.bytes = bytes;
+        return this;
+    }
+
+    /**
+     * Call once
+     *
+     * @return the nanoseconds since the start
+     */
+    public long end() {
+        long nanos = System.nanoTime() - start;
+        if (event != null) {
+            LoadPhaseEvent.commit(event, book, bytes);
+        }
+        Object listener = properties == null ? null : properties.get(Property.PARSER_LISTENER);
+        if (listener instanceof PhaseListener) {
+            ((PhaseListener) listener).phase(name, nanos);
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,49 @@
+package i3.parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder event of a LoadPhase. Only loaded if the jvm has the
+ * jdk.jfr classes (java 8u262 and later), so the LoadPhase passes it as a
+ * Object.
+ *
+ * @author i30817
+ */
+@Name("i3.parser.LoadPhase")
+@Label("Book Load Phase")
+@Description("A phase of opening a book, inside the open phase of the same thread")
+@Category({"Bookjar", "Loading"})
+@StackTrace(false)
+final class LoadPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+    @Label("Book")
+    String book;
+    @Label("Book Size")
+    @DataAmount
+    long bytes;
+
+    static Object begin(String phase) {
+        LoadPhaseEvent event = new LoadPhaseEvent();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object e, String book, long bytes) {
+        LoadPhaseEvent event = (LoadPhaseEvent) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.book = book;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+}
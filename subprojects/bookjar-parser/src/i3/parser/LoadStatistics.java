@@ -0,0 +1,64 @@
+package i3.parser;
+
+/**
+ * How the parsed text of a book was inserted in its document. Given to a
+ * PARSER_LISTENER that is a StatisticsListener by the loaders that buffer the
+ * text (html and rtf).
+ *
+ * @author i30817
+ */
+public final class LoadStatistics {
+
+    private int flushes;
+    private long chars;
+    private int maxFlushChars;
+    private long insertNanos;
+
+    void flushed(int chars, long nanos) {
+        flushes++;
+        this.chars += chars;
+        maxFlushChars = Math.max(maxFlushChars, chars);
+        insertNanos += nanos;
+    }
+
+    /**
+     * @return times the buffered text was inserted in the document
+     */
+    public int getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return chars inserted
+     */
+    public long getChars() {
+        return chars;
+    }
+
+    /**
+     * @return average chars inserted at a time
+     */
+    public long getCharsPerFlush() {
+        return flushes == 0 ? 0 : chars / flushes;
+    }
+
+    /**
+     * @return most chars inserted at a time
+     */
+    public int getMaxFlushChars() {
+        return maxFlushChars;
+    }
+
+    /**
+     * @return time inserting in the document, in nanoseconds
+     */
+    public long getInsertNanos() {
+        return insertNanos;
+    }
+
+    @Override
+    public String toString() {
+        return flushes + " flushes of " + getCharsPerFlush() + " chars (max " + maxFlushChars + "), "
+                + insertNanos / 1000000 + "ms inserting " + chars + " chars";
+    }
+}
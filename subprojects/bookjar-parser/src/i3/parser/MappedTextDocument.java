@@ -0,0 +1,580 @@
+package i3.parser;
+
+import i3.io.CharsetDetectingReader;
+import java.awt.Color;
+import java.awt.Font;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.Style;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledDocument;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * A read only document of a memory mapped text file, for books too large to
+ * parse into a ParserDocument.
+ *
+ * A single scan of the bytes indexes where each line starts, and the text is
+ * decoded a window of lines at a time when it is read, so the heap only
+ * holds the index and the window. A partial segment only gets the window. Like with DefaultEditorKit there is a
+ * paragraph per line and \r\n and \r are read as \n. The elements are created
+ * when asked for and all the text has the same attributes, so changing the
+ * attributes of any part changes all of them.
+ *
+ * Only the charsets where the chars can be counted from the bytes can be
+ * mapped, the single byte ones and UTF-8, see open().
+ *
+ * @author i30817
+ */
+final class MappedTextDocument extends AbstractDocument implements StyledDocument {
+
+    /**
+     * Chars decoded at a time
+     */
+    private static final int WINDOW_CHARS = 65536;
+    private final MutableAttributeSet paragraphAttributes = new SimpleAttributeSet();
+    private final MutableAttributeSet characterAttributes = new SimpleAttributeSet();
+    private final Element root = new Root();
+    private final Text text;
+
+    private MappedTextDocument(Text text) {
+        super(text, ParserDocument.STYLES);
+        this.text = text;
+        paragraphAttributes.setResolveParent(getStyle(StyleContext.DEFAULT_STYLE));
+    }
+
+    /**
+     * @return the mapped document of the file, or null if the charset of the
+     * file can't be mapped or it's over 2GB
+     */
+    static MappedTextDocument open(Path file) throws IOException {
+        MappedByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() >= Integer.MAX_VALUE) {
+                return null;
+            }
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] probe = new byte[Math.min(bytes.capacity(), 15000)];
+        bytes.duplicate().get(probe);
+        String name = new CharsetDetectingReader(new ByteArrayInputStream(probe), probe.length, Charset.defaultCharset().name(), false).getCharset();
+        Charset charset = Charset.forName(name);
+        boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+        if (!utf8 && !isSingleByte(charset)) {
+            return null;
+        }
+        return new MappedTextDocument(new Text(bytes, charset, utf8));
+    }
+
+    private static boolean isSingleByte(Charset charset) {
+        //and with the ascii line ends
+        return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1
+                && Arrays.equals("\r\n".getBytes(charset), new byte[]{'\r', '\n'});
+    }
+
+    /**
+     * The mapped text, with the char and byte offsets of the lines
+     */
+    private static final class Text implements AbstractDocument.Content {
+
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        //line i starts at char charStarts[i] and byte byteStarts[i]
+        private int[] charStarts = new int[1024];
+        private int[] byteStarts;
+        private int lines;
+        //chars of the file, the content has one more, the implied \n
+        private int chars;
+        private char[] window = new char[0];
+        private int windowStart;
+
+        Text(ByteBuffer bytes, Charset charset, boolean utf8) {
+            this.bytes = bytes;
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            byteStarts = new int[charStarts.length];
+            index(utf8);
+        }
+
+        /**
+         * Finds the line starts and counts the chars in a pass over the bytes,
+         * copied to an array in blocks so the loop is over a plain array
+         */
+        private void index(boolean utf8) {
+            byte[] block = new byte[65536];
+            ByteBuffer in = bytes.duplicate();
+            boolean afterCr = false;
+            int count = 0;
+            addLine(0, 0);
+            for (int position = 0; in.hasRemaining(); position += block.length) {
+                int length = Math.min(block.length, in.remaining());
+                in.get(block, 0, length);
+                for (int i = 0; i < length; i++) {
+                    byte b = block[i];
+                    if (b == '\n') {
+                        if (afterCr) {
+                            //the \r already ended the line
+                            byteStarts[lines - 1] = position + i + 1;
+                        } else {
+                            addLine(++count, position + i + 1);
+                        }
+                        afterCr = false;
+                    } else if (b == '\r') {
+                        addLine(++count, position + i + 1);
+                        afterCr = true;
+                    } else {
+                        afterCr = false;
+                        //utf-8 continuation bytes are not chars, 4 byte chars are 2
+                        if (!utf8 || (b & 0xC0) != 0x80) {
+                            count++;
+                        }
+                        if (utf8 && (b & 0xF8) == 0xF0) {
+                            count++;
+                        }
+                    }
+                }
+            }
+            chars = count;
+            charStarts = Arrays.copyOf(charStarts, lines);
+            byteStarts = Arrays.copyOf(byteStarts, lines);
+        }
+
+        private void addLine(int charStart, int byteStart) {
+            if (lines == charStarts.length) {
+                charStarts = Arrays.copyOf(charStarts, lines * 2);
+                byteStarts = Arrays.copyOf(byteStarts, lines * 2);
+            }
+            charStarts[lines] = charStart;
+            byteStarts[lines] = byteStart;
+            lines++;
+        }
+
+        int lines() {
+            return lines;
+        }
+
+        int lineStart(int line) {
+            return charStarts[line];
+        }
+
+        int lineEnd(int line) {
+            return line + 1 < lines ? charStarts[line + 1] : length();
+        }
+
+        int lineOf(int offset) {
+            int line = Arrays.binarySearch(charStarts, offset);
+            //the line that starts before
+            return line >= 0 ? line : -line - 2;
+        }
+
+        @Override
+        public int length() {
+            return chars + 1;
+        }
+
+        @Override
+        public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length()) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+            int end = where + len;
+            if (txt.isPartialReturn()) {
+                //only the window with the start, the caller asks for the rest
+                if (where < windowStart || where >= windowStart + window.length) {
+                    decode(lineOf(where), lineOf(where));
+                }
+                end = Math.min(end, windowStart + window.length);
+            } else if (where < windowStart || end > windowStart + window.length) {
+                decode(lineOf(where), lineOf(Math.max(where, end - 1)));
+            }
+            txt.array = window;
+            txt.offset = where - windowStart;
+            txt.count = end - where;
+        }
+
+        /**
+         * Decodes the lines from first to last, and the ones after until the
+         * window is full, to a new array since the segments given before keep
+         * the old one
+         */
+        private void decode(int first, int last) {
+            while (last + 1 < lines && lineEnd(last + 1) - lineStart(first) <= WINDOW_CHARS) {
+                last++;
+            }
+            windowStart = lineStart(first);
+            window = new char[lineEnd(last) - windowStart];
+            for (int line = first; line <= last; line++) {
+                decodeLine(line, lineStart(line) - windowStart, lineEnd(line) - lineStart(line));
+            }
+        }
+
+        private void decodeLine(int line, int offset, int length) {
+            int start = byteStarts[line];
+            int end = line + 1 < lines ? byteStarts[line + 1] : bytes.capacity();
+            //without the line end
+            if (end > start && bytes.get(end - 1) == '\n') {
+                end--;
+            }
+            if (end > start && bytes.get(end - 1) == '\r') {
+                end--;
+            }
+            ByteBuffer in = bytes.duplicate();
+            in.limit(end).position(start);
+            CharBuffer out = CharBuffer.wrap(window, offset, length - 1);
+            decoder.reset();
+            decoder.decode(in, out, true);
+            decoder.flush(out);
+            //malformed input can decode to other lengths than counted
+            Arrays.fill(window, out.position(), offset + length - 1, '�');
+            window[offset + length - 1] = '\n';
+        }
+
+        @Override
+        public String getString(int where, int len) throws BadLocationException {
+            Segment s = new Segment();
+            getChars(where, len, s);
+            return new String(s.array, s.offset, s.count);
+        }
+
+        @Override
+        public Position createPosition(final int offset) throws BadLocationException {
+            //the text never changes
+            return new Position() {
+                @Override
+                public int getOffset() {
+                    return offset;
+                }
+            };
+        }
+
+        @Override
+        public UndoableEdit insertString(int where, String str) throws BadLocationException {
+            throw new UnsupportedOperationException("Mapped text is read only");
+        }
+
+        @Override
+        public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            throw new UnsupportedOperationException("Mapped text is read only");
+        }
+    }
+
+    private final class Root implements Element {
+
+        @Override
+        public javax.swing.text.Document getDocument() {
+            return MappedTextDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return SectionElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return text.length();
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return text.lineOf(Math.max(0, Math.min(offset, text.length() - 1)));
+        }
+
+        @Override
+        public int getElementCount() {
+            return text.lines();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return index < 0 || index >= text.lines() ? null : new Paragraph(index);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    private final class Paragraph implements Element {
+
+        private final int line;
+
+        Paragraph(int line) {
+            this.line = line;
+        }
+
+        @Override
+        public javax.swing.text.Document getDocument() {
+            return MappedTextDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return paragraphAttributes;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return text.lineStart(line);
+        }
+
+        @Override
+        public int getEndOffset() {
+            return text.lineEnd(line);
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return 0;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 1;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return index == 0 ? new Leaf(this) : null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Paragraph && ((Paragraph) obj).line == line;
+        }
+
+        @Override
+        public int hashCode() {
+            return line;
+        }
+    }
+
+    private final class Leaf implements Element {
+
+        private final Paragraph paragraph;
+
+        Leaf(Paragraph paragraph) {
+            this.paragraph = paragraph;
+        }
+
+        @Override
+        public javax.swing.text.Document getDocument() {
+            return MappedTextDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return paragraph;
+        }
+
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return characterAttributes;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return paragraph.getStartOffset();
+        }
+
+        @Override
+        public int getEndOffset() {
+            return paragraph.getEndOffset();
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Leaf && ((Leaf) obj).paragraph.equals(paragraph);
+        }
+
+        @Override
+        public int hashCode() {
+            return paragraph.hashCode();
+        }
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    @Override
+    public Element getCharacterElement(int pos) {
+        return getParagraphElement(pos).getElement(0);
+    }
+
+    @Override
+    public void insertString(int offs, String str, AttributeSet a) throws BadLocationException {
+        throw new UnsupportedOperationException("Mapped text is read only");
+    }
+
+    @Override
+    public void remove(int offs, int len) throws BadLocationException {
+        throw new UnsupportedOperationException("Mapped text is read only");
+    }
+
+    @Override
+    public void setCharacterAttributes(int offset, int length, AttributeSet s, boolean replace) {
+        change(characterAttributes, length, s, replace);
+    }
+
+    @Override
+    public void setParagraphAttributes(int offset, int length, AttributeSet s, boolean replace) {
+        change(paragraphAttributes, length, s, replace);
+    }
+
+    /**
+     * Changes the attributes of all the text, if they are different
+     */
+    private void change(MutableAttributeSet attributes, int length, AttributeSet s, boolean replace) {
+        if (length <= 0) {
+            return;
+        }
+        writeLock();
+        try {
+            if (replace ? attributes.isEqual(s) : attributes.containsAttributes(s)) {
+                return;
+            }
+            if (replace) {
+                attributes.removeAttributes(attributes);
+            }
+            attributes.addAttributes(s);
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(0, getLength(), DocumentEvent.EventType.CHANGE);
+            changes.end();
+            fireChangedUpdate(changes);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    @Override
+    public void setLogicalStyle(int pos, Style s) {
+        setParagraphAttributes(pos, 1, attributesResolvingTo(s), false);
+    }
+
+    private static AttributeSet attributesResolvingTo(Style s) {
+        SimpleAttributeSet set = new SimpleAttributeSet();
+        set.setResolveParent(s);
+        return set;
+    }
+
+    @Override
+    public Style getLogicalStyle(int p) {
+        AttributeSet parent = paragraphAttributes.getResolveParent();
+        return parent instanceof Style ? (Style) parent : null;
+    }
+
+    private StyleContext styles() {
+        return (StyleContext) getAttributeContext();
+    }
+
+    @Override
+    public Style addStyle(String nm, Style parent) {
+        return styles().addStyle(nm, parent);
+    }
+
+    @Override
+    public void removeStyle(String nm) {
+        styles().removeStyle(nm);
+    }
+
+    @Override
+    public Style getStyle(String nm) {
+        return styles().getStyle(nm);
+    }
+
+    @Override
+    public Color getForeground(AttributeSet attr) {
+        return styles().getForeground(attr);
+    }
+
+    @Override
+    public Color getBackground(AttributeSet attr) {
+        return styles().getBackground(attr);
+    }
+
+    @Override
+    public Font getFont(AttributeSet attr) {
+        return styles().getFont(attr);
+    }
+}
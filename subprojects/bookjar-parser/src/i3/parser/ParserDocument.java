@@ -1,7 +1,6 @@
 package i3.parser;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.text.AttributeSet;
@@ -9,23 +8,75 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.GapContent;
 import javax.swing.text.StyleContext;
+import javax.swing.text.html.HTML;
 
 /**
  * A document implementation that doesn't duplicate memory in buffered insertion
+ *
+ * Documents that are only appended to while parsing can use a CompactContent,
+ * see trimToSize().
+ *
+ * All the instances share a StyleContext, so the attributes of the text are
+ * the same few immutable sets in all the books of the session, see intern().
  * @author Owner
  */
 public final class ParserDocument extends DefaultStyledDocument {
 
-    private final Method replace;
-    private final Object[] bulkArgs = new Object[4];
+    static final StyleContext STYLES = new SanerStyleContext();
+
+    /**
+     * Content that takes the chars of a ElementSpec without a String copy
+     */
+    interface BulkContent {
+
+        void insert(int where, char[] chars, int offset, int len) throws BadLocationException;
+    }
+
+    /**
+     * The subclass can use the gap vector replace that GapContent only uses
+     * for Strings
+     */
+    private static final class BulkGapContent extends GapContent implements BulkContent {
+
+        BulkGapContent(int initialLength) {
+            super(initialLength);
+        }
+
+        @Override
+        public void insert(int where, char[] chars, int offset, int len) throws BadLocationException {
+            if (where > length() || where < 0) {
+                throw new BadLocationException("Invalid insert", length());
+            }
+            //replace copies from the start of the array
+            char[] items = offset == 0 ? chars : Arrays.copyOfRange(chars, offset, offset + len);
+            replace(where, 0, items, len);
+        }
+    }
 
     public ParserDocument() {
-        super(new SanerStyleContext());
+        this(new BulkGapContent(BUFFER_SIZE_DEFAULT));
+    }
+
+    ParserDocument(Content content) {
+        super(content, STYLES);
+    }
+
+    /**
+     * @return the immutable set with the same attributes shared by all the
+     * documents, HTML.Attribute.NAME values must also be the same instance
+     */
+    static AttributeSet intern(AttributeSet attributes) {
+        return STYLES.addAttributes(STYLES.getEmptySet(), attributes);
+    }
+
+    /**
+     * Appends the specs in a single change, as
+     * insert(getLength(), data)
+     */
+    void append(ElementSpec[] data) {
         try {
-            Class[] args = new Class[]{Integer.TYPE, Integer.TYPE, Object.class, Integer.TYPE};
-            replace = GapContent.class.getSuperclass().getDeclaredMethod("replace", args);
-            replace.setAccessible(true);
-        } catch (NoSuchMethodException | SecurityException ex) {
+            insert(getLength(), data);
+        } catch (BadLocationException ex) {
             throw new AssertionError(ex);
         }
     }
@@ -42,24 +93,20 @@ public final class ParserDocument extends DefaultStyledDocument {
         writeLock();
         try {
             Content content = getContent();
-            //since instead of doing normal string insert we are going to use the gapvector directly, we don't do this
+            //since instead of doing normal string insert we are going to use the content directly, we don't do this
             //UndoableEdit cEdit = content.insertString(offset, sb.toString());
 
             int charArraysSize = 0;
             int index = offset;
             for (ElementSpec e : data) {
                 if (e.getLength() > 0) {
+                    if (content instanceof BulkContent) {
+                        ((BulkContent) content).insert(index, e.getArray(), e.getOffset(), e.getLength());
+                    } else {
+                        content.insertString(index, new String(e.getArray(), e.getOffset(), e.getLength()));
+                    }
                     charArraysSize += e.getLength();
-                    bulkArgs[0] = index;
-                    bulkArgs[1] = e.getOffset();
-                    bulkArgs[2] = e.getArray();
-                    bulkArgs[3] = e.getLength();
                     index += e.getLength();
-                    try {
-                        replace.invoke(content, bulkArgs);
-                    } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                        throw new AssertionError(ex);
-                    }
                 }
             }
             if (charArraysSize == 0) {
@@ -83,6 +130,22 @@ public final class ParserDocument extends DefaultStyledDocument {
         }
     }
 
+    /**
+     * Releases the unused capacity of a CompactContent, call it when the
+     * parsing ends
+     */
+    public void trimToSize() {
+        writeLock();
+        try {
+            Content content = getContent();
+            if (content instanceof CompactContent) {
+                ((CompactContent) content).trim();
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
     // Use a shared styleContext for all the documents in all instances
     private static final class SanerStyleContext extends StyleContext {
 
@@ -92,37 +155,57 @@ public final class ParserDocument extends DefaultStyledDocument {
             return 100;
         }
 
+        @Override
+        public AttributeSet addAttributes(AttributeSet old, AttributeSet attr) {
+            //the elements are made with sets of the pool, that are already unique
+            if (old.getAttributeCount() == 0 && attr instanceof PooledSet) {
+                return attr;
+            }
+            return super.addAttributes(old, attr);
+        }
+
         @Override
         protected SmallAttributeSet createSmallAttributeSet(AttributeSet attributeSet) {
             //Redefinied for speed.
-            return new SmallAttributeSet(attributeSet) {
+            return new PooledSet(attributeSet);
+        }
 
-                @Override
-                @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
-                public final boolean equals(Object obj) {
-                    return isEqual((AttributeSet) obj);
-                }
+        /**
+         * The sets in the pool, already interned
+         */
+        private final class PooledSet extends SmallAttributeSet {
 
-                @Override
-                public boolean isEqual(AttributeSet attr) {
-                    if (attr == this) {
-                        return true;
-                    } else if (attr == null) {
-                        return false;
-                    } else {
-                        int c = getAttributeCount();
-                        return c == attr.getAttributeCount() && (c == 0 || containsAttributes(attr));
-                    }
+            PooledSet(AttributeSet attributeSet) {
+                super(attributeSet);
+            }
+
+            @Override
+            @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+            public final boolean equals(Object obj) {
+                //the pool key, the name lists change after parsing so they can't be shared between documents
+                AttributeSet attr = (AttributeSet) obj;
+                return isEqual(attr) && getAttribute(HTML.Attribute.NAME) == attr.getAttribute(HTML.Attribute.NAME);
+            }
+
+            @Override
+            public boolean isEqual(AttributeSet attr) {
+                if (attr == this) {
+                    return true;
+                } else if (attr == null) {
+                    return false;
+                } else {
+                    int c = getAttributeCount();
+                    return c == attr.getAttributeCount() && (c == 0 || containsAttributes(attr));
                 }
+            }
 
-                @Override
-                public boolean containsAttributes(AttributeSet attrs) {
-                    if (attrs.getAttributeCount() > getAttributeCount()) {
-                        return false;
-                    }
-                    return super.containsAttributes(attrs);
+            @Override
+            public boolean containsAttributes(AttributeSet attrs) {
+                if (attrs.getAttributeCount() > getAttributeCount()) {
+                    return false;
                 }
-            };
+                return super.containsAttributes(attrs);
+            }
         }
     }
 }
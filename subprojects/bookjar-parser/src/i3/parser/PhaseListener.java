@@ -0,0 +1,15 @@
+package i3.parser;
+
+/**
+ * A PARSER_LISTENER that is also told the time of each LoadPhase of the book,
+ * including the phases that other loaders report
+ *
+ * @author i30817
+ */
+public interface PhaseListener extends ParserListener {
+
+    /**
+     * Called in the thread of the phase when it ends
+     */
+    void phase(String name, long nanos);
+}
@@ -0,0 +1,32 @@
+package i3.parser;
+
+import javax.swing.text.StyledDocument;
+
+/**
+ * Shows a document before it's completely parsed. Loaders that can't parse
+ * progressively ignore it.
+ *
+ * @author i30817
+ */
+public interface ProgressiveListener {
+
+    /**
+     * @return length the document must have before it's shown, for instance
+     * the bookmark plus a screen of text
+     */
+    int firstPageLength();
+
+    /**
+     * Called at most once, from the parsing thread, when the document reached
+     * firstPageLength(). The loader returns the same document when it ends; if
+     * the book is shorter this is never called.
+     */
+    void firstPage(StyledDocument doc);
+
+    /**
+     * After firstPage the parser only changes the document through this, so
+     * it can run in the thread that reads it (normally the EDT). Must wait for
+     * the change to finish.
+     */
+    void change(StyledDocument doc, Runnable change);
+}
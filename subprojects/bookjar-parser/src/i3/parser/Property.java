@@ -35,9 +35,18 @@ public enum Property {
      */
     EXTRACTED_FILENAME,
     /**
-     * Listener called before and after the parsing
+     * Listener called before and after the parsing, if it's a
+     * StatisticsListener also told how the document was built
      *
      * @return parsers.ParserListener or null.
      */
-    PARSER_LISTENER;
+    PARSER_LISTENER,
+    /**
+     * Listener that is given the document as soon as its first page is
+     * parsed, ignored if there is a PARSER_LISTENER since that may change the
+     * whole document after parsing
+     *
+     * @return parsers.ProgressiveListener or null.
+     */
+    PROGRESSIVE_LISTENER;
 }
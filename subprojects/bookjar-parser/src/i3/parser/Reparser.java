@@ -1,9 +1,15 @@
 package i3.parser;
 
 import java.awt.Color;
-import java.util.AbstractSequentialList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
@@ -15,7 +21,10 @@ import javax.swing.text.StyledDocument;
 import javax.swing.text.html.HTML.Attribute;
 
 /**
- * This class is thread-safe (stateless).
+ * This class is thread-safe (stateless), but a document must only be reparsed
+ * by one thread and not read or changed by others while it is: the parallel
+ * ranges of a reparse mark the unwanted chars in place in the text of the
+ * source document.
  *
  * A class specially made to structurally standardize all kinds of documents
  * that descend from the StyledDocument class in java. It's a destructive
@@ -54,6 +63,11 @@ import javax.swing.text.html.HTML.Attribute;
  */
 public final class Reparser {
 
+    /**
+     * Paragraphs reparsed in each parallel task
+     */
+    private static final int RANGE_PARAGRAPHS = Integer.getInteger("bookjar.reparser.range", 4096);
+
     /**
      * Reparses the given document to uniformize the wordspacing,
      * firstlineindent and paragraph spacing. These are set on other methods
@@ -66,52 +80,294 @@ public final class Reparser {
      * doc.getProperty(attributeSet.getAttribute(HTML.Attribute.HREF))
      */
     public StyledDocument reParse(StyledDocument doc) {
-        DefaultStyledDocument cache = new ParserDocument();
-        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(cache);
-        try {
-            nonRecursiveReparse(doc, builder);
-        } catch (BadLocationException ex) {
-            throw new AssertionError(ex);
-        }
-        builder.commit();
-        return cache;
+        //a single range if it can't run in parallel
+        return reParse(doc, Runtime.getRuntime().availableProcessors() > 1 ? RANGE_PARAGRAPHS : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reparses ranges of paragraphs in parallel, the result is the same for
+     * any range size
+     */
+    StyledDocument reParse(StyledDocument doc, int rangeParagraphs) {
+        BufferedStyledDocumentBuilder newDoc = new BufferedStyledDocumentBuilder(new ParserDocument(new CompactContent()));
+        int paragraphs = doc.getDefaultRootElement().getElementCount();
+        List<Range> ranges = new ArrayList<>();
+        for (int start = 0; start < paragraphs; start += rangeParagraphs) {
+            ranges.add(new Range(doc, start, Math.min(paragraphs, start + rangeParagraphs), newDoc.getDocument()));
+        }
+        ForkJoinTask.invokeAll(ranges);
+        //the ranges only know their text, fix the seams in order and insert
+        //all at once (the joins can't remove from the document)
+        BufferedStyledDocumentBuilder joined = BufferedStyledDocumentBuilder.batch(newDoc.getDocument());
+        List<Object> listOfLinks = new LinkedList<>();
+        for (Range range : ranges) {
+            if (range.batch.getLength() != 0) {
+                if (range.lowerCaseStart && joined.getLength() != 0) {
+                    joined.removeLast();
+                    joined.appendSpace(SimpleAttributeSet.EMPTY);
+                }
+                for (Object s : listOfLinks) {
+                    joined.name(s);
+                }
+                listOfLinks.clear();
+            }
+            joined.append(range.batch);
+            listOfLinks.addAll(range.listOfLinks);
+        }
+        newDoc.append(joined);
+        newDoc.commit();
+        return newDoc.getDocument();
     }
 
-    //The process this method uses is destructive to the original document.
-    //the idea is to use the document segment (that can or can not be
-    //the original document array) as a scratch pad for the normalized
-    //document - this is done by replacing the chars you want to erase in the document
-    //by a marker char at the paragraph level.
-    //(the one i used appears in rtf document for breakpoints, so it should be removed anyway)
-    //\n is handled specially by joining them if the current paragraph starts with lower case
-    //P1 [Yes][.][ ][ ][\n]
-    //P2 [It][ ][was][\n]
-    //P3 [\n]
-    //P4 [a][ ][ ][thing]->
-    //P1 [Yes][.][umappable][unmappable][\n]
-    //P2 [It][ ][was][ ][a][umappable][ ][thing]
-    //each paragraph after processing is added to the new document with a builder that ignores
-    //the unmappable char. The deleted \n are deleted on this new document with the builder
-    private void nonRecursiveReparse(final StyledDocument oldDoc, final BufferedStyledDocumentBuilder newDoc) throws BadLocationException {
-        SkipStringBuilder builder = new SkipStringBuilder(250);
-        char unmapable = builder.getUnmapableChar();
-        AbstractSequentialList listOfLinks = new LinkedList();
-        //don't use partial returns, since there is not much point (only 1 gap)
-        Segment paragraphText = new Segment();
-        final Element root = oldDoc.getDefaultRootElement();
-        final int numberOfParagraphs = root.getElementCount();
+    /**
+     * Reparses a range of paragraphs as if it was the start of the document,
+     * remembering the names without text after them and if the text starts
+     * with lowercase, to join the ranges later
+     */
+    private final class Range extends RecursiveAction {
+
+        private final StyledDocument oldDoc;
+        private final int start, end;
+        final BufferedStyledDocumentBuilder batch;
+        final List<Object> listOfLinks = new LinkedList<>();
+        boolean lowerCaseStart;
 
+        Range(StyledDocument oldDoc, int start, int end, DefaultStyledDocument newDoc) {
+            this.oldDoc = oldDoc;
+            this.start = start;
+            this.end = end;
+            batch = BufferedStyledDocumentBuilder.batch(newDoc);
+        }
+
+        //The process this method uses is destructive to the original document.
+        //the idea is to use the document segment (that can or can not be
+        //the original document array) as a scratch pad for the normalized
+        //document - this is done by replacing the chars you want to erase in the document
+        //by a marker char at the paragraph level.
+        //(the one i used appears in rtf document for breakpoints, so it should be removed anyway)
+        //\n is handled specially by joining them if the current paragraph starts with lower case
+        //P1 [Yes][.][ ][ ][\n]
+        //P2 [It][ ][was][\n]
+        //P3 [\n]
+        //P4 [a][ ][ ][thing]->
+        //P1 [Yes][.][umappable][unmappable][\n]
+        //P2 [It][ ][was][ ][a][umappable][ ][thing]
+        //each paragraph after processing is added to the new document with a builder that ignores
+        //the unmappable char. The deleted \n are deleted on this new document with the builder
         //for each paragraph construct the new doc from the older.
-        for (int i = 0; i < numberOfParagraphs; i++) {
-            Element paragraph = root.getElement(i);
-            int start = paragraph.getStartOffset();
-            int end = paragraph.getEndOffset();
-            assert ((end - start) >= 0);
-            oldDoc.getText(start, end - start, paragraphText);
-            markUnwantedCharacters(paragraphText, unmapable);
-            handleParagraphMerge(newDoc, paragraphText);
-            copyTextAndAtributes(paragraph, paragraphText, builder, newDoc, listOfLinks);
-        }//END PARAGRAPHS FOR
+        @Override
+        protected void compute() {
+            SkipStringBuilder builder = new SkipStringBuilder(250);
+            //don't use partial returns, since there is not much point (only 1 gap)
+            Segment paragraphText = new Segment();
+            try {
+                for (int i = start; i < end; i++) {
+                    Element paragraph = oldDoc.getDefaultRootElement().getElement(i);
+                    oldDoc.getText(paragraph.getStartOffset(), paragraph.getEndOffset() - paragraph.getStartOffset(), paragraphText);
+                    markUnwantedCharacters(paragraphText, builder.getUnmapableChar());
+                    if (batch.getLength() == 0) {
+                        //only the first paragraph with text can be joined to the previous range
+                        lowerCaseStart = startsWithLowerCase(paragraphText);
+                    }
+                    handleParagraphMerge(batch, paragraphText);
+                    copyTextAndAtributes(paragraph, paragraphText, builder, batch, listOfLinks);
+                }
+            } catch (BadLocationException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+    }
+
+    /**
+     * Standardizes the text as it's parsed, a paragraph at a time, without
+     * building the original document. The result is the same as the reParse
+     * of the document built by the same calls to a BufferedStyledDocumentBuilder
+     * where the names are set like HTMLCallBack does, except for the split of
+     * the text at the unlinked names.
+     */
+    final class Filter {
+
+        private final BufferedStyledDocumentBuilder newDoc;
+        private final SkipStringBuilder builder = new SkipStringBuilder(250);
+        private final List<Object> listOfLinks = new LinkedList<>();
+        private final Segment paragraphText = new Segment();
+        private final char[] par = {'\n'};
+        private final char[] space = {' '};
+        //the paragraph being parsed, the fragments are the appended arrays
+        private char[] text = new char[1024];
+        private int length;
+        private int[] fragmentEnds = new int[64];
+        private AttributeSet[] fragmentAttributes = new AttributeSet[64];
+        private int fragments;
+        //names of the next fragment, the ones of the named fragments of the
+        //paragraph in order, all the names and the inserted HTML.Attribute.NAME values
+        private List<String> names;
+        private final List<List<String>> paragraphNames = new ArrayList<>();
+        private final Set<String> allNames = new LinkedHashSet<>();
+        private final List<List<String>> nameLists = new ArrayList<>();
+        private final List<Integer> nameOffsets = new ArrayList<>();
+        private AttributeSet lastAttributes;
+
+        /**
+         * @param newDoc where the standardized text is appended
+         */
+        Filter(BufferedStyledDocumentBuilder newDoc) {
+            this.newDoc = newDoc;
+        }
+
+        void append(char[] chars, int offset, int len, AttributeSet currentAttributes) {
+            if (len == 0) {
+                return;
+            }
+            if (names != null) {
+                //like HTMLCallBack, the names are in the first char
+                SimpleAttributeSet named = new SimpleAttributeSet(currentAttributes);
+                named.addAttribute(Attribute.NAME, names);
+                paragraphNames.add(names);
+                names = null;
+                addFragment(chars, offset, 1, ParserDocument.intern(named));
+                offset++;
+                len--;
+            }
+            if (len > 0) {
+                if (lastAttributes == null || !lastAttributes.equals(currentAttributes)) {
+                    lastAttributes = ParserDocument.intern(currentAttributes);
+                }
+                addFragment(chars, offset, len, lastAttributes);
+            }
+        }
+
+        private void addFragment(char[] chars, int offset, int len, AttributeSet attributes) {
+            if (fragments == fragmentEnds.length) {
+                fragmentEnds = Arrays.copyOf(fragmentEnds, fragments * 2);
+                fragmentAttributes = Arrays.copyOf(fragmentAttributes, fragments * 2);
+            }
+            if (length + len > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, length + len));
+            }
+            System.arraycopy(chars, offset, text, length, len);
+            length += len;
+            fragmentEnds[fragments] = length;
+            fragmentAttributes[fragments] = attributes;
+            fragments++;
+        }
+
+        void appendSpace(AttributeSet currentAttributes) {
+            append(space, 0, 1, currentAttributes);
+        }
+
+        /**
+         * Ends the paragraph and standardizes it
+         */
+        void appendEnd(AttributeSet currentAttributes) {
+            append(par, 0, 1, currentAttributes);
+            paragraphText.array = text;
+            paragraphText.offset = 0;
+            paragraphText.count = length;
+            markUnwantedCharacters(paragraphText, builder.getUnmapableChar());
+            try {
+                handleParagraphMerge(newDoc, paragraphText);
+            } catch (BadLocationException ex) {
+                throw new AssertionError(ex);
+            }
+            boolean paragraphInserted = false;
+            int start = 0, named = 0;
+            for (int i = 0; i < fragments; i++) {
+                AttributeSet set = fragmentAttributes[i];
+                fragmentAttributes[i] = null;
+                List<String> fragmentNames = set.getAttribute(Attribute.NAME) == null ? null : paragraphNames.get(named++);
+                if (fragmentNames != null) {
+                    listOfLinks.addAll(fragmentNames);
+                }
+                int offset = newDoc.getLength();
+                if (copyFragment(text, start, fragmentEnds[i], set, builder, newDoc, listOfLinks)) {
+                    paragraphInserted = true;
+                    if (fragmentNames != null) {
+                        nameLists.add(fragmentNames);
+                        nameOffsets.add(offset);
+                    }
+                }
+                start = fragmentEnds[i];
+            }
+            if (paragraphInserted) {
+                newDoc.appendEnd(SimpleAttributeSet.EMPTY);
+            }
+            length = 0;
+            fragments = 0;
+            paragraphNames.clear();
+        }
+
+        /**
+         * Gives the name to the position of the next text
+         */
+        void name(String name) {
+            if (names == null) {
+                names = new LinkedList<>();
+            }
+            names.add(name);
+            allNames.add(name);
+        }
+
+        /**
+         * Discards the text, the names given until now are at the start of
+         * the next text
+         */
+        void clear() {
+            for (int i = 0; i < fragments; i++) {
+                fragmentAttributes[i] = null;
+            }
+            length = 0;
+            fragments = 0;
+            paragraphNames.clear();
+            listOfLinks.clear();
+            nameLists.clear();
+            nameOffsets.clear();
+            newDoc.clear();
+            names = null;
+            for (String name : allNames) {
+                newDoc.getDocument().putProperty(name, null);
+                name(name);
+            }
+        }
+
+        /**
+         * Standardizes the last paragraph, like the one ended by the implied
+         * newline of a document
+         */
+        void finish() {
+            appendEnd(SimpleAttributeSet.EMPTY);
+        }
+
+        /**
+         * Removes the names that are not in linked, call after the
+         * document is commited
+         */
+        void retainNames(Set<String> linked) {
+            for (String name : allNames) {
+                if (!linked.contains(name)) {
+                    newDoc.getDocument().putProperty(name, null);
+                }
+            }
+            final List<Integer> unnamed = new ArrayList<>();
+            for (int i = 0; i < nameLists.size(); i++) {
+                nameLists.get(i).retainAll(linked);
+                if (nameLists.get(i).isEmpty()) {
+                    unnamed.add(nameOffsets.get(i));
+                }
+            }
+            newDoc.change(new Runnable() {
+                @Override
+                public void run() {
+                    StyledDocument doc = newDoc.getDocument();
+                    for (int offset : unnamed) {
+                        Element e = doc.getCharacterElement(offset);
+                        SimpleAttributeSet set = new SimpleAttributeSet(e.getAttributes());
+                        set.removeAttribute(Attribute.NAME);
+                        doc.setCharacterAttributes(e.getStartOffset(), e.getEndOffset() - e.getStartOffset(), set, true);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -123,31 +379,34 @@ public final class Reparser {
      * @throws BadLocationException
      */
     private void handleParagraphMerge(BufferedStyledDocumentBuilder newDoc, Segment paragraphText) throws BadLocationException {
-        int len = paragraphText.offset + paragraphText.count;
         //Don't do it in the first paragraph
-        if (newDoc.getLength() != 0) {
-            for (int index = paragraphText.offset; index < len; index++) {
-                if (Character.isLetter(paragraphText.array[index])) {
-                    if (Character.isLowerCase(paragraphText.array[index])) {
-                        //Last char in the parsed text should be \n
-                        newDoc.removeLast();
-                        //there is no space at the end so we have to insert:
-                        //it was removed from copyTextAttributes after being
-                        //marked by markUnwantedCharacters
-                        newDoc.appendSpace(SimpleAttributeSet.EMPTY);
-                    }
-                    break;
-                }
+        if (newDoc.getLength() != 0 && startsWithLowerCase(paragraphText)) {
+            //Last char in the parsed text should be \n
+            newDoc.removeLast();
+            //there is no space at the end so we have to insert:
+            //it was removed from copyTextAttributes after being
+            //marked by markUnwantedCharacters
+            newDoc.appendSpace(SimpleAttributeSet.EMPTY);
+        }
+    }
+
+    /**
+     * @return if the first letter is lowercase
+     */
+    private boolean startsWithLowerCase(Segment paragraphText) {
+        int len = paragraphText.offset + paragraphText.count;
+        for (int index = paragraphText.offset; index < len; index++) {
+            if (Character.isLetter(paragraphText.array[index])) {
+                return Character.isLowerCase(paragraphText.array[index]);
             }
         }
+        return false;
     }
 
-    private void copyTextAndAtributes(Element paragraph, Segment fragmentText, SkipStringBuilder builder, BufferedStyledDocumentBuilder newDoc, AbstractSequentialList listOfLinks) throws BadLocationException {
+    private void copyTextAndAtributes(Element paragraph, Segment fragmentText, SkipStringBuilder builder, BufferedStyledDocumentBuilder newDoc, List<Object> listOfLinks) throws BadLocationException {
         final int numberOfFragments = paragraph.getElementCount();
         boolean paragraphInserted = false;
         int startParagraph = paragraph.getStartOffset();
-        //int endParagraph = paragraph.getEndOffset();
-//        System.out.print(">>"+fragmentText.toString()+"<<");
         for (int i = 0; i < numberOfFragments; i++) {
             Element fragment = paragraph.getElement(i);
             //translate document indexes to the segment indexes.
@@ -155,30 +414,41 @@ public final class Reparser {
             int end = fragmentText.offset + (fragment.getEndOffset() - startParagraph);
             //copy any urls until we get insertable text (Names are href destinations)
             if (fragment.getAttributes().isDefined(Attribute.NAME)) {
-                listOfLinks.addAll((Collection) fragment.getAttributes().getAttribute(Attribute.NAME));
-            }
-            //erase the unmappable char
-            builder.append(fragmentText.array, start, end - start);
-            int builderLen = builder.length();
-            if (builderLen != 0) {//now finally insert the processed line
-                for (Object s : listOfLinks) {//put the name attr as links for this document index
-                    newDoc.getDocument().putProperty(s, Integer.valueOf(newDoc.getLength()));
-                }
-                listOfLinks.clear();
-                paragraphInserted = true;
-                //insert the string with the old atributes except Color if black
-                Documents.vetoSpecificCharacterAttribute(fragment, StyleConstants.Foreground, Color.BLACK);
-                AttributeSet set = fragment.getAttributes();
-//                System.out.print("->"+builder.toString());
-                newDoc.append(builder.toCharArray(), set);
-                builder.clear();
+                listOfLinks.addAll((Collection<?>) fragment.getAttributes().getAttribute(Attribute.NAME));
             }
+            paragraphInserted |= copyFragment(fragmentText.array, start, end, fragment.getAttributes(), builder, newDoc, listOfLinks);
         }
         if (paragraphInserted) {
             newDoc.appendEnd(SimpleAttributeSet.EMPTY);
         }
     }
 
+    /**
+     * Inserts the fragment without the unmappable chars, if any is left
+     *
+     * @return if there was text to insert
+     */
+    private boolean copyFragment(char[] text, int start, int end, AttributeSet set, SkipStringBuilder builder, BufferedStyledDocumentBuilder newDoc, List<Object> listOfLinks) {
+        //erase the unmappable char
+        builder.append(text, start, end - start);
+        if (builder.length() == 0) {
+            return false;
+        }
+        for (Object s : listOfLinks) {//put the name attr as links for this document index
+            newDoc.name(s);
+        }
+        listOfLinks.clear();
+        //insert the string with the old atributes except Color if black
+        if (set.containsAttribute(StyleConstants.Foreground, Color.BLACK)) {
+            SimpleAttributeSet notBlack = new SimpleAttributeSet(set);
+            notBlack.removeAttribute(StyleConstants.Foreground);
+            set = notBlack;
+        }
+        newDoc.appendCopy(builder.value, 0, builder.count, set);
+        builder.clear();
+        return true;
+    }
+
     /**
      * Sets unwanted spaces or special characters to the unmappable char in the
      * array A space is unwanted, if it starts at the beginning or end of the
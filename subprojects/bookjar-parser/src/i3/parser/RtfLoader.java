@@ -1,25 +1,20 @@
 package i3.parser;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.Collections;
-import java.util.Dictionary;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
-import javax.swing.text.EditorKit;
 import javax.swing.text.StyledDocument;
-import javax.swing.text.rtf.RTFEditorKit;
-import org.apache.logging.log4j.LogManager;
 
+/**
+ * Rtf books are parsed by a RtfParser, as they are read.
+ */
 public final class RtfLoader extends BookLoader {
 
-    private EditorKit rtfEditor;
     private static Set<String> acceptedTypes = Collections.singleton("rtf");
 
     @Override
@@ -43,57 +38,51 @@ public final class RtfLoader extends BookLoader {
 
     @Override
     public StyledDocument create(InputStream reader, Map<Property, Object> properties) throws IOException {
-        try {
-            return parseRTF(reader, properties);
-        } catch (BadLocationException ex) {
-            throw new AssertionError("BadLocationException should never happen", ex);
-        }
+        return parseRTF(reader, properties);
     }
 
     @Override
     public StyledDocument create(URL origin, Map<Property, Object> properties) throws IOException {
-        try (InputStream inRTF = new BufferedInputStream(origin.openStream(), 1200)) {
+        try (InputStream inRTF = origin.openStream()) {
             return parseRTF(inRTF, properties);
-        } catch (BadLocationException ex) {
-            throw new AssertionError("BadLocationException should never happen", ex);
         }
     }
 
-    private StyledDocument parseRTF(final InputStream inRtf, Map<Property, Object> properties) throws IOException, BadLocationException {
-        if (rtfEditor == null) {
-            rtfEditor = new RTFEditorKit();
-            addUnimplementedTagByReflection();
-        }
-
-        DefaultStyledDocument toParse = new ParserDocument();
-
+    private StyledDocument parseRTF(final InputStream inRtf, Map<Property, Object> properties) throws IOException {
+        Boolean reparse = (Boolean) properties.get(Property.REFORMAT);
+        reparse = reparse == null ? Boolean.FALSE : Boolean.TRUE;
         ParserListener l = (ParserListener) properties.get(Property.PARSER_LISTENER);
+        //like html, reformatted while parsing unless the listener changes it before
+        boolean reparseAfter = reparse && l != null;
+        DefaultStyledDocument doc = reparseAfter ? new ParserDocument() : new ParserDocument(new CompactContent());
+        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(doc);
+        RtfParser parser = new RtfParser(builder);
+        if (reparse && !reparseAfter) {
+            parser.setReformat(reParser);
+        }
+        ProgressiveListener progressive = l == null ? (ProgressiveListener) properties.get(Property.PROGRESSIVE_LISTENER) : null;
+        if (progressive != null) {
+            parser.setProgressiveListener(progressive);
+        }
+        LoadPhase parse = LoadPhase.start("parse", properties);
         if (l != null) {
-            l.startDocument(toParse);
-            rtfEditor.read(inRtf, toParse, 0);
-            l.endDocument(toParse);
+            l.startDocument(doc);
+            parser.parse(inRtf);
+            parse.end();
+            if (l instanceof StatisticsListener) {
+                ((StatisticsListener) l).statistics(doc, builder.getStatistics());
+            }
+            l.endDocument(doc);
         } else {
-            rtfEditor.read(inRtf, toParse, 0);
+            parser.parse(inRtf);
+            parse.end();
         }
-        Boolean reparse = (Boolean) properties.get(Property.REFORMAT);
-        reparse = reparse == null ? Boolean.FALSE : Boolean.TRUE;
-        return (reparse) ? reParser.reParse(toParse) : toParse;
-    }
-
-    /**
-     * A missing tag in the java rtf support is added here.
-     */
-    @SuppressWarnings({"unchecked"})
-    private void addUnimplementedTagByReflection() {
-        try {
-            Class rtfReaderClass = Class.forName("javax.swing.text.rtf.RTFReader");
-            Field field = rtfReaderClass.getDeclaredField("textKeywords");
-            field.setAccessible(true);
-            //static, can be null
-            Dictionary<String, String> table = (Dictionary<String, String>) field.get(null);
-            table.put("line", "\n");
-        } catch (Exception e) {
-            LogManager.getLogger().warn("couldn't reflect field to fix missing rtf tag '\\line' bug");
+        if (!reparseAfter) {
+            return doc;
         }
+        LoadPhase reparsing = LoadPhase.start("reparse", properties);
+        StyledDocument reparsed = reParser.reParse(doc);
+        reparsing.end();
+        return reparsed;
     }
 }
@@ -0,0 +1,737 @@
+package i3.parser;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * Parses rtf as it's read, giving the text to a BufferedStyledDocumentBuilder
+ * in runs of the same attributes, instead of inserting each token in the
+ * document like RTFEditorKit.
+ *
+ * It knows the control words used by the common ebook exports: the font and
+ * color tables, bold, italic, underline, strike, sub and superscript, hidden
+ * text, font, size and color, paragraphs and lines, the special chars, \'hh
+ * escapes in the codepage of the document or of the font and \\u escapes.
+ * Other control words are ignored, and the destinations that are not text
+ * (\* groups, pictures, the stylesheet, headers, footnotes...) are skipped.
+ * Like HTMLCallBack, the paragraph attributes are not kept.
+ *
+ * When reformatting, the text goes through a Reparser.Filter a paragraph at a
+ * time instead.
+ *
+ * @author i30817
+ */
+final class RtfParser {
+
+    private static final int TEXT = 0, FONTS = 1, COLORS = 2, SKIP = 3;
+    /**
+     * Destinations that are not text
+     */
+    private static final String[] SKIPPED = {
+        "info", "stylesheet", "pict", "object", "header", "headerl", "headerr", "headerf",
+        "footer", "footerl", "footerr", "footerf", "footnote", "annotation", "listtable",
+        "listoverridetable", "revtbl", "filetbl", "rsidtbl", "xmlnstbl", "fldinst", "themedata",
+        "colorschememapping", "datastore", "latentstyles", "template", "nonshppict"
+    };
+    /**
+     * Control words that are a char
+     */
+    private static final String[] CHAR_WORDS = {
+        "tab", "\t", "emdash", "\u2014", "endash", "\u2013", "bullet", "\u2022",
+        "lquote", "\u2018", "rquote", "\u2019", "ldblquote", "\u201C", "rdblquote", "\u201D",
+        "emspace", "\u2003", "enspace", "\u2002", "zwj", "\u200D", "zwnj", "\u200C",
+        "ltrmark", "\u200E", "rtlmark", "\u200F"
+    };
+    /**
+     * The other control words handled
+     */
+    private static final String[] WORDS = {
+        "par", "line", "u", "uc", "b", "i", "ul", "ulnone", "uld", "uldb", "ulw", "strike",
+        "sub", "super", "nosupersub", "v", "plain", "f", "fs", "cf", "fonttbl", "colortbl",
+        "fcharset", "red", "green", "blue", "ansi", "mac", "pc", "pca", "ansicpg", "bin"
+    };
+    /**
+     * Codepages of the \fcharset values, in pairs
+     */
+    private static final int[] FONT_CHARSETS = {
+        77, 10000, 128, 932, 129, 949, 134, 936, 136, 950, 161, 1253, 162, 1254, 163, 1258,
+        177, 1255, 178, 1256, 186, 1257, 204, 1251, 222, 874, 238, 1250, 254, 437, 255, 850
+    };
+    private static final Map<CharBuffer, String> KNOWN_WORDS = new HashMap<>();
+    private static final Map<String, Character> CHARS = new HashMap<>();
+    private static final Set<String> SKIPPED_WORDS = new HashSet<>(Arrays.asList(SKIPPED));
+
+    static {
+        for (int i = 0; i < CHAR_WORDS.length; i += 2) {
+            KNOWN_WORDS.put(CharBuffer.wrap(CHAR_WORDS[i]), CHAR_WORDS[i]);
+            CHARS.put(CHAR_WORDS[i], CHAR_WORDS[i + 1].charAt(0));
+        }
+        for (String word : WORDS) {
+            KNOWN_WORDS.put(CharBuffer.wrap(word), word);
+        }
+        for (String word : SKIPPED) {
+            KNOWN_WORDS.put(CharBuffer.wrap(word), word);
+        }
+    }
+    private final BufferedStyledDocumentBuilder builder;
+    private Reparser.Filter reformat;
+    private InputStream input;
+    private final byte[] bytes = new byte[8192];
+    private int position, limit;
+    //the control word being read, looked up without a String
+    private final char[] word = new char[32];
+    private final CharBuffer wordBuffer = CharBuffer.wrap(word);
+    //a state for each open group, the current one is states[depth]
+    private final List<State> states = new ArrayList<>();
+    private State state;
+    private int depth;
+    //\* before the control word
+    private boolean ignorable;
+    //chars of the unicode fallback still to skip
+    private int skip;
+    //the text not given to the builder yet, all with the current attributes
+    private char[] run = new char[4096];
+    private int runLength;
+    private boolean inParagraph;
+    //the attributes of the current state, and the state they were made from
+    private AttributeSet attributes;
+    private final State attributesState = new State();
+    //the attributes of the states seen, by State.key()
+    private final Map<Long, AttributeSet> attributesCache = new HashMap<>();
+    private final Map<Integer, String> fonts = new HashMap<>();
+    private final StringBuilder fontName = new StringBuilder();
+    private int fontNumber;
+    private final List<Color> colors = new ArrayList<>();
+    private int red, green, blue;
+    private boolean colorDefined;
+    //the document codepage and the ones of the fonts that have a charset
+    private int codepage = 1252;
+    private final Map<Integer, Integer> fontCodepages = new HashMap<>();
+    private final Map<Integer, Codepage> codepages = new HashMap<>();
+    private Codepage current;
+    //bytes of a multibyte codepage not decoded yet
+    private final ByteBuffer pending = ByteBuffer.allocate(64);
+    private final CharBuffer decoded = CharBuffer.allocate(64);
+
+    private static final class State {
+
+        boolean bold, italic, underline, strike, hidden;
+        //1 superscript, -1 subscript
+        int script;
+        int font = -1, size = -1, color = -1;
+        int destination = TEXT;
+        int unicodeSkip = 1;
+
+        void copy(State other) {
+            bold = other.bold;
+            italic = other.italic;
+            underline = other.underline;
+            strike = other.strike;
+            hidden = other.hidden;
+            script = other.script;
+            font = other.font;
+            size = other.size;
+            color = other.color;
+            destination = other.destination;
+            unicodeSkip = other.unicodeSkip;
+        }
+
+        /**
+         * @return the attributes as a number, the same for the same attributes
+         */
+        long key() {
+            long flags = (bold ? 1 : 0) | (italic ? 2 : 0) | (underline ? 4 : 0) | (strike ? 8 : 0) | ((script + 1) << 4);
+            return flags | (font & 0xFFFFL) << 6 | (size & 0xFFFFL) << 22 | (color & 0xFFFFL) << 38;
+        }
+
+        boolean sameAttributes(State other) {
+            return bold == other.bold && italic == other.italic && underline == other.underline
+                    && strike == other.strike && script == other.script && font == other.font
+                    && size == other.size && color == other.color;
+        }
+    }
+
+    /**
+     * Decodes the bytes of a codepage, with a table if it's single byte
+     */
+    private static final class Codepage {
+
+        final char[] table;
+        final CharsetDecoder decoder;
+
+        Codepage(Charset charset) {
+            if (isSingleByte(charset)) {
+                byte[] all = new byte[256];
+                for (int i = 0; i < all.length; i++) {
+                    all[i] = (byte) i;
+                }
+                table = new String(all, charset).toCharArray();
+                decoder = null;
+            } else {
+                table = null;
+                decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+        }
+
+        private static boolean isSingleByte(Charset charset) {
+            return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1;
+        }
+    }
+
+    RtfParser(BufferedStyledDocumentBuilder builder) {
+        this.builder = builder;
+        state = new State();
+        states.add(state);
+    }
+
+    /**
+     * Shows the document as soon as the first page is parsed
+     */
+    void setProgressiveListener(ProgressiveListener listener) {
+        builder.setProgressiveListener(listener);
+    }
+
+    /**
+     * Standardizes the text while parsing, call before the parsing starts
+     */
+    void setReformat(Reparser reparser) {
+        reformat = reparser.new Filter(builder);
+    }
+
+    /**
+     * Parses all the stream and commits the document, doesn't close it
+     */
+    void parse(InputStream in) throws IOException {
+        input = in;
+        for (int b; (b = read()) != -1;) {
+            if (b == '{') {
+                group();
+            } else if (b == '}') {
+                endGroup();
+            } else if (b == '\\') {
+                control();
+            } else if (b != '\n' && b != '\r' && state.destination != SKIP) {
+                character(b);
+            }
+        }
+        decodePending();
+        flushRun();
+        if (inParagraph) {
+            endParagraph();
+        }
+        if (reformat != null) {
+            reformat.finish();
+        }
+        builder.commit();
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = input.read(bytes, 0, bytes.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    private void group() {
+        decodePending();
+        skip = 0;
+        ignorable = false;
+        State parent = state;
+        depth++;
+        if (depth == states.size()) {
+            states.add(new State());
+        }
+        state = states.get(depth);
+        state.copy(parent);
+        current = null;
+    }
+
+    private void endGroup() {
+        decodePending();
+        flushRun();
+        skip = 0;
+        ignorable = false;
+        //like RTFEditorKit, the text at the end of the document is a paragraph
+        if (depth == 1 && inParagraph) {
+            endParagraph();
+        }
+        //unbalanced groups are ignored
+        if (depth > 0) {
+            depth--;
+            state = states.get(depth);
+            current = null;
+        }
+    }
+
+    private void control() throws IOException {
+        int b = read();
+        if (b == -1) {
+            return;
+        }
+        if (b == '\'') {
+            int high = Character.digit(read(), 16);
+            int low = Character.digit(read(), 16);
+            if (high >= 0 && low >= 0 && state.destination != SKIP) {
+                character(high * 16 + low);
+            }
+            return;
+        }
+        decodePending();
+        if (!isLetter(b)) {
+            symbol((char) b);
+            return;
+        }
+        int length = 0;
+        do {
+            if (length < word.length) {
+                word[length++] = (char) b;
+            }
+            b = read();
+        } while (isLetter(b));
+        boolean negative = b == '-';
+        if (negative) {
+            b = read();
+        }
+        boolean hasParameter = b >= '0' && b <= '9';
+        long parameter = 0;
+        while (b >= '0' && b <= '9') {
+            parameter = Math.min(Integer.MAX_VALUE, parameter * 10 + b - '0');
+            b = read();
+        }
+        //the space is part of the control word
+        if (b != ' ' && b != -1) {
+            position--;
+        }
+        wordBuffer.limit(length).position(0);
+        String known = KNOWN_WORDS.get(wordBuffer);
+        keyword(known, hasParameter, (int) (negative ? -parameter : parameter));
+    }
+
+    private static boolean isLetter(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private void symbol(char symbol) {
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        if (state.destination == SKIP) {
+            return;
+        }
+        switch (symbol) {
+            case '\\':
+            case '{':
+            case '}':
+                text(symbol);
+                break;
+            case '~':
+            case ' ':
+                text('\u00A0');
+                break;
+            case '_':
+                text('\u2011');
+                break;
+            case '*':
+                ignorable = true;
+                break;
+            case '\n':
+            case '\r':
+                paragraph();
+                break;
+            default:
+            //the optional hyphen and index marks are not text
+        }
+    }
+
+    /**
+     * @param word the canonical name of the control word, null if unknown
+     */
+    private void keyword(String word, boolean hasParameter, int parameter) throws IOException {
+        if ("bin".equals(word)) {
+            //binary data, even when skipping
+            for (int i = 0; i < parameter && read() != -1; i++) {
+            }
+            return;
+        }
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        if (state.destination == SKIP) {
+            return;
+        }
+        if (ignorable) {
+            //skipped, even the ones RTFEditorKit knows
+            ignorable = false;
+            state.destination = SKIP;
+            return;
+        }
+        if (word == null) {
+            return;
+        }
+        boolean on = !hasParameter || parameter != 0;
+        switch (word) {
+            case "fonttbl":
+                state.destination = FONTS;
+                return;
+            case "colortbl":
+                state.destination = COLORS;
+                colors.clear();
+                tablesChanged();
+                return;
+            case "u":
+                text((char) (parameter < 0 ? parameter + 65536 : parameter));
+                skip = state.unicodeSkip;
+                return;
+            case "uc":
+                state.unicodeSkip = Math.max(0, parameter);
+                return;
+            case "ansi":
+                setCodepage(1252);
+                return;
+            case "mac":
+                setCodepage(10000);
+                return;
+            case "pc":
+                setCodepage(437);
+                return;
+            case "pca":
+                setCodepage(850);
+                return;
+            case "ansicpg":
+                setCodepage(parameter);
+                return;
+            default:
+                if (SKIPPED_WORDS.contains(word)) {
+                    state.destination = SKIP;
+                    return;
+                }
+        }
+        if (state.destination == FONTS) {
+            if (word.equals("f")) {
+                fontNumber = parameter;
+                fontName.setLength(0);
+            } else if (word.equals("fcharset")) {
+                setFontCharset(parameter);
+            }
+            return;
+        }
+        if (state.destination == COLORS) {
+            colorDefined = true;
+            if (word.equals("red")) {
+                red = parameter;
+            } else if (word.equals("green")) {
+                green = parameter;
+            } else if (word.equals("blue")) {
+                blue = parameter;
+            }
+            return;
+        }
+        Character c = CHARS.get(word);
+        if (c != null) {
+            text(c);
+            return;
+        }
+        flushRun();
+        switch (word) {
+            case "par":
+            case "line":
+                paragraph();
+                break;
+            case "b":
+                state.bold = on;
+                break;
+            case "i":
+                state.italic = on;
+                break;
+            case "ul":
+            case "uld":
+            case "uldb":
+            case "ulw":
+                state.underline = on;
+                break;
+            case "ulnone":
+                state.underline = false;
+                break;
+            case "strike":
+                state.strike = on;
+                break;
+            case "sub":
+                state.script = on ? -1 : 0;
+                break;
+            case "super":
+                state.script = on ? 1 : 0;
+                break;
+            case "nosupersub":
+                state.script = 0;
+                break;
+            case "v":
+                state.hidden = on;
+                break;
+            case "plain":
+                //like RTFEditorKit, the first font of 12 points
+                state.bold = state.italic = state.underline = state.strike = state.hidden = false;
+                state.script = 0;
+                state.font = 0;
+                state.size = 12;
+                state.color = 0;
+                current = null;
+                break;
+            case "f":
+                state.font = parameter;
+                current = null;
+                break;
+            case "fs":
+                state.size = parameter / 2;
+                break;
+            case "cf":
+                state.color = parameter;
+                break;
+            default:
+        }
+    }
+
+    private void setCodepage(int number) {
+        codepage = number;
+        current = null;
+    }
+
+    private void setFontCharset(int charset) {
+        for (int i = 0; i < FONT_CHARSETS.length; i += 2) {
+            if (FONT_CHARSETS[i] == charset) {
+                fontCodepages.put(fontNumber, FONT_CHARSETS[i + 1]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * A byte of text, in the codepage of the current font
+     */
+    private void character(int b) {
+        if (b < 128 && pending.position() == 0) {
+            text((char) b);
+            return;
+        }
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        if (current == null) {
+            Integer fontCodepage = fontCodepages.get(state.font);
+            current = codepage(fontCodepage == null ? codepage : fontCodepage);
+        }
+        if (current.table != null) {
+            text(current.table[b]);
+            return;
+        }
+        if (!pending.hasRemaining()) {
+            decode(false);
+        }
+        pending.put((byte) b);
+    }
+
+    private Codepage codepage(int number) {
+        Codepage c = codepages.get(number);
+        if (c == null) {
+            c = new Codepage(charset(number));
+            codepages.put(number, c);
+        }
+        return c;
+    }
+
+    private static Charset charset(int codepage) {
+        if (codepage == 10000) {
+            return Charset.forName("x-MacRoman");
+        }
+        for (String prefix : new String[]{"windows-", "cp"}) {
+            try {
+                if (Charset.isSupported(prefix + codepage)) {
+                    return Charset.forName(prefix + codepage);
+                }
+            } catch (IllegalCharsetNameException ex) {
+            }
+        }
+        return Charset.forName("windows-1252");
+    }
+
+    private void decodePending() {
+        if (pending.position() != 0) {
+            decode(true);
+        }
+    }
+
+    /**
+     * Decodes the bytes of a multibyte codepage, the incomplete char at the
+     * end is kept unless it's the end of the text
+     */
+    private void decode(boolean end) {
+        CharsetDecoder decoder = current.decoder;
+        pending.flip();
+        do {
+            decoded.clear();
+            decoder.decode(pending, decoded, end);
+            if (end) {
+                decoder.flush(decoded);
+            }
+            decoded.flip();
+            while (decoded.hasRemaining()) {
+                text(decoded.get());
+            }
+        } while (pending.hasRemaining() && end);
+        pending.compact();
+        if (end) {
+            decoder.reset();
+        }
+    }
+
+    /**
+     * A char of the current destination
+     */
+    private void text(char c) {
+        if (skip > 0) {
+            skip--;
+            return;
+        }
+        switch (state.destination) {
+            case TEXT:
+                if (state.hidden) {
+                    return;
+                }
+                if (runLength == run.length) {
+                    flushRun();
+                }
+                run[runLength++] = c;
+                inParagraph = true;
+                break;
+            case FONTS:
+                if (c == ';') {
+                    fonts.put(fontNumber, fontName.toString());
+                    fontName.setLength(0);
+                    tablesChanged();
+                } else {
+                    fontName.append(c);
+                }
+                break;
+            case COLORS:
+                if (c == ';') {
+                    //the colors that are only a ; are the default
+                    colors.add(colorDefined ? new Color(red & 0xFF, green & 0xFF, blue & 0xFF) : null);
+                    red = green = blue = 0;
+                    colorDefined = false;
+                    tablesChanged();
+                }
+                break;
+            default:
+        }
+    }
+
+    private void flushRun() {
+        if (runLength == 0) {
+            return;
+        }
+        if (reformat != null) {
+            reformat.append(run, 0, runLength, attributes());
+        } else {
+            builder.appendCopy(run, 0, runLength, attributes());
+        }
+        runLength = 0;
+    }
+
+    private void paragraph() {
+        if (state.destination == TEXT) {
+            endParagraph();
+        }
+    }
+
+    private void endParagraph() {
+        flushRun();
+        if (reformat != null) {
+            reformat.appendEnd(attributes());
+        } else {
+            builder.appendEnd(attributes());
+        }
+        inParagraph = false;
+    }
+
+    /**
+     * The fonts and colors of the attributes made until now can be other
+     */
+    private void tablesChanged() {
+        attributesCache.clear();
+        attributes = null;
+    }
+
+    /**
+     * @return the interned attributes of the current state
+     */
+    private AttributeSet attributes() {
+        if (attributes != null && attributesState.sameAttributes(state)) {
+            return attributes;
+        }
+        attributesState.copy(state);
+        Long key = state.key();
+        attributes = attributesCache.get(key);
+        if (attributes == null) {
+            attributes = ParserDocument.intern(createAttributes());
+            attributesCache.put(key, attributes);
+        }
+        return attributes;
+    }
+
+    private AttributeSet createAttributes() {
+        SimpleAttributeSet set = new SimpleAttributeSet();
+        if (state.bold) {
+            StyleConstants.setBold(set, true);
+        }
+        if (state.italic) {
+            StyleConstants.setItalic(set, true);
+        }
+        if (state.underline) {
+            StyleConstants.setUnderline(set, true);
+        }
+        if (state.strike) {
+            StyleConstants.setStrikeThrough(set, true);
+        }
+        if (state.script > 0) {
+            StyleConstants.setSuperscript(set, true);
+        } else if (state.script < 0) {
+            StyleConstants.setSubscript(set, true);
+        }
+        String family = fonts.get(state.font);
+        if (family != null) {
+            StyleConstants.setFontFamily(set, family);
+        }
+        if (state.size > 0) {
+            StyleConstants.setFontSize(set, state.size);
+        }
+        Color color = state.color >= 0 && state.color < colors.size() ? colors.get(state.color) : null;
+        if (color != null) {
+            StyleConstants.setForeground(set, color);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,17 @@
+package i3.parser;
+
+import javax.swing.text.DefaultStyledDocument;
+
+/**
+ * A PARSER_LISTENER that is also told how the document was built, by the
+ * loaders that know it
+ *
+ * @author i30817
+ */
+public interface StatisticsListener extends ParserListener {
+
+    /**
+     * Called after the parsing, before endDocument
+     */
+    void statistics(DefaultStyledDocument doc, LoadStatistics statistics);
+}
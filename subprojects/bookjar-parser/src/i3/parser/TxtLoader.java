@@ -1,10 +1,13 @@
 package i3.parser;
 
-import java.io.BufferedInputStream;
+import i3.io.CharsetDetectingReader;
+import i3.io.IoUtils;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
@@ -14,10 +17,17 @@ import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.EditorKit;
 import javax.swing.text.StyledDocument;
-import static i3.io.IoUtils.*;
+import org.apache.logging.log4j.LogManager;
 
+/**
+ * Text files are read a paragraph per line. Files bigger than the
+ * bookjar.txt.map system property (64MB by default) are memory mapped and
+ * decoded only where they are read instead, if there is no PARSER_LISTENER
+ * and their charset allows it. Those are never reformated.
+ */
 public final class TxtLoader extends BookLoader {
 
+    private static final long MAP_BYTES = Long.getLong("bookjar.txt.map", 64L * 1024 * 1024);
     private EditorKit txtEditor;
     private static Set<String> acceptedTypes = Collections.singleton("txt");
 
@@ -51,6 +61,19 @@ public final class TxtLoader extends BookLoader {
 
     @Override
     public StyledDocument create(URL origin, Map<Property, Object> properties) throws IOException {
+        Path file = IoUtils.toFile(origin);
+        if (file != null && Files.isRegularFile(file) && Files.size(file) >= MAP_BYTES
+                && properties.get(Property.PARSER_LISTENER) == null) {
+            LoadPhase map = LoadPhase.start("map", properties);
+            StyledDocument mapped = MappedTextDocument.open(file);
+            map.end();
+            if (mapped != null) {
+                if (Boolean.TRUE.equals(properties.get(Property.REFORMAT))) {
+                    LogManager.getLogger().info("not reformating memory mapped " + file);
+                }
+                return mapped;
+            }
+        }
         try (InputStream in = origin.openStream()) {
             return parseTXT(in, properties);
         } catch (BadLocationException ex) {
@@ -62,27 +85,32 @@ public final class TxtLoader extends BookLoader {
         if (txtEditor == null) {
             txtEditor = new DefaultEditorKit();
         }
-        //text needs a charset detector too.
-        BufferedInputStream stream = new BufferedInputStream(reader);
-        stream.mark(15000);
-        String charset = probeCharset(stream, 15000);
-        stream.reset();
+        //text needs a charset detector too, the platform charset if it fails.
+        CharsetDetectingReader text = new CharsetDetectingReader(reader, 15000, Charset.defaultCharset().name(), false);
+        LoadPhase charset = LoadPhase.start("charset", properties);
+        //otherwise detected in the first read, in the parse
+        text.getCharset();
+        charset.end();
         DefaultStyledDocument newDoc = new ParserDocument();
 
         ParserListener l = (ParserListener) properties.get(Property.PARSER_LISTENER);
         if (l != null) {
             l.startDocument(newDoc);
         }
-        if (charset == null) {
-            txtEditor.read(stream, newDoc, 0);
-        } else {
-            txtEditor.read(new InputStreamReader(stream, charset), newDoc, 0);
-        }
+        LoadPhase parse = LoadPhase.start("parse", properties);
+        txtEditor.read(text, newDoc, 0);
+        parse.end();
         if (l != null) {
             l.endDocument(newDoc);
         }
         Boolean reparse = (Boolean) properties.get(Property.REFORMAT);
         reparse = reparse == null ? Boolean.FALSE : Boolean.TRUE;
-        return (reparse) ? reParser.reParse(newDoc) : newDoc;
+        if (!reparse) {
+            return newDoc;
+        }
+        LoadPhase reparsing = LoadPhase.start("reparse", properties);
+        StyledDocument doc = reParser.reParse(newDoc);
+        reparsing.end();
+        return doc;
     }
 }
@@ -0,0 +1,161 @@
+package i3.parser;
+
+import i3.swing.SearchIterator;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyledDocument;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CompactContentTest {
+
+    private static String text(Random r, int length) {
+        StringBuilder b = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int c = r.nextInt(100);
+            //mostly Latin-1, sometimes not
+            b.append(c == 0 ? '—' : c < 10 ? 'é' : (char) ('a' + c % 26));
+        }
+        return b.toString();
+    }
+
+    private static String all(AbstractDocument.Content c) throws BadLocationException {
+        return c.getString(0, c.length());
+    }
+
+    @Test
+    public void sameAsGapContent() throws BadLocationException {
+        Random r = new Random(7);
+        CompactContent compact = new CompactContent();
+        GapContent gap = new GapContent();
+        List<Position> compactPositions = new ArrayList<>();
+        List<Position> gapPositions = new ArrayList<>();
+        for (int op = 0; op < 2000; op++) {
+            int choice = r.nextInt(10);
+            if (choice < 6) {
+                //mostly appends before the implied newline
+                int where = choice < 4 ? compact.length() - 1 : r.nextInt(compact.length());
+                String s = text(r, r.nextInt(3000));
+                compact.insertString(where, s);
+                gap.insertString(where, s);
+            } else if (choice < 8 && compact.length() > 1) {
+                int where = r.nextInt(compact.length() - 1);
+                int len = r.nextInt(Math.min(500, compact.length() - 1 - where) + 1);
+                compact.remove(where, len);
+                gap.remove(where, len);
+            } else {
+                int offset = r.nextInt(compact.length() + 1);
+                compactPositions.add(compact.createPosition(offset));
+                gapPositions.add(gap.createPosition(offset));
+            }
+            if (op % 500 == 0) {
+                compact.trim();
+            }
+        }
+        assertEquals(gap.length(), compact.length());
+        assertEquals(all(gap), all(compact));
+        for (int i = 0; i < gapPositions.size(); i++) {
+            assertEquals(gapPositions.get(i).getOffset(), compactPositions.get(i).getOffset());
+        }
+        //partial returns stop at a chunk end, the whole text must be there
+        Segment s = new Segment();
+        s.setPartialReturn(true);
+        StringBuilder b = new StringBuilder();
+        int nleft = compact.length();
+        int offset = 0;
+        while (nleft > 0) {
+            compact.getChars(offset, nleft, s);
+            assertTrue(s.count > 0);
+            b.append(s.array, s.offset, s.count);
+            nleft -= s.count;
+            offset += s.count;
+        }
+        assertEquals(all(gap), b.toString());
+        s.setPartialReturn(false);
+        compact.getChars(1000, 10000, s);
+        assertEquals(gap.getString(1000, 10000), s.toString());
+    }
+
+    @Test
+    public void searchAcrossChunks() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            b.append("a needle in a haystack ").append(i).append('\n');
+        }
+        Map<Property, Object> p = new EnumMap<>(Property.class);
+        p.put(Property.REFORMAT, true);
+        StyledDocument doc = new TxtLoader().create(b.toString(), p);
+        SearchIterator it = new SearchIterator("needle", doc, 0);
+        int found = 0;
+        while (it.hasNext()) {
+            it.next();
+            found++;
+        }
+        assertEquals(3000, found);
+    }
+
+    /**
+     * Heap used by the documents of the books in the bookjar.corpus directory,
+     * with GapContent and CompactContent
+     */
+    //@Test
+    public void heapFootprint() throws Exception {
+        File[] books = new File(System.getProperty("bookjar.corpus", ".")).listFiles();
+        MemoryMXBean m = ManagementFactory.getMemoryMXBean();
+        long gapTotal = 0, compactTotal = 0;
+        for (File book : books) {
+            if (!book.isFile() || !BookLoader.acceptsFiles(book.getName())) {
+                continue;
+            }
+            Map<Property, Object> p = new EnumMap<>(Property.class);
+            p.put(Property.REFORMAT, true);
+            StyledDocument parsed = BookLoader.forFileName(book.getName()).create(book.toURI().toURL(), p);
+            String text = parsed.getText(0, parsed.getLength());
+            parsed = null;
+
+            long used = usedHeap(m);
+            ParserDocument gap = fill(new ParserDocument(), text);
+            long gapBytes = usedHeap(m) - used;
+            used = usedHeap(m);
+            ParserDocument compact = fill(new ParserDocument(new CompactContent()), text);
+            compact.trimToSize();
+            long compactBytes = usedHeap(m) - used;
+            assertEquals(gap.getText(0, gap.getLength()), compact.getText(0, compact.getLength()));
+            System.out.println(book.getName() + " " + text.length() / 1024 + "K chars: GapContent " + gapBytes / 1024
+                    + "KB, CompactContent " + compactBytes / 1024 + "KB");
+            gapTotal += gapBytes;
+            compactTotal += compactBytes;
+        }
+        System.out.println("total: GapContent " + gapTotal / 1024 + "KB, CompactContent " + compactTotal / 1024 + "KB");
+    }
+
+    private static ParserDocument fill(ParserDocument doc, String text) {
+        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(doc);
+        for (String paragraph : text.split("\n")) {
+            char[] chars = paragraph.toCharArray();
+            builder.append(chars, SimpleAttributeSet.EMPTY);
+            builder.appendEnd(SimpleAttributeSet.EMPTY);
+        }
+        builder.commit();
+        return doc;
+    }
+
+    private static long usedHeap(MemoryMXBean m) {
+        for (int i = 0; i < 4; i++) {
+            m.gc();
+        }
+        return m.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,165 @@
+package i3.parser;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import javax.swing.text.html.HTML;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DocumentCacheTest {
+
+    private static URL book(Path dir, String name) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, HtmlLoaderTest.book().getBytes(StandardCharsets.UTF_8));
+        return file.toUri().toURL();
+    }
+
+    private static Map<Property, Object> properties(boolean reformat, ProgressiveListener listener) {
+        Map<Property, Object> p = new EnumMap<>(Property.class);
+        if (reformat) {
+            p.put(Property.REFORMAT, true);
+        }
+        p.put(Property.HYPERLINK_COLOR, Color.BLUE);
+        if (listener != null) {
+            p.put(Property.PROGRESSIVE_LISTENER, listener);
+        }
+        return p;
+    }
+
+    /**
+     * Like the view, styles the shown document
+     */
+    private static final class Styling implements ProgressiveListener {
+
+        private final SimpleAttributeSet bold = new SimpleAttributeSet();
+        private boolean shown;
+
+        Styling() {
+            StyleConstants.setBold(bold, true);
+        }
+
+        @Override
+        public int firstPageLength() {
+            return 8000;
+        }
+
+        @Override
+        public void firstPage(StyledDocument doc) {
+            shown = true;
+            doc.setCharacterAttributes(0, doc.getLength(), bold, false);
+        }
+
+        @Override
+        public void change(StyledDocument doc, Runnable change) {
+            int oldLength = doc.getLength();
+            change.run();
+            doc.setCharacterAttributes(oldLength, doc.getLength() - oldLength, bold, false);
+        }
+    }
+
+    private static AttributeSet stored(AttributeSet attributes) {
+        SimpleAttributeSet set = new SimpleAttributeSet(attributes);
+        set.removeAttribute(HTML.Attribute.NAME);
+        set.removeAttribute(StyleConstants.ResolveAttribute);
+        return set;
+    }
+
+    private static void assertSameDocument(StyledDocument expected, StyledDocument doc) throws BadLocationException {
+        assertEquals(expected.getText(0, expected.getLength()), doc.getText(0, doc.getLength()));
+        assertEquals(expected.getDefaultRootElement().getElementCount(), doc.getDefaultRootElement().getElementCount());
+        for (int i = 0; i < expected.getLength();) {
+            Element leaf = expected.getCharacterElement(i);
+            int end = Math.min(leaf.getEndOffset(), expected.getLength());
+            assertEquals("at " + i, stored(leaf.getAttributes()), stored(doc.getCharacterElement(i).getAttributes()));
+            assertEquals("at " + (end - 1), stored(leaf.getAttributes()), stored(doc.getCharacterElement(end - 1).getAttributes()));
+            i = end;
+        }
+        for (String name : new String[]{"toc", "c0", "c200", "c399"}) {
+            assertNotNull(name, expected.getProperty(name));
+            assertEquals(name, expected.getProperty(name), doc.getProperty(name));
+        }
+    }
+
+    @Test
+    public void sameDocument() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        URL url = book(Files.createTempDirectory("books"), "book.html");
+        DocumentCache cache = new DocumentCache(dir, Long.MAX_VALUE);
+        for (boolean reformat : new boolean[]{false, true}) {
+            StyledDocument parsed = cache.create(url, properties(reformat, null));
+            Styling listener = new Styling();
+            StyledDocument cached = cache.create(url, properties(reformat, listener));
+            assertFalse("parsed again", listener.shown);
+            assertSameDocument(parsed, cached);
+        }
+    }
+
+    @Test
+    public void shownDocumentIsCachedUnstyled() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        URL url = book(Files.createTempDirectory("books"), "book.html");
+        StyledDocument expected = new HtmlLoader().create(url, properties(true, null));
+        DocumentCache cache = new DocumentCache(dir, Long.MAX_VALUE);
+        Styling listener = new Styling();
+        StyledDocument shown = cache.create(url, properties(true, listener));
+        assertTrue(listener.shown);
+        assertTrue(StyleConstants.isBold(shown.getCharacterElement(shown.getLength() - 1).getAttributes()));
+        assertSameDocument(expected, cache.create(url, properties(true, null)));
+    }
+
+    @Test
+    public void invalidatedByChangedFile() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        URL url = book(Files.createTempDirectory("books"), "book.html");
+        DocumentCache cache = new DocumentCache(dir, Long.MAX_VALUE);
+        cache.create(url, properties(true, null));
+        Path file = Paths.get(url.toURI());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        Styling listener = new Styling();
+        cache.create(url, properties(true, listener));
+        assertTrue("read stale entry", listener.shown);
+        //other options are other entries
+        listener = new Styling();
+        cache.create(url, properties(false, listener));
+        assertTrue("read entry of other options", listener.shown);
+    }
+
+    @Test
+    public void leastRecentlyUsedAreDeleted() throws Exception {
+        Path dir = Files.createTempDirectory("documents");
+        Path books = Files.createTempDirectory("books");
+        new DocumentCache(dir, Long.MAX_VALUE).create(book(books, "one.html"), properties(true, null));
+        long entry = size(dir);
+        DocumentCache cache = new DocumentCache(dir, entry * 3 / 2);
+        cache.create(book(books, "two.html"), properties(true, null));
+        assertEquals(entry, size(dir));
+        Styling listener = new Styling();
+        cache.create(books.resolve("two.html").toUri().toURL(), properties(true, listener));
+        assertFalse("newest entry deleted", listener.shown);
+    }
+
+    private static long size(Path dir) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                size += Files.size(f);
+            }
+        }
+        return size;
+    }
+}
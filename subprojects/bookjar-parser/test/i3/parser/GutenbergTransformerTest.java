@@ -0,0 +1,96 @@
+package i3.parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class GutenbergTransformerTest {
+
+    private static final String HEADER = "The Project Gutenberg EBook of Emphasis\n\n"
+            + "*** START OF THIS PROJECT GUTENBERG EBOOK EMPHASIS ***\n";
+    private static final String FOOTER = "\n*** END OF THIS PROJECT GUTENBERG EBOOK EMPHASIS ***\n\nThe license_ with _underscores\n";
+
+    private static StyledDocument load(String book, String name) throws Exception {
+        Map<Property, Object> properties = new EnumMap<>(Property.class);
+        properties.put(Property.EXTRACTED_FILENAME, name);
+        properties.put(Property.PARSER_LISTENER, new GutenbergTransformer(properties));
+        return new TxtLoader().create(new ByteArrayInputStream(book.getBytes("UTF-8")), properties);
+    }
+
+    private static boolean italic(StyledDocument doc, String text) throws Exception {
+        int index = doc.getText(0, doc.getLength()).indexOf(text);
+        assertTrue(text, index != -1);
+        return StyleConstants.isItalic(doc.getCharacterElement(index).getAttributes());
+    }
+
+    @Test
+    public void licenseAndEmphasis() throws Exception {
+        String book = HEADER + "It was a _dark_ and stormy night;\nthe _rain fell\nin torrents_, except at\n"
+                + "occasional intervals.\n\nThe end" + FOOTER;
+        StyledDocument doc = load(book, "emphasis.txt");
+        assertEquals("It was a dark and stormy night;\nthe rain fell\nin torrents, except at\noccasional intervals.\n\nThe end\n\n",
+                doc.getText(0, doc.getLength() + 1));
+        assertEquals(7, doc.getDefaultRootElement().getElementCount());
+        assertTrue(italic(doc, "dark"));
+        assertFalse(italic(doc, " and stormy"));
+        assertTrue(italic(doc, "rain fell"));
+        assertTrue(italic(doc, "in torrents"));
+        assertFalse(italic(doc, ", except"));
+        //only the license is removed from other files
+        doc = load(book, "emphasis.html");
+        assertEquals(book.substring(HEADER.length(), book.length() - FOOTER.length() + 1), doc.getText(0, doc.getLength()));
+        assertFalse(italic(doc, "dark"));
+    }
+
+    private static String transformed(String text) throws Exception {
+        DefaultStyledDocument doc = new ParserDocument();
+        doc.insertString(0, text, null);
+        Map<Property, Object> properties = new EnumMap<>(Property.class);
+        properties.put(Property.EXTRACTED_FILENAME, "a.txt");
+        try {
+            new GutenbergTransformer(properties).endDocument(doc);
+        } catch (AssertionError expected) {
+            //with -ea, before changing the document
+        }
+        return doc.getText(0, doc.getLength());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        assertEquals("not a _gutenberg_ book\n", transformed("not a _gutenberg_ book\n"));
+        assertTrue(transformed(HEADER + "an _unclosed one" + FOOTER).contains("_unclosed one"));
+    }
+
+    private static long transform(int spans) throws Exception {
+        StringBuilder b = new StringBuilder(HEADER);
+        for (int i = 0; i < spans; i++) {
+            b.append("Some _emphasis_ here");
+            b.append(i % 10 == 9 ? '\n' : ' ');
+        }
+        String book = b.append(FOOTER).toString();
+        long time = System.nanoTime();
+        StyledDocument doc = load(book, "emphasis.txt");
+        time = System.nanoTime() - time;
+        assertEquals(spans * 19 + 1, doc.getLength());
+        assertTrue(italic(doc, "emphasis"));
+        return time;
+    }
+
+    /**
+     * A book with 100k spans takes about four times one with 25k
+     */
+    //@Test
+    public void linearInSpans() throws Exception {
+        //warm up
+        transform(25000);
+        long quarter = transform(25000);
+        long whole = transform(100000);
+        System.out.println("gutenberg txt with 25k emphasis spans in " + quarter / 1000000 + "ms, with 100k in " + whole / 1000000 + "ms");
+        assertTrue(whole < quarter * 10);
+    }
+}
@@ -0,0 +1,279 @@
+package i3.parser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyledDocument;
+import javax.swing.text.html.HTML;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HtmlLoaderTest {
+
+    private static final int CHAPTERS = 400;
+
+    /**
+     * A big book with a table of contents, links back to it and whitespace to
+     * reformat
+     */
+    static String book() {
+        StringBuilder b = new StringBuilder("<html><head><title>Synthetic</title><style>p {margin: 0}</style></head><body>");
+        b.append("<h1 id=\"toc\">Contents</h1>");
+        for (int i = 0; i < CHAPTERS; i++) {
+            b.append("<p><a href=\"#c").append(i).append("\">Chapter ").append(i).append("</a></p>");
+        }
+        for (int i = 0; i < CHAPTERS; i++) {
+            b.append("<h2><a name=\"c").append(i).append("\">Chapter ").append(i).append("</a></h2>");
+            for (int p = 0; p < 20; p++) {
+                b.append("<p>  It was a <i>dark</i> and stormy night;   the rain fell in torrents, except at\n")
+                        .append("occasional intervals, when it was checked by a violent gust of wind which swept up the streets.</p>\n")
+                        .append("<p>for it is in London that our scene lies, rattling along the housetops.</p>");
+            }
+            b.append("<p><a href=\"#toc\">Back</a></p>");
+        }
+        return b.append("</body></html>").toString();
+    }
+
+    private static Map<Property, Object> properties(boolean reformat, ProgressiveListener listener) {
+        Map<Property, Object> p = new EnumMap<>(Property.class);
+        if (reformat) {
+            p.put(Property.REFORMAT, true);
+        }
+        if (listener != null) {
+            p.put(Property.PROGRESSIVE_LISTENER, listener);
+        }
+        return p;
+    }
+
+    private static final class FirstPage implements ProgressiveListener {
+
+        private final int length;
+        private final long start = System.nanoTime();
+        private StyledDocument shown;
+        private long shownNanos;
+        private int changes;
+
+        FirstPage(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public int firstPageLength() {
+            return length;
+        }
+
+        @Override
+        public void firstPage(StyledDocument doc) {
+            assertNull("shown twice", shown);
+            shown = doc;
+            shownNanos = System.nanoTime() - start;
+        }
+
+        @Override
+        public void change(StyledDocument doc, Runnable change) {
+            assertSame(shown, doc);
+            changes++;
+            change.run();
+        }
+    }
+
+    @Test
+    public void progressiveIsTheSameDocument() throws BadLocationException {
+        String book = book();
+        for (boolean reformat : new boolean[]{false, true}) {
+            StyledDocument expected = new HtmlLoader().create(book, properties(reformat, null));
+            FirstPage listener = new FirstPage(8000);
+            StyledDocument doc = new HtmlLoader().create(book, properties(reformat, listener));
+            assertSame(listener.shown, doc);
+            assertTrue(listener.changes > 0);
+            assertEquals(expected.getText(0, expected.getLength()), doc.getText(0, doc.getLength()));
+            for (String name : new String[]{"toc", "c0", "c200", "c399"}) {
+                assertNotNull(name, expected.getProperty(name));
+                assertEquals(name, expected.getProperty(name), doc.getProperty(name));
+            }
+        }
+    }
+
+    @Test
+    public void bookmarkPastTheEnd() {
+        FirstPage listener = new FirstPage(Integer.MAX_VALUE);
+        StyledDocument doc = new HtmlLoader().create(book(), properties(true, listener));
+        assertNull(listener.shown);
+        assertTrue(doc.getLength() > 0);
+    }
+
+    @Test
+    public void timeToFirstPage() {
+        String book = book();
+        //warm up
+        new HtmlLoader().create(book, properties(true, null));
+        long start = System.nanoTime();
+        new HtmlLoader().create(book, properties(true, null));
+        long whole = System.nanoTime() - start;
+        FirstPage listener = new FirstPage(8000);
+        new HtmlLoader().create(book, properties(true, listener));
+        long progressive = System.nanoTime() - listener.start;
+        System.out.println("html of " + book.length() / 1024 + "KB: first page in " + listener.shownNanos / 1000000
+                + "ms, whole book in " + whole / 1000000 + "ms (" + progressive / 1000000 + "ms progressively)");
+        assertTrue(listener.shownNanos < whole);
+    }
+
+    @Test
+    public void statisticsBeforeTheEnd() {
+        final LoadStatistics[] given = new LoadStatistics[1];
+        Map<Property, Object> p = properties(false, null);
+        p.put(Property.PARSER_LISTENER, new StatisticsListener() {
+            @Override
+            public void startDocument(DefaultStyledDocument doc) {
+            }
+
+            @Override
+            public void statistics(DefaultStyledDocument doc, LoadStatistics statistics) {
+                given[0] = statistics;
+            }
+
+            @Override
+            public void endDocument(DefaultStyledDocument doc) {
+                assertNotNull(given[0]);
+                assertTrue(given[0].getChars() >= doc.getLength());
+            }
+        });
+        new HtmlLoader().create(book(), p);
+        assertTrue(given[0].getFlushes() > 0);
+        assertTrue(given[0].getMaxFlushChars() >= given[0].getCharsPerFlush());
+    }
+
+    @Test
+    public void adaptiveFlushes() {
+        FlushPolicy.Adaptive policy = new FlushPolicy.Adaptive(16384, 1 << 20, 16000000L);
+        assertEquals(16384, policy.flushChars());
+        //1ns a char can be a million chars, 1µs only 16000
+        policy.flushed(16384, 16384L);
+        assertEquals(1 << 20, policy.flushChars());
+        for (int i = 0; i < 20; i++) {
+            policy.flushed(policy.flushChars(), policy.flushChars() * 1000L);
+        }
+        assertEquals(16000, policy.flushChars(), 100);
+        ParserDocument doc = new ParserDocument(new CompactContent());
+        BufferedStyledDocumentBuilder builder = new BufferedStyledDocumentBuilder(doc);
+        builder.setFlushPolicy(new FlushPolicy.Fixed(1000));
+        char[] line = "It was a dark and stormy night".toCharArray();
+        for (int i = 0; i < 1000; i++) {
+            builder.append(line, SimpleAttributeSet.EMPTY);
+            builder.appendEnd(SimpleAttributeSet.EMPTY);
+        }
+        builder.commit();
+        assertEquals(doc.getLength(), builder.getStatistics().getChars());
+        assertEquals(31, builder.getStatistics().getFlushes());
+    }
+
+    static final String[] REFORMATTED = {
+        //from ReparserTest
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" ?><!DOCTYPE html PUBLIC><html><head></head><body>"
+        + "<p class=MsoNormal>\t\r\n </p><p class=MsoNormal>wasn’t</p>\n\n\n"
+        + "<p class=MsoNormal>- difficult. Busi\u00ADness    is good</p></body></html>",
+        //names before and after their links, unlinked and empty names, black text
+        "<html><head><title>Names</title></head><body><a name=top></a>"
+        + "<a href=#ref><p>Link failure</p></a><p><a href=#ref2>Link</a> and <font color=black>black</font></p>"
+        + "<a name=ref2><p>Real    Link</p></a><a name=unlinked><p>  nobody links here</p></a>"
+        + "<a name=wierd1></a><a name=wierd2></a><p>only one link?</p>"
+        + "<p>a paragraph</p><p>continued in lowercase <a name=space> </a><b>bold</b></p>"
+        + "<p><a href=#wierd1>Edge <img alt=\"case\" src=none.png></a> <a href=#top>1</a></p>"
+        + "<p><a href=\"#wierd2\">Edge Case 2</a></p></body></html>",
+        book()
+    };
+
+    private static StyledDocument reparsed(String html) {
+        return new Reparser().reParse(new HtmlLoader().create(html, properties(false, null)));
+    }
+
+    @Test
+    public void reformattedAsReparsed() throws BadLocationException {
+        for (String html : REFORMATTED) {
+            StyledDocument expected = reparsed(html);
+            StyledDocument doc = new HtmlLoader().create(html, properties(true, null));
+            assertEquals(expected.getText(0, expected.getLength()), doc.getText(0, doc.getLength()));
+            assertEquals(expected.getDefaultRootElement().getElementCount(), doc.getDefaultRootElement().getElementCount());
+            //the leafs can be split differently, the attributes of the chars not
+            int offset = 0;
+            while (offset < expected.getLength()) {
+                Element e = expected.getCharacterElement(offset);
+                Element d = doc.getCharacterElement(offset);
+                assertEquals("names at " + offset, names(e), names(d));
+                assertTrue("attributes at " + offset, withoutNames(e).isEqual(withoutNames(d)));
+                offset = Math.min(e.getEndOffset(), d.getEndOffset());
+            }
+            assertEquals(((AbstractDocument) expected).getDocumentProperties(), ((AbstractDocument) doc).getDocumentProperties());
+        }
+    }
+
+    private static Collection<?> names(Element e) {
+        Collection<?> names = (Collection<?>) e.getAttributes().getAttribute(HTML.Attribute.NAME);
+        return names == null ? new HashSet<>() : new HashSet<>(names);
+    }
+
+    private static SimpleAttributeSet withoutNames(Element e) {
+        SimpleAttributeSet set = new SimpleAttributeSet(e.getAttributes());
+        set.removeAttribute(HTML.Attribute.NAME);
+        return set;
+    }
+
+    /**
+     * Time and peak heap of reformatting while parsing and of reformatting
+     * the parsed document
+     */
+    //@Test
+    public void reformatFootprint() {
+        String book = book();
+        for (int i = 0; i < 3; i++) {
+            reparsed(book);
+            new HtmlLoader().create(book, properties(true, null));
+        }
+        for (int i = 0; i < 2; i++) {
+            resetPeak();
+            long start = System.nanoTime();
+            StyledDocument doc = reparsed(book);
+            long twoPass = System.nanoTime() - start;
+            long twoPassPeak = peak();
+            doc = null;
+            resetPeak();
+            start = System.nanoTime();
+            doc = new HtmlLoader().create(book, properties(true, null));
+            long onePass = System.nanoTime() - start;
+            long onePassPeak = peak();
+            System.out.println("html of " + book.length() / 1024 + "KB: reparsed " + twoPass / 1000000 + "ms "
+                    + twoPassPeak / 1024 / 1024 + "MB peak, reformatted while parsing " + onePass / 1000000 + "ms "
+                    + onePassPeak / 1024 / 1024 + "MB peak");
+        }
+    }
+
+    private static void resetPeak() {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,133 @@
+package i3.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.text.DefaultStyledDocument;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LoadPhaseTest {
+
+    private static final String HTML = "<html><body><p>It was a <i>dark</i> and stormy night</p></body></html>";
+
+    private static final class Phases implements PhaseListener {
+
+        final List<String> names = new ArrayList<>();
+        final Map<String, Long> nanos = new HashMap<>();
+
+        @Override
+        public void startDocument(DefaultStyledDocument doc) {
+        }
+
+        @Override
+        public void endDocument(DefaultStyledDocument doc) {
+        }
+
+        @Override
+        public void phase(String name, long nanos) {
+            assertTrue(nanos >= 0);
+            names.add(name);
+            this.nanos.put(name, nanos);
+        }
+    }
+
+    private static Map<Property, Object> properties(ParserListener listener) {
+        Map<Property, Object> p = new EnumMap<>(Property.class);
+        p.put(Property.REFORMAT, true);
+        p.put(Property.PARSER_LISTENER, listener);
+        return p;
+    }
+
+    @Test
+    public void listenerToldThePhases() throws Exception {
+        Phases phases = new Phases();
+        new HtmlLoader().create(new ByteArrayInputStream(HTML.getBytes("UTF-8")), properties(phases));
+        assertEquals(Arrays.asList("charset", "parse", "reparse"), phases.names);
+        phases.names.clear();
+        Map<Property, Object> p = properties(phases);
+        LoadPhase.start("decrypt", p).end();
+        assertEquals(Collections.singletonList("decrypt"), phases.names);
+    }
+
+    @Test
+    public void charsetProbeInItsPhase() throws Exception {
+        //a stream slow to give the first bytes, read by the charset probe
+        InputStream slow = new FilterInputStream(new ByteArrayInputStream(HTML.getBytes("UTF-8"))) {
+            private boolean first = true;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (first) {
+                    first = false;
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException ex) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+        Phases phases = new Phases();
+        new HtmlLoader().create(slow, properties(phases));
+        assertTrue(phases.nanos.toString(), phases.nanos.get("charset") >= 200000000L);
+    }
+
+    @Test
+    public void flightRecorderEvents() throws Exception {
+        Path file = Files.createTempFile("phases", ".jfr");
+        file.toFile().deleteOnExit();
+        try (Recording recording = new Recording()) {
+            recording.enable("i3.parser.LoadPhase");
+            recording.start();
+            LoadPhase open = LoadPhase.start("open", null).book("synthetic.html", HTML.length());
+            new HtmlLoader().create(new ByteArrayInputStream(HTML.getBytes("UTF-8")), new EnumMap<Property, Object>(Property.class));
+            open.end();
+            recording.stop();
+            recording.dump(file);
+        }
+        List<String> names = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            names.add(event.getString("phase"));
+            if ("open".equals(event.getString("phase"))) {
+                assertEquals("synthetic.html", event.getString("book"));
+                assertEquals(HTML.length(), event.getLong("bytes"));
+            }
+        }
+        assertTrue(names.toString(), names.containsAll(Arrays.asList("open", "charset", "parse")));
+        Files.delete(file);
+    }
+
+    @Test
+    public void histogram() {
+        LoadHistogram h = new LoadHistogram();
+        assertEquals(-1, h.percentileMillis("HtmlLoader", 1000, 0.5));
+        for (int i = 0; i < 9; i++) {
+            h.record("HtmlLoader", 100 * 1024, 3000000L);
+        }
+        h.record("HtmlLoader", 200 * 1024, 900000000L);
+        h.record("HtmlLoader", 10 * 1024 * 1024, 60000000000L);
+        h.record("TxtLoader", -1, 0);
+        assertEquals(4, h.percentileMillis("HtmlLoader", 100 * 1024, 0.5));
+        assertEquals(1024, h.percentileMillis("HtmlLoader", 100 * 1024, 1));
+        assertEquals(Long.MAX_VALUE, h.percentileMillis("HtmlLoader", 5 * 1024 * 1024, 0.9));
+        assertEquals("HtmlLoader <256KB: 10 opens, p50 <4ms, p90 <4ms, max <1024ms\n"
+                + "HtmlLoader <16MB: 1 opens, p50 >=16384ms, p90 >=16384ms, max >=16384ms\n"
+                + "TxtLoader unknown size: 1 opens, p50 <1ms, p90 <1ms, max <1ms\n", h.toString());
+    }
+}
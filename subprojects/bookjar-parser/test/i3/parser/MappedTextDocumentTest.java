@@ -0,0 +1,134 @@
+package i3.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MappedTextDocumentTest {
+
+    private static final String LINES = "First line\nSecond, with a café\n\nFourth 𝄞 clef\n";
+
+    private static Path file(byte[] bytes) throws Exception {
+        Path file = Files.createTempFile("mapped", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, bytes);
+        return file;
+    }
+
+    /**
+     * The mapped document has the same text and paragraphs as the parsed
+     */
+    private static void assertSameAsParsed(byte[] bytes) throws Exception {
+        Map<Property, Object> properties = new EnumMap<>(Property.class);
+        StyledDocument parsed = new TxtLoader().create(new ByteArrayInputStream(bytes), properties);
+        MappedTextDocument mapped = MappedTextDocument.open(file(bytes));
+        assertNotNull(mapped);
+        assertEquals(parsed.getLength(), mapped.getLength());
+        assertEquals(parsed.getText(0, parsed.getLength() + 1), mapped.getText(0, mapped.getLength() + 1));
+        Element parsedRoot = parsed.getDefaultRootElement();
+        Element mappedRoot = mapped.getDefaultRootElement();
+        assertEquals(parsedRoot.getElementCount(), mappedRoot.getElementCount());
+        for (int i = 0; i < parsedRoot.getElementCount(); i++) {
+            Element p = parsedRoot.getElement(i);
+            Element m = mappedRoot.getElement(i);
+            assertEquals(p.getStartOffset(), m.getStartOffset());
+            assertEquals(p.getEndOffset(), m.getEndOffset());
+            assertEquals(i, mappedRoot.getElementIndex(m.getStartOffset()));
+            assertEquals(m, mapped.getParagraphElement(m.getEndOffset() - 1));
+        }
+        //windows in any place
+        for (int i = 0; i + 5 <= parsed.getLength(); i += 3) {
+            assertEquals(parsed.getText(i, 5), mapped.getText(i, 5));
+        }
+    }
+
+    @Test
+    public void sameAsParsed() throws Exception {
+        assertSameAsParsed(LINES.getBytes("UTF-8"));
+        assertSameAsParsed(LINES.replace("\n", "\r\n").getBytes("UTF-8"));
+        assertSameAsParsed(LINES.replace("\n", "\r").getBytes("UTF-8"));
+        assertSameAsParsed("no trailing\r\n\r\nnewline".getBytes("UTF-8"));
+        String latin = LINES.replace("𝄞", "§");
+        StringBuilder many = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            many.append(latin);
+        }
+        assertSameAsParsed(many.toString().getBytes("windows-1252"));
+    }
+
+    @Test
+    public void attributesOfAllText() throws Exception {
+        MappedTextDocument mapped = MappedTextDocument.open(file(LINES.getBytes("UTF-8")));
+        SimpleAttributeSet bold = new SimpleAttributeSet();
+        StyleConstants.setBold(bold, true);
+        mapped.setCharacterAttributes(0, mapped.getLength(), bold, false);
+        AttributeSet last = mapped.getCharacterElement(mapped.getLength() - 1).getAttributes();
+        assertTrue(StyleConstants.isBold(last));
+        StyleConstants.setLeftIndent(bold, 2f);
+        mapped.setParagraphAttributes(0, mapped.getLength(), bold, true);
+        assertEquals(2f, StyleConstants.getLeftIndent(mapped.getParagraphElement(0).getAttributes()), 0f);
+    }
+
+    @Test
+    public void partialSegments() throws Exception {
+        StringBuilder many = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            many.append("Line ").append(i).append(i % 3 == 0 ? "\n\n" : "\n");
+        }
+        MappedTextDocument mapped = MappedTextDocument.open(file(many.toString().getBytes("US-ASCII")));
+        Segment first = new Segment();
+        first.setPartialReturn(true);
+        mapped.getText(0, mapped.getLength(), first);
+        assertTrue(first.count > 0 && first.count < mapped.getLength());
+        String start = first.toString();
+        //the text of the segments given before doesn't change
+        StringBuilder read = new StringBuilder(start);
+        Segment next = new Segment();
+        next.setPartialReturn(true);
+        while (read.length() < mapped.getLength()) {
+            mapped.getText(read.length(), mapped.getLength() - read.length(), next);
+            read.append(next);
+        }
+        assertEquals(start, first.toString());
+        assertEquals(many.toString(), read.toString());
+    }
+
+    /**
+     * Time and heap to open and read the start of a big text
+     */
+    //@Test
+    public void bigFile() throws Exception {
+        Path file = Files.createTempFile("mapped", ".txt");
+        file.toFile().deleteOnExit();
+        byte[] line = "Well, Prince, so Genoa and Lucca are now just family estates of the Buonapartes.\n".getBytes("UTF-8");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < 500L * 1024 * 1024; written += line.length) {
+                out.write(line);
+            }
+        }
+        MemoryMXBean m = ManagementFactory.getMemoryMXBean();
+        m.gc();
+        long mem = m.getHeapMemoryUsage().getUsed();
+        long time = System.nanoTime();
+        MappedTextDocument mapped = MappedTextDocument.open(file);
+        mapped.getText(0, 4096);
+        time = System.nanoTime() - time;
+        m.gc();
+        mem = m.getHeapMemoryUsage().getUsed() - mem;
+        System.out.println("mapped in " + time / 1000000 + "ms, " + mem / 1024 + "KB of heap, " + mapped.getLength() + " chars");
+        Files.delete(file);
+    }
+}
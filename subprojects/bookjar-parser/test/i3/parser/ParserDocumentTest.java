@@ -10,12 +10,17 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.DefaultStyledDocument.ElementSpec;
 import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTML;
 import static org.junit.Assert.*;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -59,6 +64,41 @@ public class ParserDocumentTest {
         assertEquals(what + whitespace, instance.getText(0, instance.getLength()));
     }
 
+    @Test
+    public void insertPartOfArray() throws Exception {
+        char[] chars = "not what is inserted".toCharArray();
+        ParserDocument gap = new ParserDocument();
+        ParserDocument compact = new ParserDocument(new CompactContent());
+        for (ParserDocument instance : new ParserDocument[]{gap, compact}) {
+            ElementSpec[] data = new ElementSpec[3];
+            fillData(data, "ab", instance);
+            data[0] = new ElementSpec(null, ElementSpec.ContentType, chars, 4, 4);
+            instance.insert(0, data);
+            instance.insert(0, data);
+            assertEquals("whatwhat", instance.getText(0, instance.getLength()));
+        }
+    }
+
+    @Test
+    public void internedAttributes() throws Exception {
+        SimpleAttributeSet italic = new SimpleAttributeSet();
+        StyleConstants.setItalic(italic, true);
+        assertSame(ParserDocument.intern(italic), ParserDocument.intern(italic.copyAttributes()));
+        //documents share the sets of their text (a leaf copy is its set)
+        ParserDocument first = new ParserDocument();
+        ParserDocument second = new ParserDocument();
+        first.insertString(0, "a", italic);
+        second.insertString(0, "b", italic);
+        assertSame(first.getCharacterElement(0).getAttributes().copyAttributes(), second.getCharacterElement(0).getAttributes().copyAttributes());
+        //but not the name lists, that change after parsing
+        SimpleAttributeSet named = new SimpleAttributeSet();
+        named.addAttribute(HTML.Attribute.NAME, new LinkedList<>(Arrays.asList("chapter")));
+        AttributeSet interned = ParserDocument.intern(named);
+        named.addAttribute(HTML.Attribute.NAME, new LinkedList<>(Arrays.asList("chapter")));
+        assertNotSame(interned, ParserDocument.intern(named));
+        assertTrue(interned.isEqual(named));
+    }
+
     @Test(expected = BadLocationException.class)
     public void overflowInsert() throws Exception {
         final String what = "what";
@@ -0,0 +1,97 @@
+package i3.parser;
+
+import java.util.EnumMap;
+import java.util.Map;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ReparserRangesTest {
+
+    /**
+     * Paragraphs that are joined, empty and named at every range seam
+     */
+    private static String text(int paragraphs) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            switch (i % 5) {
+                case 0:
+                    b.append("  It was a dark and stormy night;   the rain fell in torrents\n");
+                    break;
+                case 1:
+                    b.append("except at occasional intervals, when it was checked\n");
+                    break;
+                case 2:
+                    b.append(" \t \n");
+                    break;
+                case 3:
+                    b.append("‧ by a violent gust of wind\n");
+                    break;
+                default:
+                    b.append("For it is in London that our scene lies.\n");
+            }
+        }
+        return b.toString();
+    }
+
+    private static StyledDocument raw(BookLoader loader, String book) {
+        Map<Property, Object> p = new EnumMap<>(Property.class);
+        return loader.create(book, p);
+    }
+
+    @Test
+    public void sameForAnyRange() throws BadLocationException {
+        Object[][] books = {
+            {new TxtLoader(), text(2000)},
+            {new HtmlLoader(), HtmlLoaderTest.REFORMATTED[1]},
+            {new HtmlLoader(), HtmlLoaderTest.book()}
+        };
+        for (Object[] book : books) {
+            BookLoader loader = (BookLoader) book[0];
+            String text = (String) book[1];
+            StyledDocument serial = new Reparser().reParse(raw(loader, text), Integer.MAX_VALUE);
+            for (int range : new int[]{1, 2, 3, 7, 500}) {
+                StyledDocument parallel = new Reparser().reParse(raw(loader, text), range);
+                assertEquals(serial.getText(0, serial.getLength()), parallel.getText(0, parallel.getLength()));
+                assertSameElements(range + " paragraphs", serial.getDefaultRootElement(), parallel.getDefaultRootElement());
+                assertEquals(((AbstractDocument) serial).getDocumentProperties(), ((AbstractDocument) parallel).getDocumentProperties());
+            }
+        }
+    }
+
+    private static void assertSameElements(String range, Element expected, Element actual) {
+        String at = range + " at " + expected.getStartOffset();
+        assertEquals(at, expected.getStartOffset(), actual.getStartOffset());
+        assertEquals(at, expected.getEndOffset(), actual.getEndOffset());
+        assertEquals(at, expected.getElementCount(), actual.getElementCount());
+        if (expected.isLeaf()) {
+            assertTrue(at, expected.getAttributes().isEqual(actual.getAttributes()));
+        }
+        for (int i = 0; i < expected.getElementCount(); i++) {
+            assertSameElements(range, expected.getElement(i), actual.getElement(i));
+        }
+    }
+
+    /**
+     * Time to reparse a 10MB book in a single range and in the default ranges
+     */
+    //@Test
+    public void parallelSpeedup() {
+        String book = text(256 * 1024);
+        for (int i = 0; i < 5; i++) {
+            StyledDocument serialDoc = raw(new TxtLoader(), book);
+            StyledDocument parallelDoc = raw(new TxtLoader(), book);
+            long start = System.nanoTime();
+            new Reparser().reParse(serialDoc, Integer.MAX_VALUE);
+            long serial = System.nanoTime() - start;
+            start = System.nanoTime();
+            new Reparser().reParse(parallelDoc);
+            long parallel = System.nanoTime() - start;
+            System.out.println("txt of " + book.length() / 1024 / 1024 + "MB with " + Runtime.getRuntime().availableProcessors()
+                    + " cores: serial " + serial / 1000000 + "ms, parallel " + parallel / 1000000 + "ms");
+        }
+    }
+}
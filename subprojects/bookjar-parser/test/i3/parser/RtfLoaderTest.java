@@ -0,0 +1,133 @@
+package i3.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Objects;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import javax.swing.text.rtf.RTFEditorKit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RtfLoaderTest {
+
+    private static final String HEADER = "{\\rtf1\\ansi\\ansicpg1252\\deff0{\\fonttbl{\\f0\\froman\\fcharset0 Times New Roman;}{\\f1\\fswiss Arial;}}"
+            + "{\\colortbl;\\red255\\green0\\blue0;\\red0\\green0\\blue128;}"
+            + "{\\stylesheet{\\s0 Normal;}}{\\info{\\title A book}{\\author Someone}}{\\*\\generator Some exporter;}\n";
+
+    private static StyledDocument streamed(String rtf) throws IOException {
+        return new RtfLoader().create(new ByteArrayInputStream(rtf.getBytes("US-ASCII")), new EnumMap<Property, Object>(Property.class));
+    }
+
+    /**
+     * The differences of the text and of the character attributes both know
+     * with the document of RTFEditorKit
+     */
+    private static List<String> diff(String rtf) throws IOException, BadLocationException {
+        DefaultStyledDocument kit = new DefaultStyledDocument();
+        new RTFEditorKit().read(new ByteArrayInputStream(rtf.getBytes("US-ASCII")), kit, 0);
+        StyledDocument streamed = streamed(rtf);
+        List<String> differences = new ArrayList<>();
+        String kitText = kit.getText(0, kit.getLength());
+        String streamedText = streamed.getText(0, streamed.getLength());
+        if (!kitText.equals(streamedText)) {
+            differences.add("text '" + kitText + "' is '" + streamedText + "'");
+            return differences;
+        }
+        String[] names = {"bold", "italic", "underline", "family", "size", "color"};
+        for (int i = 0; i < kitText.length(); i++) {
+            Object[] kitValues = values(kit.getCharacterElement(i).getAttributes());
+            Object[] streamedValues = values(streamed.getCharacterElement(i).getAttributes());
+            for (int j = 0; j < names.length; j++) {
+                if (!Objects.equals(kitValues[j], streamedValues[j])) {
+                    differences.add(names[j] + " of '" + kitText.charAt(i) + "' at " + i + " " + kitValues[j] + " is " + streamedValues[j]);
+                }
+            }
+        }
+        return differences;
+    }
+
+    private static Object[] values(AttributeSet set) {
+        return new Object[]{StyleConstants.isBold(set), StyleConstants.isItalic(set), StyleConstants.isUnderline(set),
+            StyleConstants.getFontFamily(set), StyleConstants.getFontSize(set), StyleConstants.getForeground(set)};
+    }
+
+    @Test
+    public void sameAsRtfEditorKit() throws Exception {
+        String rtf = HEADER + "\\f0\\fs24\\pard\\fi227\\sa120 Plain text, {\\i italic {\\b and bold}} and {\\ul underlined}.\\par\n"
+                + "\\pard\\qc {\\f1\\fs32\\cf1 A red title\\cf0}\\par\n"
+                + "Escapes: caf\\'e9, \\u8220?unicode\\u8221?, {\\uc2\\u8212\\'97\\'97}, \\{braces\\}, back\\\\slash.\\par\n"
+                + "Words:\\tab tab\\emdash dash\\endash\\lquote q\\rquote\\ldblquote qq\\rdblquote\\bullet\\par\n"
+                + "{\\pict\\wmetafile8 0123456789abcdef}Skipped {\\*\\unknown destinations}\\par\n"
+                + "{\\cf2 Navy} text at the end without par}";
+        assertEquals(Collections.emptyList(), diff(rtf));
+    }
+
+    @Test
+    public void differencesWithRtfEditorKit() throws Exception {
+        String rtf = HEADER + "\\pard First\\line second\\par\n"
+                + "\\'93{\\strike struck} {\\super sup}{\\sub sub} {\\v hidden}soft\\-hyphen\\par\n"
+                + "{\\field{\\*\\fldinst HYPERLINK \"#chapter\"}{\\fldrslt link}}\\par\n"
+                + "{\\*\\bkmkstart chapter}{\\*\\bkmkend chapter}Bookmarked\\par}";
+        StyledDocument doc = streamed(rtf);
+        assertEquals("First\nsecond\n\u201Cstruck supsub softhyphen\nlink\nBookmarked\n", doc.getText(0, doc.getLength()));
+        assertTrue(StyleConstants.isStrikeThrough(doc.getCharacterElement(doc.getText(0, doc.getLength()).indexOf("struck")).getAttributes()));
+        assertTrue(StyleConstants.isSuperscript(doc.getCharacterElement(doc.getText(0, doc.getLength()).indexOf("sup")).getAttributes()));
+        //the kit doesn't know \line without a fix, strikes with other key, keeps
+        //hidden text, skips the field result, writes the optional hyphen and
+        //drops the windows-1252 chars that are not latin-1
+        List<String> differences = diff(rtf);
+        assertFalse(differences.isEmpty());
+        for (String difference : differences) {
+            System.err.println("RTFEditorKit difference: " + difference);
+        }
+        //codepages of the document and the fonts are decoded, the kit only knows ansi
+        rtf = "{\\rtf1\\ansi\\ansicpg1251{\\fonttbl{\\f0\\fcharset204 Arial Cyr;}{\\f1\\fcharset161 Arial Greek;}}"
+                + "\\f0 \\'cf\\'f0\\'e8\\'e2\\'e5\\'f2 {\\f1 \\'e1\\'e5\\'e7}\\par}";
+        doc = streamed(rtf);
+        assertEquals("Привет αεη\n", doc.getText(0, doc.getLength()));
+        String sjis = "{\\rtf1\\ansi\\ansicpg932 \\'93\\'fa\\'96\\'7b\\par}";
+        doc = streamed(sjis);
+        assertEquals("日本\n", doc.getText(0, doc.getLength()));
+    }
+
+    @Test
+    public void unbalancedAndTruncated() throws Exception {
+        StyledDocument doc = streamed("{\\rtf1 text}} after\\par}");
+        assertEquals("text\n after\n", doc.getText(0, doc.getLength()));
+        doc = streamed("{\\rtf1 {\\b trunc\\'e");
+        assertEquals("trunc\n", doc.getText(0, doc.getLength()));
+        assertTrue(StyleConstants.isBold(doc.getCharacterElement(0).getAttributes()));
+    }
+
+    /**
+     * Time of RTFEditorKit and the RtfLoader for a multi MB book
+     */
+    //@Test
+    public void performance() throws Exception {
+        StringBuilder b = new StringBuilder(HEADER);
+        while (b.length() < 8 * 1024 * 1024) {
+            b.append("\\pard\\fi227\\sa120 Well, Prince, so Genoa and Lucca are now just {\\i family estates} of the Buonapartes, caf\\'e9 \\u8220?quote\\u8221?.\\par\n");
+        }
+        b.append('}');
+        byte[] rtf = b.toString().getBytes("US-ASCII");
+        ThreadMXBean t = ManagementFactory.getThreadMXBean();
+        long time = t.getCurrentThreadCpuTime();
+        new RTFEditorKit().read(new ByteArrayInputStream(rtf), new ParserDocument(), 0);
+        long kitTime = t.getCurrentThreadCpuTime() - time;
+        time = t.getCurrentThreadCpuTime();
+        new RtfLoader().create(new ByteArrayInputStream(rtf), new EnumMap<Property, Object>(Property.class));
+        long streamedTime = t.getCurrentThreadCpuTime() - time;
+        System.out.println("rtf of " + rtf.length / 1024 + "KB: RTFEditorKit in " + kitTime / 1000000 + "ms, RtfLoader in " + streamedTime / 1000000 + "ms");
+        assertTrue(streamedTime * 10 < kitTime);
+    }
+}
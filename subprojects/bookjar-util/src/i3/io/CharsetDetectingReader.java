@@ -0,0 +1,118 @@
+package i3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Arrays;
+import org.mozilla.universalchardet.UniversalDetector;
+
+/**
+ * A reader that finds the charset of a stream in the same pass that decodes
+ * it, instead of marking, probing and resetting it.
+ *
+ * The first bytes go to the charset detector until it is sure of the charset
+ * or the limit is read, and only those are decoded again, the rest of the
+ * stream is decoded as it is read. If the detector is not sure at the limit,
+ * its guess is used, then (for html) a charset declaration in the bytes read,
+ * then the default charset.
+ *
+ * @author i30817
+ */
+public final class CharsetDetectingReader extends Reader {
+
+    //bytes given to the detector at a time, so it can stop early
+    private static final int PROBE_BYTES = 1024;
+    private final InputStream in;
+    private final int limit;
+    private final String defaultCharset;
+    private final boolean html;
+    private Reader decoder;
+    private String charset;
+
+    /**
+     * @param in the stream to decode, closed with the reader
+     * @param limit the maximum bytes read before deciding the charset
+     * @param defaultCharset used if no charset is found
+     * @param html if a html charset declaration is used when the detector
+     * fails
+     */
+    public CharsetDetectingReader(InputStream in, int limit, String defaultCharset, boolean html) {
+        super();
+        this.in = in;
+        this.limit = limit;
+        this.defaultCharset = defaultCharset;
+        this.html = html;
+    }
+
+    /**
+     * @return the charset of the stream, reading it until it is found
+     */
+    public String getCharset() throws IOException {
+        detect();
+        return charset;
+    }
+
+    private void detect() throws IOException {
+        if (decoder != null) {
+            return;
+        }
+        UniversalDetector detector = new UniversalDetector(null);
+        byte[] probed = new byte[Math.min(limit, 8 * PROBE_BYTES)];
+        int length = 0;
+        while (length < limit && !detector.isDone()) {
+            if (length == probed.length) {
+                probed = Arrays.copyOf(probed, Math.min(limit, probed.length * 2));
+            }
+            int read = in.read(probed, length, Math.min(PROBE_BYTES, probed.length - length));
+            if (read == -1) {
+                break;
+            }
+            detector.handleData(probed, length, read);
+            length += read;
+        }
+        detector.dataEnd();
+        charset = detector.getDetectedCharset();
+        if (charset == null && html) {
+            charset = IoUtils.parseCharset(probed, length);
+        }
+        if (!isSupported(charset)) {
+            charset = defaultCharset;
+        }
+        //only the probed bytes are read again
+        InputStream replay = new SequenceInputStream(new ByteArrayInputStream(probed, 0, length), in);
+        decoder = new InputStreamReader(replay, charset);
+    }
+
+    private static boolean isSupported(String charset) {
+        try {
+            return charset != null && Charset.isSupported(charset);
+        } catch (IllegalCharsetNameException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        detect();
+        return decoder.read(cbuf, off, len);
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return decoder != null && decoder.ready();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (decoder == null) {
+            in.close();
+        } else {
+            decoder.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package i3.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * The state of a directory tree as seen by a {@link ParallelFileScanner}: for
+ * each directory, relative to the root, its last modified time, number of
+ * entries, the names of the accepted files and of the subdirectories.
+ *
+ * A directory last modified time changes when entries are created, deleted
+ * or renamed on it, so if it didn't change, its listing can be trusted from
+ * here (modifications on subdirectories only change the subdirectory).
+ *
+ * @author i30817
+ */
+public final class DirectorySnapshot {
+
+    private static final int VERSION = 1;
+    private static final String[] NONE = new String[0];
+    private final String root;
+    private final Map<String, Directory> directories;
+
+    public static final class Directory {
+
+        /**
+         * Not trusted when it's this
+         */
+        static final long UNKNOWN = Long.MIN_VALUE;
+        public final long lastModified;
+        public final int entries;
+        public final String[] files;
+        public final String[] subdirectories;
+
+        Directory(long lastModified, int entries, String[] files, String[] subdirectories) {
+            this.lastModified = lastModified;
+            this.entries = entries;
+            this.files = files;
+            this.subdirectories = subdirectories;
+        }
+    }
+
+    /**
+     * A empty snapshot, where every directory is changed
+     */
+    public DirectorySnapshot() {
+        this("", Collections.<String, Directory>emptyMap());
+    }
+
+    DirectorySnapshot(String root, Map<String, Directory> directories) {
+        this.root = root;
+        this.directories = directories;
+    }
+
+    /**
+     * Creates a snapshot that can be filled concurrently
+     */
+    static DirectorySnapshot concurrent(Path root) {
+        return new DirectorySnapshot(root.toString(), new ConcurrentHashMap<String, Directory>());
+    }
+
+    void put(String relativeDir, Directory d) {
+        directories.put(relativeDir, d);
+    }
+
+    /**
+     * @return the recorded directory if it has the given last modified time
+     * and was taken for the given root, otherwise null
+     */
+    Directory unchanged(Path scanRoot, String relativeDir, long lastModified) {
+        if (!root.equals(scanRoot.toString())) {
+            return null;
+        }
+        Directory d = directories.get(relativeDir);
+        return d != null && d.lastModified == lastModified && lastModified != Directory.UNKNOWN ? d : null;
+    }
+
+    public int size() {
+        return directories.size();
+    }
+
+    /**
+     * Reads a snapshot, or returns a empty one if the file doesn't exist or
+     * can't be read
+     */
+    public static DirectorySnapshot read(Path file) {
+        if (!Files.isReadable(file)) {
+            return new DirectorySnapshot();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            if (in.readInt() != VERSION) {
+                return new DirectorySnapshot();
+            }
+            String root = in.readUTF();
+            int size = in.readInt();
+            Map<String, Directory> directories = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                int entries = in.readInt();
+                directories.put(path, new Directory(lastModified, entries, readStrings(in), readStrings(in)));
+            }
+            return new DirectorySnapshot(root, directories);
+        } catch (IOException ex) {
+            LogManager.getLogger().warn("couldn't read directory snapshot " + ex.getMessage());
+            return new DirectorySnapshot();
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == 0) {
+            return NONE;
+        }
+        String[] s = new String[length];
+        for (int i = 0; i < length; i++) {
+            s[i] = in.readUTF();
+        }
+        return s;
+    }
+
+    /**
+     * Writes the snapshot, atomically replacing the file
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(temp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout, 65536))) {
+            out.writeInt(VERSION);
+            out.writeUTF(root);
+            out.writeInt(directories.size());
+            for (Map.Entry<String, Directory> e : directories.entrySet()) {
+                Directory d = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(d.lastModified);
+                out.writeInt(d.entries);
+                writeStrings(out, d.files);
+                writeStrings(out, d.subdirectories);
+            }
+            out.flush();
+            fout.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+}
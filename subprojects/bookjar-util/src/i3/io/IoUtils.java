@@ -587,21 +587,27 @@ public final class IoUtils {
      * @throws IOException if there is a problem reading from the inputstream
      */
     public static String parseCharset(InputStream i, int limit) throws IOException {
+        byte[] limitArr = new byte[limit];
+        int read = i.read(limitArr, 0, limit);
+        if (read == -1) {
+            throw new IllegalArgumentException("Stream cant be read for some reason, current limit is " + limit);
+        }
+        return parseCharset(limitArr, read);
+    }
+
+    /**
+     * @return the html charset in the first length bytes or null if none found
+     */
+    static String parseCharset(byte[] bytes, int length) {
         //find as utf-8
         Matcher mt;
         try {
-            byte[] limitArr = new byte[limit];
-            int read = i.read(limitArr, 0, limit);
-            if (read == -1) {
-                throw new IllegalArgumentException("Stream cant be read for some reason, current limit is " + limit);
-            }
-
-            mt = charsetPattern.matcher(new String(limitArr, 0, read, "UTF-8"));
+            mt = charsetPattern.matcher(new String(bytes, 0, length, "UTF-8"));
             if (mt.find() && Charset.isSupported(mt.group(1))) {
                 return mt.group(1);
             }
             //find as utf-16
-            mt = charsetPattern.matcher(new String(limitArr, 0, read, "UTF-16"));
+            mt = charsetPattern.matcher(new String(bytes, 0, length, "UTF-16"));
             if (mt.find() && Charset.isSupported(mt.group(1))) {
                 return mt.group(1);
             }
@@ -0,0 +1,201 @@
+package i3.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * A append only file of checksummed records. Each record is written to the
+ * file as soon as it's appended, but only synced to the disk after a delay, so
+ * that bursts of appends pay for a single sync.
+ *
+ * Records are framed as length, crc32 and content. A crash in the middle of a
+ * append leaves a truncated or corrupt record at the end of the file; replay
+ * stops there and the next append overwrites it.
+ *
+ * The journal must be replayed before appending to it, since replay finds
+ * where the valid records end.
+ *
+ * @author i30817
+ */
+public final class Journal implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+    private final ScheduledExecutorService syncer;
+    private final long syncDelay;
+    private final FileChannel channel;
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sync();
+            } catch (IOException ex) {
+                LogManager.getLogger().error("couldn't sync journal", ex);
+            }
+        }
+    };
+    private ScheduledFuture<?> pendingSync;
+    private long end = -1;
+    private int records;
+
+    /**
+     * @param file the journal, created if it doesn't exist
+     * @param syncDelayMillis maximum time a appended record waits before being
+     * synced to disk
+     * @throws IOException if the file can't be opened for writing
+     */
+    public Journal(Path file, long syncDelayMillis) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        syncDelay = syncDelayMillis;
+        syncer = Executors.newSingleThreadScheduledExecutor(IoUtils.createThreadFactory(true, "Journal sync"));
+    }
+
+    /**
+     * Callback for the records, in the order they were appended
+     */
+    public interface Replay {
+
+        void record(byte[] record) throws IOException;
+    }
+
+    /**
+     * Reads the records sequentially from the start of the file, stopping at
+     * the first truncated or corrupt one.
+     *
+     * @param replay called for every valid record
+     * @return number of records replayed
+     * @throws IOException if the replay callback throws it or the file can't
+     * be read
+     */
+    public synchronized int replay(Replay replay) throws IOException {
+        long valid = 0;
+        records = 0;
+        channel.position(0);
+        //not closed, since it would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 65536));
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                int length = in.readInt();
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                if (length < 0 || length > channel.size() - valid - HEADER_SIZE) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record, 0, length);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                replay.record(record);
+                valid += HEADER_SIZE + length;
+                records++;
+            }
+        } catch (EOFException ex) {
+            //normal end or truncated record
+        }
+        if (valid != channel.size()) {
+            LogManager.getLogger().warn("discarding " + (channel.size() - valid) + " bytes of corrupt journal records");
+            channel.truncate(valid);
+        }
+        end = valid;
+        return records;
+    }
+
+    /**
+     * Appends a record. It's synced to the disk later, or on sync() or close().
+     *
+     * @throws IllegalStateException if the journal wasn't replayed yet
+     */
+    public void append(byte[] record) throws IOException {
+        append(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends records with a single write. They're synced to the disk later,
+     * or on sync() or close().
+     *
+     * @throws IllegalStateException if the journal wasn't replayed yet
+     */
+    public synchronized void append(List<byte[]> newRecords) throws IOException {
+        if (end == -1) {
+            throw new IllegalStateException("journal must be replayed before appending");
+        }
+        int size = 0;
+        for (byte[] record : newRecords) {
+            size += HEADER_SIZE + record.length;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : newRecords) {
+            crc.reset();
+            crc.update(record, 0, record.length);
+            buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+        records += newRecords.size();
+        if (pendingSync == null) {
+            pendingSync = syncer.schedule(syncTask, syncDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Discards all records. Use after the state they represent was saved
+     * elsewhere.
+     */
+    public synchronized void truncate() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+        end = 0;
+        records = 0;
+    }
+
+    /**
+     * Forces the appended records to disk now.
+     */
+    public synchronized void sync() throws IOException {
+        if (pendingSync != null) {
+            pendingSync.cancel(false);
+            pendingSync = null;
+        }
+        if (channel.isOpen()) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return records in the journal since the last replay or truncate
+     */
+    public synchronized int records() {
+        return records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            syncer.shutdownNow();
+            channel.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package i3.io;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -10,7 +11,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.Callable;
 import org.apache.logging.log4j.LogManager;
 
@@ -180,6 +183,24 @@ public final class ObjectsReader implements Closeable {
         }
     }
 
+    /**
+     * Writes objects to a temporary file, syncs it and then atomically
+     * replaces the given file, so that a crash leaves either the old or the
+     * new objects. Allows null objects
+     */
+    public static void replaceObjects(Path objectLocation, Serializable... obj) throws IOException {
+        Path temp = objectLocation.resolveSibling(objectLocation.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+                ObjectOutputStream s = new ObjectOutputStream(new BufferedOutputStream(out))) {
+            for (Serializable a : obj) {
+                s.writeObject(a);
+            }
+            s.flush();
+            out.getFD().sync();
+        }
+        Files.move(temp, objectLocation, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     public static abstract class ClassCallable<T> implements Callable<T> {
 
         Class<T> c;
@@ -0,0 +1,328 @@
+package i3.io;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * A parallel version of {@link FileVisitors.FilesTransformer}: directory
+ * subtrees are listed by the tasks of a ForkJoinPool, each worker thread
+ * records accepted files on its own Map, and the maps are merged into a
+ * canonical Map when the scan ends. Like walkFileTree, symbolic links to
+ * directories are not followed.
+ *
+ * Since the subtrees are visited concurrently, if two files transform to
+ * equal objects which one ends up in the canonical map is undefined.
+ *
+ * Scans can be incremental: given the {@link DirectorySnapshot} of a previous
+ * scan, directories whose last modified time didn't change are not listed,
+ * their accepted files and subdirectories are taken from the snapshot. Those
+ * files are given to accepts again, but not checked for readability.
+ *
+ * This class must be overriden to modify the accepts(OUT) method to filter and
+ * transform files (not directories). accepts and preVisitDirectory are called
+ * concurrently.
+ *
+ * @param <OUT> the transformation for the file output
+ * @author i30817
+ */
+public abstract class ParallelFileScanner<OUT> {
+
+    /**
+     * Directories visited between progress reports
+     */
+    private static final int PROGRESS_STRIDE = 256;
+    /**
+     * File systems with coarse timestamps (FAT has 2 seconds)
+     */
+    private static final long RACY_INTERVAL = 2000;
+    private final int parallelism;
+    private final Progress progress;
+    private final AtomicInteger directories = new AtomicInteger();
+    private final AtomicInteger listed = new AtomicInteger();
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final Queue<Map<OUT, OUT>> workerMaps = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Map<OUT, OUT>> workerMap = new ThreadLocal<Map<OUT, OUT>>() {
+        @Override
+        protected Map<OUT, OUT> initialValue() {
+            Map<OUT, OUT> m = new HashMap<>();
+            workerMaps.add(m);
+            return m;
+        }
+    };
+    private long start;
+    private Path root;
+    private DirectorySnapshot previous;
+    private DirectorySnapshot snapshot;
+
+    /**
+     * Receives the scan metrics, during (from the worker threads) and at the
+     * end of the scan (from the thread calling scan).
+     */
+    public interface Progress {
+
+        void progress(Metrics metrics);
+    }
+
+    public static final class Metrics {
+
+        public final int directories;
+        /**
+         * Directories that were listed, the others were unchanged
+         */
+        public final int listed;
+        public final int files;
+        public final int accepted;
+        public final long elapsedMillis;
+        public final boolean done;
+
+        Metrics(int directories, int listed, int files, int accepted, long elapsedMillis, boolean done) {
+            this.directories = directories;
+            this.listed = listed;
+            this.files = files;
+            this.accepted = accepted;
+            this.elapsedMillis = elapsedMillis;
+            this.done = done;
+        }
+
+        @Override
+        public String toString() {
+            return directories + " directories (" + listed + " listed), " + files + " files, " + accepted + " accepted in " + elapsedMillis + " ms";
+        }
+    }
+
+    /**
+     * @param parallelism number of threads listing directories, for network
+     * file systems it can be useful to have more than the number of cores
+     * @param progress receives metrics during the scan, may be null
+     */
+    public ParallelFileScanner(int parallelism, Progress progress) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.progress = progress;
+    }
+
+    /**
+     * Scans the tree under the given directory. A scanner can only be used
+     * once.
+     *
+     * @return canonical map of the accepted files
+     * @throws IOException if preVisitDirectory throws it
+     */
+    public final Map<OUT, OUT> scan(Path root) throws IOException {
+        return scan(root, new DirectorySnapshot());
+    }
+
+    /**
+     * Scans the tree under the given directory, only listing directories that
+     * changed since the given snapshot. A scanner can only be used once.
+     *
+     * @return canonical map of the accepted files
+     * @throws IOException if preVisitDirectory throws it
+     */
+    public final Map<OUT, OUT> scan(Path root, DirectorySnapshot previous) throws IOException {
+        start = System.currentTimeMillis();
+        this.root = root;
+        this.previous = previous;
+        this.snapshot = DirectorySnapshot.concurrent(root);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(root));
+        } catch (ScanException ex) {
+            throw ex.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        Map<OUT, OUT> canonicalMap = new HashMap<>(accepted.get() * 2);
+        for (Map<OUT, OUT> m : workerMaps) {
+            for (OUT out : m.keySet()) {
+                if (!canonicalMap.containsKey(out)) {
+                    canonicalMap.put(out, out);
+                }
+            }
+        }
+        workerMaps.clear();
+        if (progress != null) {
+            progress.progress(metrics(true));
+        }
+        return canonicalMap;
+    }
+
+    /**
+     * @return the state of the tree in the last scan, to use in the next scan
+     */
+    public DirectorySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the metrics of the scan until now
+     */
+    public Metrics getMetrics() {
+        return metrics(false);
+    }
+
+    private Metrics metrics(boolean done) {
+        return new Metrics(directories.get(), listed.get(), files.get(), accepted.get(), System.currentTimeMillis() - start, done);
+    }
+
+    /**
+     * Called before listing a directory, override this to do something with
+     * directories.
+     *
+     * @return if the directory should be listed
+     */
+    protected boolean preVisitDirectory(Path dir) throws IOException {
+        return Files.isReadable(dir);
+    }
+
+    /**
+     * Override this to accept the OUT form of the files in the list, return
+     * null to skip.
+     *
+     * @param file
+     * @return the transform of the file or null to skip it
+     */
+    protected abstract OUT accepts(Path file);
+
+    /**
+     * Lists the directory, forking tasks for the subdirectories and recording
+     * it on the snapshot
+     *
+     * @return number of files (not subdirectories) visited
+     */
+    private int list(Path dir, String relativeDir, long lastModified, List<DirectoryTask> subtrees, Map<OUT, OUT> found) {
+        listed.incrementAndGet();
+        List<String> acceptedFiles = new ArrayList<>();
+        List<String> subdirectories = new ArrayList<>();
+        int visited = 0;
+        int entries = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                entries++;
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException ex) {
+                    LogManager.getLogger().warn("visitFileFailed: " + ex.getMessage());
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    DirectoryTask t = new DirectoryTask(p);
+                    t.fork();
+                    subtrees.add(t);
+                    subdirectories.add(p.getFileName().toString());
+                } else {
+                    visited++;
+                    //symbolic links to files are followed by walkFileTree
+                    OUT out = accepts(p);
+                    if (out != null && Files.isReadable(p)) {
+                        acceptedFiles.add(p.getFileName().toString());
+                        if (!found.containsKey(out)) {
+                            found.put(out, out);
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            LogManager.getLogger().warn("visitFileFailed: " + ex.getMessage());
+            //incomplete listing, don't trust it next time
+            lastModified = DirectorySnapshot.Directory.UNKNOWN;
+        }
+        //modifications in the same clock tick as the listing wouldn't change
+        //the time, so directories modified close to the scan are not trusted
+        if (lastModified > start - RACY_INTERVAL) {
+            lastModified = DirectorySnapshot.Directory.UNKNOWN;
+        }
+        snapshot.put(relativeDir, new DirectorySnapshot.Directory(lastModified, entries,
+                acceptedFiles.toArray(new String[acceptedFiles.size()]),
+                subdirectories.toArray(new String[subdirectories.size()])));
+        return visited;
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+
+        private final Path dir;
+
+        DirectoryTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (!preVisitDirectory(dir)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                throw new ScanException(ex);
+            }
+            String relativeDir = root.relativize(dir).toString();
+            long lastModified;
+            try {
+                lastModified = Files.getLastModifiedTime(dir).toMillis();
+            } catch (IOException ex) {
+                LogManager.getLogger().warn("visitFileFailed: " + ex.getMessage());
+                return;
+            }
+            List<DirectoryTask> subtrees = new ArrayList<>();
+            Map<OUT, OUT> found = workerMap.get();
+            DirectorySnapshot.Directory unchanged = previous.unchanged(root, relativeDir, lastModified);
+            int visited;
+            if (unchanged != null) {
+                for (String sub : unchanged.subdirectories) {
+                    DirectoryTask t = new DirectoryTask(dir.resolve(sub));
+                    t.fork();
+                    subtrees.add(t);
+                }
+                for (String file : unchanged.files) {
+                    OUT out = accepts(dir.resolve(file));
+                    if (out != null && !found.containsKey(out)) {
+                        found.put(out, out);
+                        accepted.incrementAndGet();
+                    }
+                }
+                visited = unchanged.entries - unchanged.subdirectories.length;
+                snapshot.put(relativeDir, unchanged);
+            } else {
+                visited = list(dir, relativeDir, lastModified, subtrees, found);
+            }
+            files.addAndGet(visited);
+            if (directories.incrementAndGet() % PROGRESS_STRIDE == 0 && progress != null) {
+                progress.progress(metrics(false));
+            }
+            for (DirectoryTask t : subtrees) {
+                t.join();
+            }
+        }
+    }
+
+    private static final class ScanException extends RuntimeException {
+
+        ScanException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package i3.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CharsetDetectingReaderTest {
+
+    private static final String RUSSIAN = "Была тёмная и бурная ночь; дождь лил потоками, кроме редких промежутков.\n";
+    private static final String LATIN = "The café owner said the naïve señor walked by the façade, déjà vu.\n";
+
+    private static String repeat(String s, int times) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            b.append(s);
+        }
+        return b.toString();
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder b = new StringBuilder();
+        char[] chars = new char[100];
+        for (int read; (read = reader.read(chars)) != -1;) {
+            b.append(chars, 0, read);
+        }
+        return b.toString();
+    }
+
+    @Test
+    public void decodesInTheDetectedCharset() throws IOException {
+        String[][] texts = {
+            {repeat(LATIN, 500), "UTF-8"},
+            {repeat(RUSSIAN, 500), "UTF-8"},
+            {repeat(RUSSIAN, 500), "windows-1251"},
+            {repeat(RUSSIAN, 500), "KOI8-R"}
+        };
+        for (String[] text : texts) {
+            CharsetDetectingReader reader = new CharsetDetectingReader(new ByteArrayInputStream(text[0].getBytes(text[1])), 15000, "US-ASCII", false);
+            assertEquals(text[1], text[0], read(reader));
+        }
+    }
+
+    @Test
+    public void stopsProbingWhenSure() throws IOException {
+        final byte[] bytes = repeat(LATIN, 1000).getBytes("UTF-16");
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        CharsetDetectingReader reader = new CharsetDetectingReader(in, 15000, "US-ASCII", false);
+        assertTrue(reader.getCharset().startsWith("UTF-16"));
+        //the byte order mark is enough
+        assertTrue(bytes.length - in.available() < 15000);
+        assertEquals(repeat(LATIN, 1000), read(reader).replace("﻿", ""));
+    }
+
+    @Test
+    public void htmlDeclarationOrDefault() throws IOException {
+        String html = "<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-7\"></head><body>text</body></html>";
+        CharsetDetectingReader reader = new CharsetDetectingReader(new ByteArrayInputStream(html.getBytes("US-ASCII")), 20000, "windows-1252", true);
+        assertEquals("ISO-8859-7", reader.getCharset());
+        assertEquals(html, read(reader));
+        reader = new CharsetDetectingReader(new ByteArrayInputStream(html.getBytes("US-ASCII")), 20000, "windows-1252", false);
+        assertEquals("windows-1252", reader.getCharset());
+    }
+}
@@ -0,0 +1,81 @@
+package i3.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class JournalTest {
+
+    private static List<String> replay(Journal j) throws IOException {
+        final List<String> records = new ArrayList<>();
+        j.replay(new Journal.Replay() {
+            @Override
+            public void record(byte[] record) {
+                records.add(new String(record));
+            }
+        });
+        return records;
+    }
+
+    @Test
+    public void appendAndReplay() throws IOException {
+        Path file = Files.createTempFile("journal", null);
+        try (Journal j = new Journal(file, 10)) {
+            assertTrue(replay(j).isEmpty());
+            j.append("first".getBytes());
+            j.append("".getBytes());
+            j.append("third".getBytes());
+            assertEquals(3, j.records());
+        }
+        try (Journal j = new Journal(file, 10)) {
+            assertEquals(3, replay(j).size());
+            assertEquals("third", replay(j).get(2));
+            j.truncate();
+            assertEquals(0, j.records());
+            j.append("after".getBytes());
+        }
+        try (Journal j = new Journal(file, 10)) {
+            assertEquals("after", replay(j).get(0));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendBeforeReplay() throws IOException {
+        try (Journal j = new Journal(Files.createTempFile("journal", null), 10)) {
+            j.append("first".getBytes());
+        }
+    }
+
+    @Test
+    public void corruptTailIsDiscarded() throws IOException {
+        Path file = Files.createTempFile("journal", null);
+        try (Journal j = new Journal(file, 10)) {
+            replay(j);
+            j.append("first".getBytes());
+            j.append("second".getBytes());
+        }
+        long size = Files.size(file);
+        //torn write of the last record
+        try (FileChannel c = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            c.truncate(size - 2);
+        }
+        try (Journal j = new Journal(file, 10)) {
+            List<String> records = replay(j);
+            assertEquals(1, records.size());
+            j.append("third".getBytes());
+        }
+        //flipped bit in the last record
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        try (Journal j = new Journal(file, 10)) {
+            assertEquals(1, replay(j).size());
+        }
+    }
+}
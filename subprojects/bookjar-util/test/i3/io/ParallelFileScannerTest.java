@@ -0,0 +1,157 @@
+package i3.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParallelFileScannerTest {
+
+    private static Path tree(int width, int depth) throws IOException {
+        Path root = Files.createTempDirectory("scan");
+        fill(root, width, depth);
+        return root;
+    }
+
+    private static void fill(Path dir, int width, int depth) throws IOException {
+        for (int i = 0; i < width; i++) {
+            Files.createFile(dir.resolve("book " + depth + " " + i + ".txt"));
+            Files.createFile(dir.resolve("cover " + depth + " " + i + ".jpg"));
+            if (depth > 0) {
+                Path sub = Files.createDirectory(dir.resolve("dir " + i));
+                fill(sub, width, depth - 1);
+            }
+        }
+    }
+
+    @Test
+    public void sameAsWalkFileTree() throws IOException {
+        Path root = tree(4, 3);
+        FileVisitors.Files walk = new FileVisitors.Files();
+        Files.walkFileTree(root, walk);
+
+        final List<ParallelFileScanner.Metrics> reports = Collections.synchronizedList(new ArrayList<ParallelFileScanner.Metrics>());
+        ParallelFileScanner<Path> scanner = new ParallelFileScanner<Path>(3, new ParallelFileScanner.Progress() {
+            @Override
+            public void progress(ParallelFileScanner.Metrics metrics) {
+                reports.add(metrics);
+            }
+        }) {
+            @Override
+            protected Path accepts(Path file) {
+                return file.toString().endsWith(".txt") ? file : null;
+            }
+        };
+        Map<Path, Path> scanned = scanner.scan(root);
+        int txt = 0;
+        for (Path p : walk.canonicalMap.keySet()) {
+            if (p.toString().endsWith(".txt")) {
+                assertTrue(scanned.containsKey(p));
+                txt++;
+            }
+        }
+        assertEquals(txt, scanned.size());
+
+        ParallelFileScanner.Metrics last = reports.get(reports.size() - 1);
+        assertTrue(last.done);
+        //4 + 16 + 64 + root
+        assertEquals(85, last.directories);
+        assertEquals(walk.canonicalMap.size(), last.files);
+        assertEquals(txt, last.accepted);
+        IoUtils.deleteFileOrDir(root);
+    }
+
+    private static ParallelFileScanner<Path> txtScanner() {
+        return new ParallelFileScanner<Path>(2, null) {
+            @Override
+            protected Path accepts(Path file) {
+                return file.toString().endsWith(".txt") ? file : null;
+            }
+        };
+    }
+
+    /**
+     * Directories modified right before the scan are always listed
+     */
+    private static void age(Path root) throws IOException {
+        final FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.setLastModifiedTime(dir, past);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void incremental() throws IOException {
+        Path root = tree(3, 2);
+        age(root);
+        ParallelFileScanner<Path> scanner = txtScanner();
+        Map<Path, Path> full = scanner.scan(root);
+        assertEquals(13, scanner.getMetrics().listed);
+
+        Path saved = Files.createTempFile("snapshot", null);
+        scanner.getSnapshot().write(saved);
+        DirectorySnapshot snapshot = DirectorySnapshot.read(saved);
+        assertEquals(13, snapshot.size());
+
+        scanner = txtScanner();
+        assertEquals(full, scanner.scan(root, snapshot));
+        assertEquals(0, scanner.getMetrics().listed);
+        assertEquals(13, scanner.getMetrics().directories);
+        assertEquals(full.size() * 2, scanner.getMetrics().files);
+
+        Path changed = root.resolve("dir 1").resolve("dir 2");
+        Path added = Files.createFile(changed.resolve("new.txt"));
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(System.currentTimeMillis() - 30000));
+        snapshot = scanner.getSnapshot();
+        scanner = txtScanner();
+        Map<Path, Path> incremental = scanner.scan(root, snapshot);
+        assertEquals(1, scanner.getMetrics().listed);
+        assertEquals(full.size() + 1, incremental.size());
+        assertTrue(incremental.containsKey(added));
+
+        //a snapshot of another root is ignored
+        scanner = txtScanner();
+        Path other = tree(1, 1);
+        scanner.scan(other, snapshot);
+        assertEquals(2, scanner.getMetrics().listed);
+        IoUtils.deleteFileOrDir(root);
+        IoUtils.deleteFileOrDir(other);
+        Files.delete(saved);
+    }
+
+    @Test(expected = IOException.class)
+    public void directoryFailure() throws IOException {
+        Path root = tree(2, 2);
+        try {
+            new ParallelFileScanner<Path>(2, null) {
+                @Override
+                protected boolean preVisitDirectory(Path dir) throws IOException {
+                    if (dir.getFileName().toString().equals("dir 1")) {
+                        throw new IOException("can't watch");
+                    }
+                    return true;
+                }
+
+                @Override
+                protected Path accepts(Path file) {
+                    return file;
+                }
+            }.scan(root);
+        } finally {
+            IoUtils.deleteFileOrDir(root);
+        }
+    }
+}
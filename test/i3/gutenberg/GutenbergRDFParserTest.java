@@ -0,0 +1,164 @@
+package i3.gutenberg;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.ZipInputStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class GutenbergRDFParserTest {
+
+    private static final String CATALOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE rdf:RDF [<!ENTITY f 'http://www.gutenberg.org/dirs/'>]>\n"
+            + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\""
+            + " xmlns:dcterms=\"http://purl.org/dc/terms/\" xmlns:pgterms=\"http://www.gutenberg.org/rdfterms/\">\n"
+            + "<pgterms:etext rdf:ID=\"etext1\">\n"
+            + "  <dc:title rdf:parseType=\"Literal\">The Declaration\nof Independence</dc:title>\n"
+            + "  <dc:creator><rdf:Bag><rdf:li rdf:parseType=\"Literal\">Jefferson, Thomas</rdf:li><rdf:li>Franklin, Benjamin</rdf:li></rdf:Bag></dc:creator>\n"
+            + "  <dc:language><dcterms:ISO639-2><rdf:value>en</rdf:value></dcterms:ISO639-2></dc:language>\n"
+            + "  <dc:subject><rdf:Bag><rdf:li><dcterms:LCSH><rdf:value>United States -- History</rdf:value></dcterms:LCSH></rdf:li>"
+            + "<rdf:li><dcterms:LCC><rdf:value>E201</rdf:value></dcterms:LCC></rdf:li></rdf:Bag></dc:subject>\n"
+            + "</pgterms:etext>\n"
+            + "<pgterms:etext rdf:ID=\"etext2\">\n"
+            + "  <dc:title>A Recording</dc:title><dc:creator>Somebody</dc:creator><dc:type><dcterms:DCMIType><rdf:value>Sound</rdf:value></dcterms:DCMIType></dc:type>\n"
+            + "  <dc:language><dcterms:ISO639-2><rdf:value>en</rdf:value></dcterms:ISO639-2></dc:language>\n"
+            + "</pgterms:etext>\n"
+            + file("etext90/when10.txt", "text/plain; charset=\"us-ascii\"", 1)
+            + file("etext90/when10h.htm", "text/html; charset=\"iso-8859-1\"", 1)
+            + file("etext90/when10.mp3", "audio/mpeg", 1)
+            + file("etext91/rec.txt", "text/plain", 2)
+            + "</rdf:RDF>";
+
+    private static String file(String path, String mime, int etext) {
+        return "<pgterms:file rdf:about=\"&f;" + path + "\">"
+                + "<dc:format><dcterms:IMT><rdf:value>" + mime.replace("\"", "&quot;") + "</rdf:value></dcterms:IMT></dc:format>"
+                + "<dc:format><dcterms:IMT><rdf:value>application/zip</rdf:value></dcterms:IMT></dc:format>"
+                + "<dcterms:extent>1234</dcterms:extent>"
+                + "<dcterms:isFormatOf rdf:resource=\"#etext" + etext + "\"/></pgterms:file>\n";
+    }
+
+    private static <T extends Directory> T index(InputStream catalog, T dir, int threads) throws IOException {
+        GutenbergSearch.index(dir, new EnglishAnalyzer(Version.LUCENE_41), catalog, threads);
+        return dir;
+    }
+
+    private static InputStream stream(String catalog) {
+        return new ByteArrayInputStream(catalog.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void parse() throws IOException {
+        RAMDirectory dir = index(stream(CATALOG), new RAMDirectory(), 2);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(1, reader.numDocs());
+            Document d = reader.document(0);
+            assertEquals("The Declaration of Independence", d.get("title"));
+            assertEquals("Jefferson, Thomas\nFranklin, Benjamin", d.get("creator"));
+            assertEquals("", d.get("contributor"));
+            assertEquals("United States -- History", d.get("subject"));
+            assertEquals("en", d.get("language"));
+            assertEquals("text/html; charset=\"iso-8859-1\"\n1234\netext90/when10h.htm", d.get("metadata"));
+            assertEquals("1", d.get("id"));
+        }
+    }
+
+    @Test
+    public void bookWrittenOnce() throws IOException {
+        //a later group of files of the same etext
+        String again = CATALOG.replace("</rdf:RDF>", file("etext90/when10.zip", "text/plain", 1) + "</rdf:RDF>");
+        RAMDirectory dir = index(stream(again), new RAMDirectory(), 2);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(1, reader.maxDoc());
+        }
+    }
+
+    @Test
+    public void incrementalUpdate() throws IOException {
+        RAMDirectory dir = index(stream(CATALOG), new RAMDirectory(), 2);
+        String second = "<pgterms:etext rdf:ID=\"etext3\"><dc:title>Another</dc:title><dc:creator>Someone</dc:creator>"
+                + "<dc:language><dcterms:ISO639-2><rdf:value>fr</rdf:value></dcterms:ISO639-2></dc:language></pgterms:etext>\n";
+        //the etexts come before the files
+        String withSecond = CATALOG.replace("<pgterms:etext rdf:ID=\"etext2\">", second + "<pgterms:etext rdf:ID=\"etext2\">")
+                .replace("</rdf:RDF>", file("3/3.txt", "text/plain", 3) + "</rdf:RDF>");
+        index(stream(withSecond), dir, 2);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(2, reader.numDocs());
+            //unchanged books are not rewritten
+            assertEquals(2, reader.maxDoc());
+        }
+
+        //change one book, delete the other
+        String changed = CATALOG.replace("The Declaration", "The Changed Declaration");
+        index(stream(changed), dir, 2);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(1, reader.numDocs());
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopDocs docs = searcher.search(new TermQuery(new Term("id", "1")), 10);
+            assertEquals(1, docs.totalHits);
+            assertEquals("The Changed Declaration of Independence", searcher.doc(docs.scoreDocs[0].doc).get("title"));
+        }
+    }
+
+    //@Test
+    public void catalogPeakHeap() throws IOException {
+        //a local copy of http://www.gutenberg.org/feeds/catalog.rdf.zip
+        String catalog = System.getProperty("bookjar.catalog", "catalog.rdf.zip");
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.currentTimeMillis();
+        int documents;
+        try (ZipInputStream zp = new ZipInputStream(Files.newInputStream(Paths.get(catalog)))) {
+            zp.getNextEntry();
+            //not in the heap, like the real index
+            Directory dir = index(zp, FSDirectory.open(Files.createTempDirectory("gutenberg").toFile()), Runtime.getRuntime().availableProcessors());
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                documents = reader.numDocs();
+            }
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println(documents + " documents in " + (System.currentTimeMillis() - start) + "ms, peak heap " + peak / (1024 * 1024) + "MB");
+    }
+
+    //@Test
+    public void catalogThroughput() throws IOException {
+        String catalog = System.getProperty("bookjar.catalog", "catalog.rdf.zip");
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            long start = System.currentTimeMillis();
+            int documents;
+            try (ZipInputStream zp = new ZipInputStream(Files.newInputStream(Paths.get(catalog)))) {
+                zp.getNextEntry();
+                Directory dir = index(zp, FSDirectory.open(Files.createTempDirectory("gutenberg").toFile()), threads);
+                try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                    documents = reader.numDocs();
+                }
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            System.out.println(threads + " threads: " + documents * 1000L / elapsed + " docs/sec");
+        }
+    }
+}
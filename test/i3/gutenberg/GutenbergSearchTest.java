@@ -0,0 +1,54 @@
+package i3.gutenberg;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class GutenbergSearchTest {
+
+    @Test
+    public void resultPages() throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_41, new KeywordAnalyzer()))) {
+            for (int i = 0; i < 100; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+                doc.add(new StringField("language", i % 2 == 0 ? "en" : "fr", Field.Store.NO));
+                writer.addDocument(doc);
+            }
+        }
+        SearcherManager manager = new SearcherManager(dir, null);
+        GutenbergSearch.Results results = new GutenbergSearch.Results(manager, new TermQuery(new Term("language", "en")), 7);
+        assertEquals(50, results.getTotalHits());
+        assertEquals(8, results.getPages());
+        //out of order, like a scrolled list
+        List<Document> page = results.page(3);
+        assertEquals(7, page.size());
+        assertEquals("42", page.get(0).get("id"));
+        assertEquals("0", results.page(0).get(0).get("id"));
+        page = results.page(7);
+        assertEquals(1, page.size());
+        assertEquals("98", page.get(0).get("id"));
+        assertTrue(results.page(8).isEmpty());
+        results.close();
+        try {
+            results.page(0);
+            fail("closed results should not be read");
+        } catch (IOException ex) {
+            //expected
+        }
+        manager.close();
+    }
+}
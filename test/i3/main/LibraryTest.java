@@ -0,0 +1,174 @@
+package i3.main;
+
+import i3.io.Journal;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LibraryTest {
+
+    private static Path root;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        //library state files are relative to this, set before loading Library
+        Bookjar.programLocation = Files.createTempDirectory("bookjar");
+        root = Files.createTempDirectory("library");
+        //a journal of a version with java serialized records
+        try (Journal journal = new Journal(Bookjar.programLocation.resolve("library.journal"), 0)) {
+            journal.replay(new Journal.Replay() {
+                @Override
+                public void record(byte[] record) {
+                }
+            });
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                //create
+                out.writeByte(0);
+                out.writeObject(new LocalBook(Paths.get("older journal.txt"), null, 7, 0.0F, false, false));
+            }
+            journal.append(bytes.toByteArray());
+        }
+    }
+
+    private static Library library() {
+        Library lib = new Library();
+        //there is no saved root, so loading unsets it
+        Library.libraryRoot = root;
+        return lib;
+    }
+
+    private static Map<LocalBook, LocalBook> books(int size) {
+        Map<LocalBook, LocalBook> books = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            LocalBook b = new LocalBook(Paths.get("author " + (i % 1000), "book " + i + ".txt"), null, 0, 0.0F, false, false);
+            books.put(b, b);
+        }
+        return books;
+    }
+
+    @Test
+    public void olderJournal() {
+        LocalBook b = library().get(root.resolve("older journal.txt"));
+        assertNotNull(b);
+        assertEquals(7, b.getBookmark().intValue());
+    }
+
+    @Test
+    public void indexFollowsModifications() {
+        Library lib = library();
+        lib.validateBooks(books(100));
+        //books of the other tests are loaded too
+        int size = lib.size();
+        Path key = root.resolve(Paths.get("author 42", "book 42.txt"));
+        LocalBook b = lib.get(key);
+        assertNotNull(b);
+        //same filename in another dir is the same book
+        assertEquals(b, lib.get(root.resolve("book 42.txt")));
+        assertNull(lib.get(root.resolve("book 100.txt")));
+
+        assertTrue(lib.breakBook(key));
+        assertTrue(lib.get(key).isBroken());
+        assertFalse(lib.breakBook(root.resolve("book 100.txt")));
+
+        lib.replace(lib.get(key).setBookmark(20));
+        assertEquals(20, lib.get(key).getBookmark().intValue());
+        assertEquals(lib.get(key), lib.getFirst());
+
+        LocalBook created = lib.createIfAbsent(root.resolve("book 100.txt"), null, false);
+        assertSame(created, lib.get(root.resolve("book 100.txt")));
+        assertSame(created, lib.createIfAbsent(root.resolve("book 100.txt"), null, false));
+        assertEquals(size + 1, lib.size());
+
+        lib.removeBooks(Collections.singleton(created));
+        assertNull(lib.get(root.resolve("book 100.txt")));
+        assertEquals(size, lib.size());
+    }
+
+    @Test
+    public void journalReplay() {
+        Library lib = library();
+        Path first = root.resolve("journal 1.txt"), second = root.resolve("journal 2.txt"), third = root.resolve("journal 3.txt");
+        lib.createIfAbsent(first, null, false);
+        lib.createIfAbsent(second, null, false);
+        lib.createIfAbsent(third, null, false);
+        lib.replace(lib.get(first).setBookmark(42));
+        lib.removeBooks(Collections.singleton(lib.get(second)));
+
+        Library reloaded = library();
+        assertEquals(42, reloaded.get(first).getBookmark().intValue());
+        assertEquals(reloaded.get(first), reloaded.getFirst());
+        assertNull(reloaded.get(second));
+        assertNotNull(reloaded.get(third));
+    }
+
+    @Test
+    public void batchUpdate() throws IOException {
+        Library lib = library();
+        Path gone = root.resolve(Paths.get("batch dir", "batch 1.txt"));
+        Path moved = root.resolve(Paths.get("batch dir", "batch 2.txt"));
+        Path kept = root.resolve("batch 3.txt");
+        lib.createIfAbsent(gone, null, false);
+        lib.createIfAbsent(moved, null, false);
+        lib.createIfAbsent(kept, null, false);
+        int size = lib.size();
+
+        Path movedTo = Files.createDirectories(root.resolve("batch moved")).resolve("batch 2.txt");
+        Files.createFile(movedTo);
+        Path first = root.resolve("batch 4.txt"), second = root.resolve("batch 5.txt");
+        lib.update(Arrays.asList(first, movedTo, second), Collections.singleton(root.resolve("batch dir")), Collections.<Path>emptySet());
+
+        assertEquals(size + 2, lib.size());
+        assertTrue(lib.get(gone).isBroken());
+        assertFalse(lib.get(kept).isBroken());
+        assertEquals(root.relativize(movedTo), lib.get(moved).getRelativeFile());
+        assertFalse(lib.get(moved).isBroken());
+        //newest first
+        assertEquals(lib.get(second), lib.getFirst());
+
+        lib.update(Collections.<Path>emptySet(), Collections.<Path>emptySet(), Collections.singleton(root.resolve("batch moved")));
+        assertTrue(lib.get(moved).isBroken());
+    }
+
+    /**
+     * Throughput of bulk import and lookups, with increasingly big libraries
+     */
+    //@Test
+    public void lookupPerformance() {
+        ThreadMXBean t = ManagementFactory.getThreadMXBean();
+        for (int size : new int[]{10000, 100000, 1000000}) {
+            Library lib = library();
+            Map<LocalBook, LocalBook> books = books(size);
+            Path[] keys = new Path[size];
+            int i = 0;
+            for (LocalBook b : books.keySet()) {
+                keys[i++] = root.resolve(b.getRelativeFile());
+            }
+
+            long time = t.getCurrentThreadCpuTime();
+            lib.validateBooks(books);
+            long importTime = t.getCurrentThreadCpuTime() - time;
+
+            time = t.getCurrentThreadCpuTime();
+            for (Path key : keys) {
+                assertNotNull(lib.get(key));
+            }
+            long lookupTime = t.getCurrentThreadCpuTime() - time;
+
+            System.out.println(String.format("%d books: import %.0f books/s, lookup %.0f books/s",
+                    size, size / (importTime / 1e9), size / (lookupTime / 1e9)));
+        }
+    }
+}
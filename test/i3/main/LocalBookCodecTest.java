@@ -0,0 +1,85 @@
+package i3.main;
+
+import i3.io.ObjectsReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import ca.odell.glazedlists.BasicEventList;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LocalBookCodecTest {
+
+    private static List<LocalBook> books(int size) {
+        List<LocalBook> books = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Path file = i % 7 == 0 ? Paths.get("book " + i + ".txt") : Paths.get("author " + (i % 1000), "series", "book " + i + ".txt");
+            books.add(new LocalBook(file, i % 3 == 0 ? "en" : null, i * 31, (i % 100) / 100F, i % 5 == 0, false));
+        }
+        return books;
+    }
+
+    private static void assertSameBooks(List<LocalBook> expected, List<LocalBook> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            LocalBook e = expected.get(i), a = actual.get(i);
+            assertEquals(e.getRelativeFile(), a.getRelativeFile());
+            assertEquals(e.getLanguage(), a.getLanguage());
+            assertEquals(e.getBookmark(), a.getBookmark());
+            assertEquals(e.getReadPercentage(), a.getReadPercentage());
+            assertEquals(e.isGutenbergFile(), a.isGutenbergFile());
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Path file = Files.createTempFile("library", ".books");
+        List<LocalBook> books = books(1000);
+        books.add(new LocalBook(Paths.get("last.epub"), "pt", -1, 1F, false, true));
+        LocalBookCodec.write(file, "/ação €", books);
+        List<LocalBook> read = new ArrayList<>();
+        assertEquals("/ação €", LocalBookCodec.read(file, read));
+        assertSameBooks(books, read);
+
+        byte[] op = new byte[1];
+        LocalBook b = books.get(books.size() - 1);
+        assertSameBooks(books.subList(books.size() - 1, books.size()), java.util.Collections.singletonList(LocalBookCodec.decode(LocalBookCodec.encode((byte) 2, b), op)));
+        assertEquals(2, op[0]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws IOException {
+        Path file = Files.createTempFile("library", ".bin");
+        ObjectsReader.writeObjects(file, "/some/root", new BasicEventList<>());
+        LocalBookCodec.read(file, new ArrayList<LocalBook>());
+    }
+
+    //@Test
+    public void formatPerformance() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        List<LocalBook> books = books(100000);
+        BasicEventList<LocalBook> list = new BasicEventList<>();
+        list.addAll(books);
+        Path serialized = Files.createTempFile("library", ".bin");
+        Path binary = Files.createTempFile("library", ".books");
+        ObjectsReader.writeObjects(serialized, "/some/root", list);
+        LocalBookCodec.write(binary, "/some/root", books);
+        for (int run = 0; run < 5; run++) {
+            long start = bean.getCurrentThreadCpuTime();
+            try (ObjectsReader it = new ObjectsReader(serialized)) {
+                it.readOrReturn("");
+                it.readOrLazyCreate(BasicEventList.class);
+            }
+            long middle = bean.getCurrentThreadCpuTime();
+            LocalBookCodec.read(binary, new ArrayList<LocalBook>(books.size()));
+            long end = bean.getCurrentThreadCpuTime();
+            System.out.println("serialization " + Files.size(serialized) / 1024 + "KB " + (middle - start) / 1000000 + "ms, "
+                    + "binary " + Files.size(binary) / 1024 + "KB " + (end - middle) / 1000000 + "ms");
+        }
+    }
+}